@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.simulator;
+
+import net.orbismc.tenacity.db.DatabaseMetrics;
+import net.orbismc.tenacity.metrics.Histogram;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.RetentionPolicy;
+import net.orbismc.tenacity.store.StoreException;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Wraps a {@link PlayerStore}, counting and timing every operation which accesses the storage.
+ */
+final class CountingStore implements PlayerStore {
+	private final PlayerStore store;
+	private final Histogram latency;
+	private final LongAdder operations;
+
+	/**
+	 * @param store      The store to wrap.
+	 * @param latency    The histogram to record the time every operation took in.
+	 * @param operations The counter to count operations with.
+	 */
+	CountingStore(final @NotNull PlayerStore store, final @NotNull Histogram latency, final @NotNull LongAdder operations) {
+		this.store = store;
+		this.latency = latency;
+		this.operations = operations;
+	}
+
+	@Override
+	public void open() throws StoreException {
+		store.open();
+	}
+
+	@Override
+	public Claim claim(final @NotNull UUID uuid) throws StoreException {
+		final var start = System.nanoTime();
+		try {
+			return store.claim(uuid);
+		} finally {
+			count(start);
+		}
+	}
+
+	@Override
+	public void release(final @NotNull UUID uuid, final long version) throws StoreException {
+		final var start = System.nanoTime();
+		try {
+			store.release(uuid, version);
+		} finally {
+			count(start);
+		}
+	}
+
+	@Override
+	public void renewLeases(final @NotNull Collection<UUID> uuids) throws StoreException {
+		final var start = System.nanoTime();
+		try {
+			store.renewLeases(uuids);
+		} finally {
+			count(start);
+		}
+	}
+
+	@Override
+	public List<UUID> save(final @NotNull List<Write> writes) throws StoreException {
+		final var start = System.nanoTime();
+		try {
+			return store.save(writes);
+		} finally {
+			count(start);
+		}
+	}
+
+	@Override
+	public void exportPlayers(final int fetchSize, final @NotNull Consumer<SerializedPlayer> consumer) throws StoreException {
+		store.exportPlayers(fetchSize, consumer);
+	}
+
+	@Override
+	public void importPlayers(final @NotNull List<SerializedPlayer> players) throws StoreException {
+		store.importPlayers(players);
+	}
+
+	@Override
+	public Map<Integer, NamespacedKey> getRecipeDictionary() throws StoreException {
+		return store.getRecipeDictionary();
+	}
+
+	@Override
+	public Map<Integer, String> getCriterionDictionary() throws StoreException {
+		return store.getCriterionDictionary();
+	}
+
+	@Override
+	public List<Snapshot> listSnapshots(final @NotNull UUID uuid, final int limit) throws StoreException {
+		return store.listSnapshots(uuid, limit);
+	}
+
+	@Override
+	public RestoreResult restoreSnapshot(final @NotNull UUID uuid, final long id) throws StoreException {
+		return store.restoreSnapshot(uuid, id);
+	}
+
+	@Override
+	public int pruneSnapshots(final @NotNull RetentionPolicy policy, final long now) throws StoreException {
+		return store.pruneSnapshots(policy, now);
+	}
+
+	@Override
+	public int getRecipeId(final @NotNull NamespacedKey recipe) {
+		return store.getRecipeId(recipe);
+	}
+
+	@Override
+	public void registerRecipes(final @NotNull Collection<NamespacedKey> recipes) throws StoreException {
+		store.registerRecipes(recipes);
+	}
+
+	@Override
+	public int getCriterionId(final @NotNull String criterion) {
+		return store.getCriterionId(criterion);
+	}
+
+	@Override
+	public void registerCriteria(final @NotNull Collection<String> criteria) throws StoreException {
+		store.registerCriteria(criteria);
+	}
+
+	@Override
+	public DatabaseMetrics getMetrics() {
+		return store.getMetrics();
+	}
+
+	@Override
+	public void close() {
+		store.close();
+	}
+
+	private void count(final long start) {
+		latency.recordSince(start);
+		operations.increment();
+	}
+}
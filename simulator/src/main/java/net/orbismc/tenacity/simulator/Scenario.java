@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.simulator;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * Describes a join storm to simulate: how many players arrive over which time and how often they hop
+ * between servers before leaving.
+ *
+ * @param store       The storage backend, <tt>h2</tt>, <tt>memory</tt> or <tt>mariadb</tt>.
+ * @param url         The JDBC URL of the MariaDB database, only used with <tt>mariadb</tt>.
+ * @param players     The number of players joining.
+ * @param window      The time in seconds over which players arrive.
+ * @param poisson     Set to <tt>true</tt> to let players arrive at random, and <tt>false</tt> to spread them evenly.
+ * @param servers     The number of servers in the network.
+ * @param hops        The number of times every player switches to the next server before leaving.
+ * @param stay        The time in seconds a player stays on a server before switching or leaving.
+ * @param applyBudget The time in microseconds the servers may spend applying player data per tick.
+ * @param poolSize    The maximum number of database connections per server.
+ * @param seed        The seed for random arrivals.
+ */
+public record Scenario(@NotNull String store,
+					   @Nullable String url,
+					   int players,
+					   double window,
+					   boolean poisson,
+					   int servers,
+					   int hops,
+					   double stay,
+					   int applyBudget,
+					   int poolSize,
+					   long seed) {
+	public static final String USAGE = """
+			Usage: simulator [options]
+			  --store <h2|memory|mariadb>  Where to store player data (default: h2)
+			  --url <jdbc url>             The database to use with --store mariadb
+			  --players <n>                Players joining (default: 300)
+			  --window <seconds>           Time over which players arrive (default: 10)
+			  --arrival <uniform|poisson>  How arrivals are spread over the window (default: uniform)
+			  --servers <n>                Servers in the network (default: 2)
+			  --hops <n>                   Server switches per player before leaving (default: 1)
+			  --stay <seconds>             Time spent on a server before switching or leaving (default: 5)
+			  --budget <microseconds>      Time per tick for applying player data (default: 5000)
+			  --pool <n>                   Database connections per server (default: 3)
+			  --seed <n>                   Seed for random arrivals (default: 1)""";
+
+	/**
+	 * Reads a scenario from command line arguments. Options which are not given keep their default.
+	 *
+	 * @param args The arguments.
+	 * @return The scenario.
+	 * @throws IllegalArgumentException If an argument is unknown or invalid.
+	 */
+	public static Scenario parse(final String @NotNull [] args) {
+		String store = "h2", url = null, arrival = "uniform";
+		int players = 300, servers = 2, hops = 1, applyBudget = 5000, poolSize = 3;
+		double window = 10, stay = 5;
+		long seed = 1;
+
+		for (int i = 0; i < args.length; i += 2) {
+			if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for %s".formatted(args[i]));
+			final var value = args[i + 1];
+
+			switch (args[i]) {
+				case "--store" -> store = value.toLowerCase(Locale.ROOT);
+				case "--url" -> url = value;
+				case "--players" -> players = Integer.parseInt(value);
+				case "--window" -> window = Double.parseDouble(value);
+				case "--arrival" -> arrival = value.toLowerCase(Locale.ROOT);
+				case "--servers" -> servers = Integer.parseInt(value);
+				case "--hops" -> hops = Integer.parseInt(value);
+				case "--stay" -> stay = Double.parseDouble(value);
+				case "--budget" -> applyBudget = Integer.parseInt(value);
+				case "--pool" -> poolSize = Integer.parseInt(value);
+				case "--seed" -> seed = Long.parseLong(value);
+				default -> throw new IllegalArgumentException("Unknown option %s".formatted(args[i]));
+			}
+		}
+
+		if (!arrival.equals("uniform") && !arrival.equals("poisson")) {
+			throw new IllegalArgumentException("Unknown arrival pattern %s".formatted(arrival));
+		}
+
+		if (players < 1 || servers < 1 || hops < 0) {
+			throw new IllegalArgumentException("There must be at least one player and server");
+		}
+
+		// Every server would get its own copy of the data, so players could never hop between them
+		if (store.equals("memory") && servers > 1) {
+			throw new IllegalArgumentException("The memory store can't be shared between servers, use h2 instead");
+		}
+
+		if (store.equals("mariadb") && url == null) {
+			throw new IllegalArgumentException("--store mariadb needs a --url");
+		}
+
+		return new Scenario(store, url, players, window, arrival.equals("poisson"), servers, hops, stay, applyBudget, poolSize, seed);
+	}
+
+	@Override
+	public String toString() {
+		return "%d players over %.1f s (%s), %d servers, %d hops every %.1f s, %s store".formatted(
+				players, window, poisson ? "poisson" : "uniform", servers, hops, stay, store);
+	}
+}
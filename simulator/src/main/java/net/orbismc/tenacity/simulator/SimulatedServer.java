@@ -0,0 +1,230 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.simulator;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.bench.Fixtures;
+import net.orbismc.tenacity.metrics.Histogram;
+import net.orbismc.tenacity.metrics.TenacityMetrics;
+import net.orbismc.tenacity.serial.ApplyPlan;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SectionFingerprints;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import net.orbismc.tenacity.task.ApplyQueue;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A server running tenacity, without Minecraft. Players are loaded and saved the same way the plugin does
+ * it: claims are retried with the same backoff while another server holds the lease, data is decoded off
+ * the server thread and applied through an {@link ApplyQueue}, and quitting takes a snapshot on the server
+ * thread which is written off it. The server thread is a single thread ticking 20 times a second, which
+ * runs scheduled tasks and the apply queue and records how long every tick took.
+ */
+final class SimulatedServer implements AutoCloseable {
+	private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	private final String name;
+	private final TenacityConfig config;
+	private final PlayerStore store;
+	private final TenacityMetrics metrics;
+	private final Histogram tickTime;
+	private final LongAdder slowTicks;
+	private final ApplyQueue applyQueue;
+	private final ConcurrentHashMap<UUID, CompletableFuture<Void>> saving = new ConcurrentHashMap<>();
+	private final Set<UUID> online = ConcurrentHashMap.newKeySet();
+	private final ConcurrentLinkedQueue<Runnable> mainTasks = new ConcurrentLinkedQueue<>();
+	private final Executor mainExecutor = mainTasks::add;
+	private final ExecutorService asyncExecutor = Executors.newCachedThreadPool();
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+	/**
+	 * @param name      The name of the server, used in messages.
+	 * @param config    The configuration.
+	 * @param store     The store to load and save players with.
+	 * @param metrics   The metrics to record loads and saves in.
+	 * @param tickTime  The histogram to record the time every tick took in.
+	 * @param slowTicks The counter to count ticks which took longer than 50 ms with.
+	 */
+	SimulatedServer(final @NotNull String name, final @NotNull TenacityConfig config, final @NotNull PlayerStore store,
+					final @NotNull TenacityMetrics metrics, final @NotNull Histogram tickTime, final @NotNull LongAdder slowTicks) {
+		this.name = name;
+		this.config = config;
+		this.store = store;
+		this.metrics = metrics;
+		this.tickTime = tickTime;
+		this.slowTicks = slowTicks;
+		this.applyQueue = new ApplyQueue(TimeUnit.MICROSECONDS.toNanos(Math.max(0, config.loading.applyBudget)), metrics.applyQueueWait);
+	}
+
+	/**
+	 * Starts ticking the server thread and renewing leases.
+	 */
+	void start() {
+		scheduler.scheduleAtFixedRate(this::tick, 50, 50, TimeUnit.MILLISECONDS);
+
+		final var renewMillis = Math.max(1, config.lease.renewInterval) * 1000L;
+		scheduler.scheduleAtFixedRate(() -> asyncExecutor.execute(this::renewLeases), renewMillis, renewMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Lets a player join this server and loads their data.
+	 *
+	 * @param uuid The player joining.
+	 * @return A future which completes with the player once their data has been applied.
+	 */
+	CompletableFuture<Player> join(final @NotNull UUID uuid) {
+		final var joined = System.nanoTime();
+		final var player = Fixtures.emptyPlayer(uuid);
+
+		return fetch(uuid, 0)
+				.thenApplyAsync(this::decode, asyncExecutor)
+				.thenCompose(plan -> applyQueue.submit(() -> {
+					final var start = System.nanoTime();
+					if (plan != null) plan.apply(player);
+
+					// The plugin remembers what the stored data looks like right after applying it
+					SectionFingerprints.of(config.saving, player);
+					metrics.apply.recordSince(start);
+					metrics.loads.increment();
+					metrics.joinToReady.recordSince(joined);
+					online.add(uuid);
+					return true;
+				}))
+				.thenApply(applied -> player);
+	}
+
+	/**
+	 * Lets a player leave this server and saves their data, handing back the lease.
+	 *
+	 * @param player The player leaving.
+	 * @return A future which completes once the player's data has been written.
+	 */
+	CompletableFuture<Void> quit(final @NotNull Player player) {
+		final var uuid = player.getUniqueId();
+		online.remove(uuid);
+		final var saved = CompletableFuture.supplyAsync(() -> {
+			// Players have been playing in the meantime, so everything is saved
+			SectionFingerprints.of(config.saving, player);
+			return PlayerSnapshot.capture(config.saving, player);
+		}, mainExecutor).thenAcceptAsync(this::save, asyncExecutor);
+
+		saving.put(uuid, saved);
+		saved.whenComplete((result, error) -> saving.remove(uuid, saved));
+		return saved;
+	}
+
+	private CompletableFuture<PlayerStore.Claim> fetch(final @NotNull UUID uuid, final int attempts) {
+		final var delay = attempts == 0 ? 0 : Math.min(config.loading.maxRetryDelay, (long) config.loading.retryDelay << Math.min(attempts - 1, 16));
+		final var executor = CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS, asyncExecutor);
+
+		return CompletableFuture.supplyAsync(() -> claim(uuid), executor).thenCompose(claim -> {
+			if (claim.claimed()) return CompletableFuture.completedFuture(claim);
+
+			metrics.handoffRetries.increment();
+			return fetch(uuid, attempts + 1);
+		});
+	}
+
+	private PlayerStore.Claim claim(final @NotNull UUID uuid) {
+		// Like a session waiting for its predecessor, since this server still owns the lease while saving
+		if (saving.containsKey(uuid)) return PlayerStore.Claim.BUSY;
+
+		try {
+			return store.claim(uuid);
+		} catch (final StoreException e) {
+			System.err.printf("[%s] %s%n", name, e);
+			return PlayerStore.Claim.BUSY;
+		}
+	}
+
+	private @Nullable ApplyPlan decode(final @NotNull PlayerStore.Claim claim) {
+		if (claim.serial() == null) return null;
+
+		final var start = System.nanoTime();
+		final var plan = ApplyPlan.of(config.saving, claim.serial());
+		metrics.decode.recordSince(start);
+		return plan;
+	}
+
+	private void save(final @NotNull PlayerSnapshot snapshot) {
+		final var start = System.nanoTime();
+
+		try {
+			if (snapshot.recipeBook != null) store.registerRecipes(snapshot.recipeBook);
+
+			final var serial = SerializedPlayer.fromSnapshot(config.storage, snapshot, store::getRecipeId, store::getCriterionId);
+			final var columns = new ArrayList<String>();
+			for (final var section : Section.values()) {
+				if (serial.sections.contains(section)) columns.addAll(section.getColumns(config.saving));
+			}
+
+			for (final var uuid : store.save(List.of(new PlayerStore.Write(serial, columns, true)))) {
+				System.err.printf("[%s] Could not save %s because another server has taken it over%n", name, uuid);
+			}
+
+			metrics.save.recordSince(start);
+			metrics.saves.increment();
+		} catch (final StoreException e) {
+			System.err.printf("[%s] %s%n", name, e);
+		}
+	}
+
+	private void renewLeases() {
+		// Like the plugin, only players who are online or still being saved keep their lease
+		final var players = new HashSet<>(online);
+		players.addAll(saving.keySet());
+
+		try {
+			store.renewLeases(players);
+		} catch (final StoreException e) {
+			System.err.printf("[%s] %s%n", name, e);
+		}
+	}
+
+	private void tick() {
+		final var start = System.nanoTime();
+
+		try {
+			// Like the server, run everything which was scheduled since the last tick
+			Runnable task;
+			while ((task = mainTasks.poll()) != null) task.run();
+
+			applyQueue.run();
+		} catch (final RuntimeException e) {
+			System.err.printf("[%s] Tick failed: %s%n", name, e);
+		}
+
+		final var elapsed = System.nanoTime() - start;
+		tickTime.record(elapsed);
+		if (elapsed > TICK_NANOS) slowTicks.increment();
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+		asyncExecutor.shutdownNow();
+		store.close();
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.simulator;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.bench.Fixtures;
+import net.orbismc.tenacity.metrics.Histogram;
+import net.orbismc.tenacity.metrics.TenacityMetrics;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+
+/**
+ * Simulates a storm of players joining a network at once, for example after the proxy restarted. Every
+ * player has the data of a late-game player stored, joins one of the servers, hops to the next server a
+ * few times and finally leaves. Prints how long players waited for their data, how busy the storage was
+ * and how much time the servers' main threads spent on tenacity.
+ * <p>
+ * Run with <tt>./gradlew :simulator:run --args="--players 300 --window 10"</tt>, see {@link Scenario#USAGE}
+ * for all options.
+ */
+public final class Simulator {
+	private final Scenario scenario;
+	private final TenacityConfig config;
+	private final TenacityMetrics metrics = new TenacityMetrics();
+	private final Histogram tickTime = new Histogram();
+	private final LongAdder slowTicks = new LongAdder();
+	private final LongAdder operations = new LongAdder();
+	private final List<SimulatedServer> servers = new ArrayList<>();
+
+	private Simulator(final @NotNull Scenario scenario) {
+		this.scenario = scenario;
+		this.config = Fixtures.config(false);
+		this.config.database = new TenacityConfig.TenacityDatabaseConfig();
+		this.config.database.type = scenario.store();
+		this.config.database.url = scenario.url();
+		this.config.database.poolSize = scenario.poolSize();
+		this.config.loading.applyBudget = scenario.applyBudget();
+	}
+
+	public static void main(final String[] args) throws Exception {
+		final Scenario scenario;
+		try {
+			scenario = Scenario.parse(args);
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(Scenario.USAGE);
+			System.exit(2);
+			return;
+		}
+
+		Fixtures.installServer();
+		final var folder = Files.createTempDirectory("tenacity-simulator");
+
+		try {
+			new Simulator(scenario).run(folder);
+		} finally {
+			try (final var files = Files.walk(folder)) {
+				for (final var file : files.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(file);
+			}
+		}
+
+		System.exit(0);
+	}
+
+	private void run(final @NotNull Path folder) throws StoreException, InterruptedException, ExecutionException, TimeoutException {
+		final var players = new ArrayList<UUID>(scenario.players());
+		for (int i = 0; i < scenario.players(); i++) players.add(UUID.nameUUIDFromBytes(("simulated-" + i).getBytes()));
+
+		for (int i = 0; i < scenario.servers(); i++) {
+			final var store = PlayerStore.create(config, folder, "server-" + i, Logger.getLogger("tenacity"));
+			store.open();
+
+			// Seeding is not part of the storm, so it bypasses the counting
+			if (i == 0) seed(store, players);
+			servers.add(new SimulatedServer("server-" + i, config, new CountingStore(store, metrics.query, operations),
+					metrics, tickTime, slowTicks));
+		}
+
+		System.out.printf("Simulating %s%n", scenario);
+		for (final var server : servers) server.start();
+
+		final var random = new Random(scenario.seed());
+		final var sessions = new ArrayList<CompletableFuture<Void>>(players.size());
+		final var start = System.nanoTime();
+		double arrival = 0;
+
+		for (int i = 0; i < players.size(); i++) {
+			if (scenario.poisson()) {
+				arrival += -Math.log(1 - random.nextDouble()) * scenario.window() / scenario.players();
+			} else {
+				arrival = i * scenario.window() / scenario.players();
+			}
+
+			final var uuid = players.get(i);
+			final var server = i % servers.size();
+			final var delayed = CompletableFuture.delayedExecutor((long) (arrival * 1000), TimeUnit.MILLISECONDS);
+			sessions.add(CompletableFuture.supplyAsync(() -> visit(uuid, server, scenario.hops()), delayed).thenCompose(f -> f));
+		}
+
+		final var timeout = (long) (scenario.window() + (scenario.hops() + 1) * scenario.stay()) + 120;
+		CompletableFuture.allOf(sessions.toArray(CompletableFuture[]::new)).get(timeout, TimeUnit.SECONDS);
+		final var elapsed = (System.nanoTime() - start) / 1_000_000_000.0;
+
+		for (final var server : servers) server.close();
+		report(elapsed);
+	}
+
+	/**
+	 * Stores the data of a late-game player for every simulated player, so that loading them decodes
+	 * realistic payloads.
+	 *
+	 * @param store   The store to write to.
+	 * @param players The players to store data for.
+	 */
+	private void seed(final @NotNull PlayerStore store, final @NotNull List<UUID> players) throws StoreException {
+		final var snapshot = PlayerSnapshot.capture(config.saving, Fixtures.veteranPlayer(scenario.seed()));
+		store.registerRecipes(snapshot.recipeBook);
+
+		final var template = SerializedPlayer.fromSnapshot(config.storage, snapshot, store::getRecipeId, store::getCriterionId);
+		final var columns = new ArrayList<String>();
+		for (final var section : Section.enabled(config.saving)) columns.addAll(section.getColumns(config.saving));
+
+		final var writes = new ArrayList<PlayerStore.Write>();
+		for (final var uuid : players) {
+			store.claim(uuid);
+
+			final var serial = new SerializedPlayer(uuid);
+			for (final var column : columns) serial.setColumn(column, template.getColumn(column));
+			writes.add(new PlayerStore.Write(serial, columns, true));
+
+			if (writes.size() == 64) {
+				store.save(writes);
+				writes.clear();
+			}
+		}
+
+		if (!writes.isEmpty()) store.save(writes);
+	}
+
+	/**
+	 * Lets a player join a server, stay for a while and then either leave or hop to the next server. When
+	 * hopping, the player joins the next server while the previous one is still saving their data, just
+	 * like switching servers through a proxy.
+	 *
+	 * @param uuid   The player.
+	 * @param server The index of the server to join.
+	 * @param hops   The number of servers still to hop to.
+	 * @return A future which completes once the player has left the network and all their data was saved.
+	 */
+	private CompletableFuture<Void> visit(final @NotNull UUID uuid, final int server, final int hops) {
+		final var stay = CompletableFuture.delayedExecutor((long) (scenario.stay() * 1000), TimeUnit.MILLISECONDS);
+
+		return servers.get(server).join(uuid)
+				.thenApplyAsync(player -> player, stay)
+				.thenCompose(player -> {
+					final var saved = servers.get(server).quit(player);
+					if (hops == 0) return saved;
+					return CompletableFuture.allOf(saved, visit(uuid, (server + 1) % servers.size(), hops - 1));
+				});
+	}
+
+	private void report(final double elapsed) {
+		final var ops = operations.sum();
+
+		System.out.printf("Finished in %.1f s%n", elapsed);
+		System.out.printf("Join to ready     p50 %s  p99 %s  max %s  (%d joins, %d handoff retries)%n",
+				millis(metrics.joinToReady.getQuantile(0.5)), millis(metrics.joinToReady.getQuantile(0.99)),
+				millis(metrics.joinToReady.getMax()), metrics.loads.sum(), metrics.handoffRetries.sum());
+		System.out.printf("Store operations  %d (%.1f/s)  p50 %s  p99 %s  max %s%n",
+				ops, ops / elapsed, millis(metrics.query.getQuantile(0.5)), millis(metrics.query.getQuantile(0.99)),
+				millis(metrics.query.getMax()));
+		System.out.printf("Saves             %d  p50 %s  p99 %s%n",
+				metrics.saves.sum(), millis(metrics.save.getQuantile(0.5)), millis(metrics.save.getQuantile(0.99)));
+		System.out.printf("Decode            p50 %s  p99 %s  (off the main thread)%n",
+				millis(metrics.decode.getQuantile(0.5)), millis(metrics.decode.getQuantile(0.99)));
+		System.out.printf("Apply queue wait  p50 %s  p99 %s%n",
+				millis(metrics.applyQueueWait.getQuantile(0.5)), millis(metrics.applyQueueWait.getQuantile(0.99)));
+		System.out.printf("Main thread       %s in total, per tick p50 %s  p99 %s  max %s, %d of %d ticks over 50 ms%n",
+				millis(tickTime.getSum()), millis(tickTime.getQuantile(0.5)), millis(tickTime.getQuantile(0.99)),
+				millis(tickTime.getMax()), slowTicks.sum(), tickTime.getCount());
+	}
+
+	private static String millis(final long nanos) {
+		return "%.2f ms".formatted(nanos / 1_000_000.0);
+	}
+}
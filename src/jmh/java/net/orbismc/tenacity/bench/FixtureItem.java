@@ -0,0 +1,189 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.bench;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * An item which carries its own serialized form. Without a server, Paper can't serialize items, so the
+ * stub server created by {@link Fixtures} returns this data instead. The data mimics what Paper produces:
+ * a GZIP-compressed NBT compound with the item's id, count and tag.
+ */
+public class FixtureItem extends ItemStack {
+	private final byte[] data;
+
+	private FixtureItem(final @NotNull Material type, final int amount, final byte @NotNull [] data) {
+		super(type, amount);
+		this.data = data;
+	}
+
+	/**
+	 * Creates an item.
+	 *
+	 * @param type       The type of the item.
+	 * @param amount     The number of items in the stack.
+	 * @param name       The display name of the item or <tt>null</tt>.
+	 * @param lore       The lines of the item's lore.
+	 * @param enchants   The enchantments of the item and their levels.
+	 * @param containing Items stored inside this item, like the contents of a shulker box.
+	 * @return The item created.
+	 */
+	public static FixtureItem of(final @NotNull Material type, final int amount, final String name,
+								 final @NotNull List<String> lore, final @NotNull Map<String, Integer> enchants,
+								 final @NotNull List<FixtureItem> containing) {
+		final var bytes = new ByteArrayOutputStream();
+
+		try (final var out = new DataOutputStream(new GZIPOutputStream(bytes))) {
+			out.writeByte(10);
+			out.writeUTF("");
+			writeItem(out, type, amount, name, lore, enchants, containing);
+			out.writeByte(0);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		return new FixtureItem(type, amount, bytes.toByteArray());
+	}
+
+	/**
+	 * Reads an item from data created by {@link #getData()}.
+	 *
+	 * @param data The serialized item.
+	 * @return The item read.
+	 */
+	public static FixtureItem deserialize(final byte @NotNull [] data) {
+		try (final var in = new DataInputStream(new GZIPInputStream(new ByteArrayInputStream(data)))) {
+			in.readByte();
+			in.readUTF();
+			in.readByte();
+			in.readUTF();
+			final var type = Material.matchMaterial(in.readUTF());
+			in.readByte();
+			in.readUTF();
+			final var amount = in.readByte();
+
+			// Paper reads the whole tag, so do the same
+			in.readAllBytes();
+			return new FixtureItem(type != null ? type : Material.STONE, amount, data);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @return The serialized form of this item.
+	 */
+	public byte[] getData() {
+		return data;
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		return obj instanceof final FixtureItem other && Arrays.equals(data, other.data);
+	}
+
+	@Override
+	public int hashCode() {
+		return Arrays.hashCode(data);
+	}
+
+	private static void writeItem(final DataOutputStream out, final Material type, final int amount, final String name,
+								  final List<String> lore, final Map<String, Integer> enchants,
+								  final List<FixtureItem> containing) throws IOException {
+		out.writeByte(8);
+		out.writeUTF("id");
+		out.writeUTF(type.getKey().toString());
+		out.writeByte(1);
+		out.writeUTF("Count");
+		out.writeByte(amount);
+
+		if (name == null && lore.isEmpty() && enchants.isEmpty() && containing.isEmpty()) return;
+
+		out.writeByte(10);
+		out.writeUTF("tag");
+
+		if (!enchants.isEmpty()) {
+			out.writeByte(9);
+			out.writeUTF("Enchantments");
+			out.writeByte(10);
+			out.writeInt(enchants.size());
+
+			for (final var enchant : enchants.entrySet()) {
+				out.writeByte(8);
+				out.writeUTF("id");
+				out.writeUTF("minecraft:" + enchant.getKey());
+				out.writeByte(2);
+				out.writeUTF("lvl");
+				out.writeShort(enchant.getValue());
+				out.writeByte(0);
+			}
+
+			out.writeByte(3);
+			out.writeUTF("RepairCost");
+			out.writeInt(enchants.size() * 3);
+		}
+
+		if (name != null || !lore.isEmpty()) {
+			out.writeByte(10);
+			out.writeUTF("display");
+
+			if (name != null) {
+				out.writeByte(8);
+				out.writeUTF("Name");
+				out.writeUTF("{\"text\":\"%s\",\"italic\":false,\"color\":\"gold\"}".formatted(name));
+			}
+
+			if (!lore.isEmpty()) {
+				out.writeByte(9);
+				out.writeUTF("Lore");
+				out.writeByte(8);
+				out.writeInt(lore.size());
+				for (final var line : lore) out.writeUTF("{\"text\":\"%s\",\"color\":\"gray\"}".formatted(line));
+			}
+
+			out.writeByte(0);
+		}
+
+		if (!containing.isEmpty()) {
+			out.writeByte(10);
+			out.writeUTF("BlockEntityTag");
+			out.writeByte(9);
+			out.writeUTF("Items");
+			out.writeByte(10);
+			out.writeInt(containing.size());
+
+			for (int slot = 0; slot < containing.size(); slot++) {
+				final var item = containing.get(slot);
+				out.writeByte(1);
+				out.writeUTF("Slot");
+				out.writeByte(slot);
+
+				// Nested items are stored uncompressed inside the outer compound
+				try (final var in = new GZIPInputStream(new ByteArrayInputStream(item.data))) {
+					final var raw = in.readAllBytes();
+					out.write(raw, 3, raw.length - 4);
+				}
+
+				out.writeByte(0);
+			}
+
+			out.writeByte(8);
+			out.writeUTF("id");
+			out.writeUTF("minecraft:shulker_box");
+			out.writeByte(0);
+		}
+
+		out.writeByte(0);
+	}
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.bench;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.jetbrains.annotations.NotNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.logging.Logger;
+
+/**
+ * Stub implementations of the server API and realistic player data to benchmark with. All stubs are
+ * dynamic proxies: methods which are not needed by tenacity simply return <tt>null</tt>, <tt>false</tt>
+ * or zero.
+ */
+public final class Fixtures {
+	private static final List<String> SWORD_ENCHANTS = List.of("sharpness", "looting", "sweeping", "unbreaking", "mending", "fire_aspect", "knockback");
+	private static final List<String> ARMOR_ENCHANTS = List.of("protection", "unbreaking", "mending", "thorns", "respiration", "aqua_affinity");
+	private static final List<String> TOOL_ENCHANTS = List.of("efficiency", "fortune", "unbreaking", "mending");
+	private static final List<Material> BLOCKS = List.of(
+			Material.STONE, Material.COBBLESTONE, Material.OAK_LOG, Material.OAK_PLANKS, Material.GLASS,
+			Material.TORCH, Material.DIRT, Material.SAND, Material.IRON_INGOT, Material.REDSTONE,
+			Material.COOKED_BEEF, Material.ARROW, Material.DIAMOND, Material.OBSIDIAN, Material.BONE
+	);
+
+	private static boolean serverInstalled = false;
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Installs a stub server, which serializes {@link FixtureItem}s. Must be called before any item is
+	 * serialized.
+	 */
+	public static synchronized void installServer() {
+		if (serverInstalled) return;
+		serverInstalled = true;
+
+		final var unsafe = stub(UnsafeValues.class, (proxy, method, args) -> switch (method.getName()) {
+			case "serializeItem" -> ((FixtureItem) args[0]).getData();
+			case "deserializeItem" -> FixtureItem.deserialize((byte[]) args[0]);
+			default -> defaultValue(method);
+		});
+
+		final var itemFactory = stub(ItemFactory.class, (proxy, method, args) -> switch (method.getName()) {
+			case "equals" -> args.length == 2 ? Objects.equals(args[0], args[1]) : proxy == args[0];
+			default -> defaultValue(method);
+		});
+
+		final var logger = Logger.getLogger("Stub");
+		Bukkit.setServer(stub(Server.class, (proxy, method, args) -> switch (method.getName()) {
+			case "getUnsafe" -> unsafe;
+			case "getItemFactory" -> itemFactory;
+			case "getLogger" -> logger;
+			case "getName", "getVersion", "getBukkitVersion" -> "stub";
+			default -> defaultValue(method);
+		}));
+	}
+
+	/**
+	 * Creates a config which saves everything.
+	 *
+	 * @param compressItems Whether to deflate stored items.
+	 * @return The config created.
+	 */
+	public static TenacityConfig config(final boolean compressItems) {
+		final var config = new TenacityConfig();
+		config.saving = new TenacityConfig.TenacitySavingConfig();
+		config.saving.health = true;
+		config.saving.experience = true;
+		config.saving.food = true;
+		config.saving.effects = true;
+		config.saving.recipeBook = true;
+		config.saving.inventory = true;
+		config.storage.compressItems = compressItems;
+		return config;
+	}
+
+	/**
+	 * Creates a late-game player: every inventory slot is used, including shulker boxes full of items,
+	 * the armor and tools are heavily enchanted and more than a thousand recipes have been discovered.
+	 *
+	 * @param seed The seed used to pick the items.
+	 * @return The player created.
+	 */
+	public static Player veteranPlayer(final long seed) {
+		final var random = new Random(seed);
+
+		final var contents = new ItemStack[41];
+		for (int i = 0; i < 36; i++) {
+			if (i < 4) {
+				contents[i] = enchanted(random, List.of(Material.NETHERITE_SWORD, Material.NETHERITE_PICKAXE,
+						Material.NETHERITE_AXE, Material.BOW).get(i), i == 0 ? SWORD_ENCHANTS : TOOL_ENCHANTS);
+			} else if (i < 9 || i % 4 == 0) {
+				contents[i] = shulkerBox(random);
+			} else {
+				contents[i] = FixtureItem.of(BLOCKS.get(random.nextInt(BLOCKS.size())), 1 + random.nextInt(64),
+						null, List.of(), Map.of(), List.of());
+			}
+		}
+
+		final var armor = new ItemStack[]{
+				enchanted(random, Material.NETHERITE_BOOTS, ARMOR_ENCHANTS),
+				enchanted(random, Material.NETHERITE_LEGGINGS, ARMOR_ENCHANTS),
+				enchanted(random, Material.NETHERITE_CHESTPLATE, ARMOR_ENCHANTS),
+				enchanted(random, Material.NETHERITE_HELMET, ARMOR_ENCHANTS)
+		};
+
+		System.arraycopy(armor, 0, contents, 36, 4);
+		contents[40] = FixtureItem.of(Material.TOTEM_OF_UNDYING, 1, null, List.of(), Map.of(), List.of());
+
+		final var enderChest = new ItemStack[27];
+		for (int i = 0; i < enderChest.length; i++) enderChest[i] = shulkerBox(random);
+
+		// Every vanilla item has at least one recipe, plus a few added by other plugins
+		final var recipes = new LinkedHashSet<NamespacedKey>();
+		for (final var material : Material.values()) {
+			if (!material.isLegacy() && material.isItem()) recipes.add(material.getKey());
+		}
+
+		for (int i = 0; recipes.size() < 1200; i++) recipes.add(new NamespacedKey("crafting", "custom_recipe_%d".formatted(i)));
+
+		return player(UUID.nameUUIDFromBytes(("veteran-" + seed).getBytes()), contents, armor, enderChest, recipes);
+	}
+
+	/**
+	 * Creates a player who has just joined for the first time. Their data is applied to in benchmarks.
+	 *
+	 * @return The player created.
+	 */
+	public static Player emptyPlayer() {
+		return emptyPlayer(UUID.randomUUID());
+	}
+
+	/**
+	 * Creates a player with the given id who has just joined for the first time.
+	 *
+	 * @param uuid The id of the player.
+	 * @return The player created.
+	 */
+	public static Player emptyPlayer(final @NotNull UUID uuid) {
+		return player(uuid, new ItemStack[41], new ItemStack[4], new ItemStack[27], new HashSet<>());
+	}
+
+	/**
+	 * Creates a {@link ResultSet} holding a single row of the <tt>players</tt> table.
+	 *
+	 * @param serial The player data to put into the row.
+	 * @return The result set created.
+	 */
+	public static ResultSet row(final @NotNull SerializedPlayer serial) {
+		return stub(ResultSet.class, (proxy, method, args) -> switch (method.getName()) {
+			case "getString" -> "uuid".equals(args[0]) ? serial.uuid.toString() : (String) serial.getColumn((String) args[0]);
+			case "getBytes" -> (byte[]) serial.getColumn((String) args[0]);
+			case "getObject" -> serial.getColumn((String) args[0]);
+			default -> defaultValue(method);
+		});
+	}
+
+	private static FixtureItem enchanted(final Random random, final Material type, final List<String> enchants) {
+		final var levels = new LinkedHashMap<String, Integer>();
+		for (final var enchant : enchants) levels.put(enchant, 1 + random.nextInt(5));
+
+		return FixtureItem.of(type, 1, "Heirloom %s #%d".formatted(type.getKey().getKey(), random.nextInt(1000)),
+				List.of("Forged in the depths of the nether", "Owned by %d players".formatted(random.nextInt(20))),
+				levels, List.of());
+	}
+
+	private static FixtureItem shulkerBox(final Random random) {
+		final var contents = new ArrayList<FixtureItem>(27);
+		for (int i = 0; i < 27; i++) {
+			if (random.nextInt(4) == 0) {
+				contents.add(FixtureItem.of(Material.ENCHANTED_BOOK, 1, null, List.of(),
+						Map.of(TOOL_ENCHANTS.get(random.nextInt(TOOL_ENCHANTS.size())), 1 + random.nextInt(5)), List.of()));
+			} else {
+				contents.add(FixtureItem.of(BLOCKS.get(random.nextInt(BLOCKS.size())), 1 + random.nextInt(64),
+						null, List.of(), Map.of(), List.of()));
+			}
+		}
+
+		return FixtureItem.of(Material.SHULKER_BOX, 1, "Storage %d".formatted(random.nextInt(100)), List.of(), Map.of(), contents);
+	}
+
+	private static Player player(final UUID uuid, final ItemStack[] contents, final ItemStack[] armor,
+								 final ItemStack[] enderChestContents, final Set<NamespacedKey> recipes) {
+		final var state = new ItemStack[][]{contents, armor, enderChestContents};
+		final var heldSlot = new int[]{0};
+
+		final var inventory = stub(PlayerInventory.class, (proxy, method, args) -> switch (method.getName()) {
+			case "getContents", "getStorageContents" -> state[0].clone();
+			case "getArmorContents" -> state[1].clone();
+			case "setContents", "setStorageContents" -> {
+				state[0] = ((ItemStack[]) args[0]).clone();
+				yield null;
+			}
+			case "setArmorContents" -> {
+				state[1] = ((ItemStack[]) args[0]).clone();
+				yield null;
+			}
+			case "getHeldItemSlot" -> heldSlot[0];
+			case "setHeldItemSlot" -> {
+				heldSlot[0] = (int) args[0];
+				yield null;
+			}
+			case "clear" -> {
+				Arrays.fill(state[0], null);
+				yield null;
+			}
+			case "getSize" -> state[0].length;
+			default -> defaultValue(method);
+		});
+
+		final var enderChest = stub(Inventory.class, (proxy, method, args) -> switch (method.getName()) {
+			case "getContents", "getStorageContents" -> state[2].clone();
+			case "setContents", "setStorageContents" -> {
+				state[2] = ((ItemStack[]) args[0]).clone();
+				yield null;
+			}
+			case "clear" -> {
+				Arrays.fill(state[2], null);
+				yield null;
+			}
+			case "getSize" -> state[2].length;
+			default -> defaultValue(method);
+		});
+
+		return stub(Player.class, (proxy, method, args) -> switch (method.getName()) {
+			case "getUniqueId" -> uuid;
+			case "getName" -> "Player" + uuid.toString().substring(0, 8);
+			case "getRemainingAir" -> 300;
+			case "getHealth" -> 17.5;
+			case "getFireTicks" -> -20;
+			case "getAbsorptionAmount" -> 4.0;
+			case "getLevel" -> 73;
+			case "getExp" -> 0.42f;
+			case "getTotalExperience" -> 11_024;
+			case "getFoodLevel" -> 18;
+			case "getExhaustion" -> 1.25f;
+			case "getSaturation" -> 3.5f;
+			case "getActivePotionEffects" -> List.of();
+			case "getDiscoveredRecipes" -> recipes;
+			case "discoverRecipe" -> recipes.add((NamespacedKey) args[0]);
+			case "discoverRecipes" -> {
+				final var before = recipes.size();
+				recipes.addAll((Collection<NamespacedKey>) args[0]);
+				yield recipes.size() - before;
+			}
+			case "undiscoverRecipes" -> {
+				final var before = recipes.size();
+				recipes.removeAll((Collection<NamespacedKey>) args[0]);
+				yield before - recipes.size();
+			}
+			case "getInventory" -> inventory;
+			case "getEnderChest" -> enderChest;
+			case "hashCode" -> System.identityHashCode(proxy);
+			case "equals" -> proxy == args[0];
+			case "toString" -> "StubPlayer";
+			default -> defaultValue(method);
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T stub(final Class<T> type, final InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(Fixtures.class.getClassLoader(), new Class<?>[]{type}, handler);
+	}
+
+	private static Object defaultValue(final Method method) {
+		final var type = method.getReturnType();
+		if (!type.isPrimitive() || type == void.class) return null;
+		if (type == boolean.class) return false;
+		if (type == char.class) return '\0';
+		if (type == byte.class) return (byte) 0;
+		if (type == short.class) return (short) 0;
+		if (type == int.class) return 0;
+		if (type == long.class) return 0L;
+		if (type == float.class) return 0f;
+		return 0d;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.bench;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.serial.ApplyPlan;
+import net.orbismc.tenacity.serial.ItemCodec;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.RecipeCodec;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of every step a player's data goes through between the server and the database.
+ * Run with <tt>./gradlew jmh</tt>. Besides throughput, the GC profiler reports the allocation rate of
+ * every step. The size of the stored data is printed once per trial.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SerializationBenchmark {
+	@Param({"false", "true"})
+	public boolean compressItems;
+
+	private TenacityConfig config;
+	private Player veteran;
+	private Player target;
+	private PlayerSnapshot snapshot;
+	private SerializedPlayer serial;
+	private ApplyPlan plan;
+	private ItemStack[] inventory;
+	private byte[] encodedInventory;
+	private ResultSet row;
+	private final HashMap<NamespacedKey, Integer> recipeIds = new HashMap<>();
+	private final List<NamespacedKey> recipeKeys = new ArrayList<>();
+
+	@Setup(Level.Trial)
+	public void setup() {
+		Fixtures.installServer();
+
+		config = Fixtures.config(compressItems);
+		veteran = Fixtures.veteranPlayer(42);
+		target = Fixtures.emptyPlayer();
+		snapshot = PlayerSnapshot.capture(config.saving, veteran);
+
+		// Stands in for the recipe dictionary stored in the database
+		for (final var recipe : veteran.getDiscoveredRecipes()) {
+			recipeIds.put(recipe, recipeKeys.size());
+			recipeKeys.add(recipe);
+		}
+
+		serial = SerializedPlayer.fromSnapshot(config.storage, snapshot, this::recipeId, criterion -> -1);
+		serial.recipes = RecipeCodec.decode(serial.recipeBook, recipeKeys::get);
+		plan = ApplyPlan.of(config.saving, serial);
+		inventory = veteran.getInventory().getContents();
+		encodedInventory = ItemCodec.encode(inventory, compressItems);
+		row = Fixtures.row(serial);
+
+		System.out.printf("%nPayload (compressItems=%s): inventory=%d B, armor=%d B, ender chest=%d B, recipe book=%d B, total=%d B%n",
+				compressItems,
+				serial.inventory.length,
+				serial.armorItems.length,
+				serial.enderChest.length,
+				serial.recipeBook.length,
+				serial.inventory.length + serial.armorItems.length + serial.enderChest.length + serial.recipeBook.length);
+	}
+
+	/**
+	 * Copying the player's state on the server thread.
+	 */
+	@Benchmark
+	public PlayerSnapshot capture() {
+		return PlayerSnapshot.capture(config.saving, veteran);
+	}
+
+	/**
+	 * Copying and serializing the player's state in one go.
+	 */
+	@Benchmark
+	public SerializedPlayer fromPlayer() {
+		return SerializedPlayer.fromPlayer(config, veteran, this::recipeId, criterion -> -1);
+	}
+
+	/**
+	 * Serializing a snapshot off the server thread.
+	 */
+	@Benchmark
+	public SerializedPlayer fromSnapshot() {
+		return SerializedPlayer.fromSnapshot(config.storage, snapshot, this::recipeId, criterion -> -1);
+	}
+
+	@Benchmark
+	public byte[] encodeItems() {
+		return ItemCodec.encode(inventory, compressItems);
+	}
+
+	@Benchmark
+	public ItemStack[] decodeItems() {
+		return ItemCodec.decode(encodedInventory);
+	}
+
+	@Benchmark
+	public byte[] encodeRecipes() {
+		return RecipeCodec.encode(snapshot.recipeBook, this::recipeId);
+	}
+
+	@Benchmark
+	public Set<NamespacedKey> decodeRecipes() {
+		return RecipeCodec.decode(serial.recipeBook, recipeKeys::get);
+	}
+
+	@Benchmark
+	public SerializedPlayer fromDatabase() throws SQLException {
+		return SerializedPlayer.fromDatabase(row, config.saving);
+	}
+
+	/**
+	 * Decoding stored data off the server thread.
+	 */
+	@Benchmark
+	public ApplyPlan decode() {
+		return ApplyPlan.of(config.saving, serial);
+	}
+
+	/**
+	 * Applying decoded data to a player on the server thread. After the first invocation, the target already
+	 * knows every recipe, so this measures a player rejoining the same server.
+	 */
+	@Benchmark
+	public Player applyPlan() {
+		plan.apply(target);
+		return target;
+	}
+
+	/**
+	 * Decoding and applying stored data to a player in one go. After the first invocation, the target already
+	 * knows every recipe, so this measures a player rejoining the same server.
+	 */
+	@Benchmark
+	public Player apply() {
+		serial.apply(config.saving, target);
+		return target;
+	}
+
+	private int recipeId(final NamespacedKey recipe) {
+		return recipeIds.getOrDefault(recipe, -1);
+	}
+}
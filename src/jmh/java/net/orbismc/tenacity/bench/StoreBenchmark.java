@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.bench;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Compares the throughput of the storage backends which run without a database server. Every operation
+ * claims a player, like joining a server does, and writes their data back while releasing the lease, like
+ * leaving does. Run with <tt>./gradlew jmh</tt>.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StoreBenchmark {
+	private static final int PLAYERS = 256;
+
+	@Param({"memory", "h2"})
+	public String type;
+
+	private PlayerStore store;
+	private SerializedPlayer serial;
+	private List<String> columns;
+	private final List<UUID> players = new ArrayList<>();
+	private int next = 0;
+
+	@Setup(Level.Trial)
+	public void setup() throws IOException, StoreException {
+		Fixtures.installServer();
+
+		final var config = Fixtures.config(false);
+		config.database = new TenacityConfig.TenacityDatabaseConfig();
+		config.database.type = type;
+
+		final var folder = Files.createTempDirectory("tenacity-bench");
+		store = PlayerStore.create(config, folder, "bench", Logger.getLogger("tenacity"));
+		store.open();
+
+		final var snapshot = PlayerSnapshot.capture(config.saving, Fixtures.veteranPlayer(42));
+		store.registerRecipes(snapshot.recipeBook);
+		serial = SerializedPlayer.fromSnapshot(config.storage, snapshot, store::getRecipeId, store::getCriterionId);
+
+		columns = new ArrayList<>();
+		for (final var section : Section.enabled(config.saving)) columns.addAll(section.getColumns(config.saving));
+
+		for (int i = 0; i < PLAYERS; i++) players.add(UUID.randomUUID());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		store.close();
+	}
+
+	@Benchmark
+	public Object claimAndRelease() throws StoreException {
+		final var uuid = players.get(next++ % PLAYERS);
+		store.claim(uuid);
+
+		final var write = new SerializedPlayer(uuid);
+		for (final var column : columns) write.setColumn(column, serial.getColumn(column));
+		return store.save(List.of(new PlayerStore.Write(write, columns, true)));
+	}
+}
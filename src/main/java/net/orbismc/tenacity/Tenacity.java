@@ -4,26 +4,59 @@
  */
 package net.orbismc.tenacity;
 
-import net.orbismc.tenacity.serial.SerializedPlayer;
-import net.orbismc.tenacity.util.DatabaseAction;
+import net.orbismc.tenacity.metrics.TenacityMetrics;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SectionFingerprints;
+import net.orbismc.tenacity.session.HandoffChannel;
+import net.orbismc.tenacity.session.PlayerSession;
+import net.orbismc.tenacity.store.CircuitBreaker;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.RetentionPolicy;
+import net.orbismc.tenacity.store.StoreException;
+import net.orbismc.tenacity.task.ApplyQueue;
+import net.orbismc.tenacity.task.AutosaveTask;
+import net.orbismc.tenacity.task.MetricsExportTask;
+import net.orbismc.tenacity.task.PrefetchCache;
+import net.orbismc.tenacity.task.PruneHistoryTask;
+import net.orbismc.tenacity.task.RenewLeasesTask;
+import net.orbismc.tenacity.task.SavePipeline;
+import net.orbismc.tenacity.util.StoreAction;
+import net.orbismc.tenacity.util.StoreQuery;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
-import org.mariadb.jdbc.MariaDbPoolDataSource;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.sql.SQLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashSet;
-import java.util.Objects;
+import java.util.Locale;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public final class Tenacity extends JavaPlugin {
-	private final HashSet<UUID> loadQueue = new HashSet<>();
+	private final ConcurrentHashMap<UUID, PlayerSession> sessions = new ConcurrentHashMap<>();
+	private final Executor asyncExecutor = r -> getServer().getScheduler().runTaskAsynchronously(this, r);
+	private final Executor mainExecutor = r -> getServer().getScheduler().runTask(this, r);
+	private final TenacityMetrics metrics = new TenacityMetrics();
 	public TenacityConfig config;
-	private MariaDbPoolDataSource pool;
+	private String serverId;
+	private PlayerStore store;
+	private CircuitBreaker breaker;
+	private SavePipeline savePipeline;
+	private PrefetchCache prefetchCache;
+	private ApplyQueue applyQueue;
+	private HandoffChannel handoffChannel;
 
 	@Override
 	public void onEnable() {
@@ -36,96 +69,434 @@ public final class Tenacity extends JavaPlugin {
 			throw new IllegalStateException("Failed to load configuration", e);
 		}
 
-		this.pool = new MariaDbPoolDataSource(config.database.url != null ? config.database.url :
-				"jdbc:mariadb://%s:%d/%s?user=%s&password=%s&maxPoolSize=3".formatted(
-						config.database.host,
-						config.database.port,
-						config.database.name,
-						config.database.username,
-						config.database.password
-				));
+		if (config.lease.serverId == null || config.lease.serverId.isBlank()) {
+			this.serverId = loadServerId(getDataFolder().toPath().resolve("server-id"));
+		} else {
+			this.serverId = config.lease.serverId;
+		}
 
-		// Run the database setup
-		try {
-			final var resource = Objects.requireNonNull(getResource("setup.sql"));
-			final var content = resource.readAllBytes();
-			withDatabase(conn -> conn.createStatement().execute(new String(content, StandardCharsets.UTF_8)));
-		} catch (IOException e) {
-			getLogger().severe("Failed to set up the database %s".formatted(e));
+		this.store = PlayerStore.create(config, getDataFolder().toPath(), serverId, getLogger());
+		this.breaker = new CircuitBreaker(config.breaker, getLogger());
+
+		// Brings the database schema up to date, if there is one
+		withStore(PlayerStore::open);
+
+		final var renewTicks = Math.max(1, config.lease.renewInterval) * 20L;
+		this.getServer().getScheduler().runTaskTimerAsynchronously(this, new RenewLeasesTask(this), renewTicks, renewTicks);
+
+		if (config.history.enabled) {
+			final var pruneTicks = Math.max(60, config.history.pruneInterval) * 20L;
+			final var task = new PruneHistoryTask(this, new RetentionPolicy(config.history));
+			this.getServer().getScheduler().runTaskTimerAsynchronously(this, task, pruneTicks, pruneTicks);
+		}
+
+		this.savePipeline = new SavePipeline(this);
+		this.applyQueue = new ApplyQueue(this);
+		this.getServer().getScheduler().runTaskTimer(this, applyQueue, 1, 1);
+
+		if (config.prefetch.enabled) {
+			this.prefetchCache = new PrefetchCache(this);
+			this.getServer().getScheduler().runTaskTimerAsynchronously(this, prefetchCache, 20, 20);
+		}
+
+		if (config.autosave.enabled) {
+			this.getServer().getScheduler().runTaskTimer(this, new AutosaveTask(this), 1, 1);
 		}
 
 		this.getServer().getPluginManager().registerEvents(new TenacityEventListener(this), this);
+
+		if (config.handoff.enabled) {
+			this.handoffChannel = new HandoffChannel(this);
+			this.handoffChannel.register();
+		}
+
+		final var command = this.getCommand("tenacity");
+		if (command != null) {
+			final var executor = new TenacityCommand(this);
+			command.setExecutor(executor);
+			command.setTabCompleter(executor);
+		}
+
+		registerGauges();
+		if (config.metrics.file != null && !config.metrics.file.isBlank()) {
+			final var exportTicks = Math.max(1, config.metrics.interval) * 20L;
+			final var task = new MetricsExportTask(this, getDataFolder().toPath().resolve(config.metrics.file));
+			this.getServer().getScheduler().runTaskTimerAsynchronously(this, task, exportTicks, exportTicks);
+		}
 	}
 
 	/**
-	 * Checks whether the given player's data has already been loaded or not.
+	 * Reads the server id generated on an earlier start or generates a new one. Keeping the id across
+	 * restarts lets this server write saves left in the journal, which are guarded by its leases.
+	 *
+	 * @param file The file to keep the id in.
+	 * @return The server id.
+	 */
+	private String loadServerId(final @NotNull Path file) {
+		try {
+			if (Files.exists(file)) {
+				final var id = Files.readString(file, StandardCharsets.UTF_8).strip();
+				if (!id.isEmpty()) return id;
+			}
+
+			final var id = UUID.randomUUID().toString();
+			Files.writeString(file, id, StandardCharsets.UTF_8);
+			getLogger().info("No server id configured, generated '%s' and saved it to %s".formatted(id, file.getFileName()));
+			return id;
+		} catch (final IOException e) {
+			final var id = UUID.randomUUID().toString();
+			getLogger().warning("Failed to keep the server id in %s, using '%s' for this run: %s".formatted(file, id, e));
+			return id;
+		}
+	}
+
+	/**
+	 * Registers the values which are read whenever the metrics are exported.
+	 */
+	private void registerGauges() {
+		metrics.registerGauge("save_queue_depth", "Players waiting to be written to the database.", () -> savePipeline.getQueueDepth());
+		metrics.registerGauge("journal_pending", "Saves in the journal which have not been written to the database yet.", () -> savePipeline.getJournalSize());
+		metrics.registerGauge("apply_queue_depth", "Decoded players waiting to be applied on the server thread.", () -> applyQueue.size());
+		metrics.registerGauge("prefetched", "Players whose data was fetched before they joined.", () -> prefetchCache != null ? prefetchCache.size() : 0);
+		metrics.registerGauge("db_connections_active", "Database connections in use.", () -> store.getMetrics().activeConnections());
+		metrics.registerGauge("db_connections_idle", "Database connections waiting in the pool.", () -> store.getMetrics().idleConnections());
+		metrics.registerGauge("db_connection_requests", "Threads waiting for a database connection.", () -> store.getMetrics().waitingRequests());
+		metrics.registerGauge("db_acquire_max_seconds", "Longest time it took to get a database connection.", () -> store.getMetrics().maxAcquireTime() / 1000.0);
+		if (config.database.replicaUrl != null) {
+			metrics.registerGauge("db_replica_hit_ratio", "Share of players loaded from the read replica.", () -> store.getMetrics().replicaHitRate());
+		}
+		metrics.registerGauge("db_circuit_open", "1 while database access is paused because it kept failing, 0 otherwise.",
+				() -> breaker.getState() == CircuitBreaker.State.CLOSED ? 0 : 1);
+
+		for (final var state : PlayerSession.State.values()) {
+			final var name = state.name().toLowerCase(Locale.ROOT);
+			metrics.registerGauge("sessions_" + name, "Player sessions which are %s.".formatted(name), () -> countSessions(state));
+		}
+	}
+
+	/**
+	 * Checks whether the given player's data has already been loaded or not. May be called from any thread.
 	 *
 	 * @param player The player to check.
 	 * @return <tt>true</tt> if the player's data has been loaded and <tt>false</tt> if not.
 	 */
 	public boolean isLoaded(final @NotNull Player player) {
-		return this.loadQueue.contains(player.getUniqueId());
+		final var session = sessions.get(player.getUniqueId());
+		return session != null && session.isReady();
 	}
 
 	/**
-	 * Marks a player as being loaded or unloaded.
+	 * Gets the current session of a player. May be called from any thread.
 	 *
-	 * @param player The player to mark.
-	 * @param loaded Set to <tt>true</tt> to mark the player as loaded and <tt>false</tt> to mark them as not yet loaded.
+	 * @param uuid The player to get the session of.
+	 * @return The session or <tt>null</tt> if the player has none.
 	 */
-	public void setLoaded(final Player player, boolean loaded) {
-		if (loaded) {
-			this.loadQueue.remove(player.getUniqueId());
-		} else {
-			this.loadQueue.add(player.getUniqueId());
+	public @Nullable PlayerSession getSession(final @NotNull UUID uuid) {
+		return sessions.get(uuid);
+	}
+
+	/**
+	 * Opens a new session for a player. If the player's previous session is still writing its final save,
+	 * the new session waits for it before claiming the player's data. May be called from any thread.
+	 *
+	 * @param uuid  The player to open a session for.
+	 * @param state The state to start in, either {@link PlayerSession.State#PREFETCHING} or
+	 *              {@link PlayerSession.State#LOADING}.
+	 * @return The new session or <tt>null</tt> if the player already has a session which has not ended yet.
+	 */
+	public @Nullable PlayerSession openSession(final @NotNull UUID uuid, final @NotNull PlayerSession.State state) {
+		final var opened = new PlayerSession[1];
+		sessions.compute(uuid, (key, current) -> {
+			if (current != null && current.getState().compareTo(PlayerSession.State.SAVING) < 0) return current;
+
+			final var predecessor = current != null && current.getState() == PlayerSession.State.SAVING ? current : null;
+			return opened[0] = new PlayerSession(this, uuid, state, predecessor);
+		});
+
+		return opened[0];
+	}
+
+	/**
+	 * Forgets a session which has ended. Does nothing if the player has since started a new session.
+	 *
+	 * @param session The session to forget.
+	 */
+	public void closeSession(final @NotNull PlayerSession session) {
+		sessions.remove(session.getUUID(), session);
+	}
+
+	/**
+	 * Gets the players whose data this server must keep the lease on: everyone whose data has been loaded
+	 * and everyone whose data has yet to be written to the database. Players who are still loading hold a
+	 * fresh lease from claiming their data. May be called from any thread.
+	 *
+	 * @return The players.
+	 */
+	public Set<UUID> getLeasedPlayers() {
+		final var players = new HashSet<UUID>();
+		for (final var session : sessions.values()) {
+			final var state = session.getState();
+			if (state == PlayerSession.State.READY || state == PlayerSession.State.SAVING) players.add(session.getUUID());
 		}
+
+		if (savePipeline != null) players.addAll(savePipeline.getPendingPlayers());
+		return players;
+	}
+
+	/**
+	 * @param state The state to count.
+	 * @return The number of sessions currently in the given state.
+	 */
+	public int countSessions(final @NotNull PlayerSession.State state) {
+		int count = 0;
+		for (final var session : sessions.values()) {
+			if (session.getState() == state) count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * @return The id this server uses to claim ownership of player data.
+	 */
+	public String getServerId() {
+		return serverId;
+	}
+
+	/**
+	 * @return An executor which runs tasks off the server thread.
+	 */
+	public Executor getAsyncExecutor() {
+		return asyncExecutor;
+	}
+
+	/**
+	 * @return An executor which runs tasks on the server thread.
+	 */
+	public Executor getMainExecutor() {
+		return mainExecutor;
+	}
+
+	/**
+	 * @return The store holding player data.
+	 */
+	public PlayerStore getStore() {
+		return store;
+	}
+
+	/**
+	 * @return The measurements of loading and saving players.
+	 */
+	public TenacityMetrics getMetrics() {
+		return metrics;
 	}
 
 	/**
-	 * Runs some action inside the database.
+	 * @return The queue applying loaded player data on the server thread.
+	 */
+	public ApplyQueue getApplyQueue() {
+		return applyQueue;
+	}
+
+	/**
+	 * @return The channel announcing handed back players to other servers or <tt>null</tt> if it is disabled.
+	 */
+	public @Nullable HandoffChannel getHandoffChannel() {
+		return handoffChannel;
+	}
+
+	/**
+	 * @return The pipeline used to write player data to the database.
+	 */
+	public SavePipeline getSavePipeline() {
+		return savePipeline;
+	}
+
+	/**
+	 * @return The breaker pausing access to the store while it keeps failing.
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
+	/**
+	 * Runs some action inside the player store.
 	 *
 	 * @param action The action to perform
 	 */
-	public void withDatabase(final @NotNull DatabaseAction action) {
-		try (final var conn = pool.getConnection()) {
-			try {
-				action.perform(conn);
-			} catch (final SQLException e) {
-				getLogger().severe("Database access failed: %s".formatted(e));
-			}
-		} catch (final SQLException e) {
-			getLogger().severe("Failed to establish a connection to the database at %s: %s".formatted(
-					config.database.url != null ? config.database.url : config.database.host, e)
-			);
+	public void withStore(final @NotNull StoreAction action) {
+		queryStore(store -> {
+			action.perform(store);
+			return true;
+		});
+	}
+
+	/**
+	 * Runs some query inside the player store. While the {@link CircuitBreaker} is open, the query is not
+	 * run at all and fails right away.
+	 *
+	 * @param query The query to perform.
+	 * @param <T>   The type of result produced by the query.
+	 * @return The result of the query or <tt>null</tt> if accessing the store failed.
+	 */
+	public <T> @Nullable T queryStore(final @NotNull StoreQuery<T> query) {
+		final var permit = breaker.tryAcquire();
+		if (permit == null) {
+			metrics.storeRejected.increment();
+			return null;
 		}
+
+		final var start = System.nanoTime();
+		var failed = true;
+		try {
+			final var result = query.query(store);
+			failed = false;
+			metrics.query.recordSince(start);
+			return result;
+		} catch (final StoreException e) {
+			getLogger().severe(e.toString());
+		} finally {
+			breaker.record(permit, failed, System.nanoTime() - start);
+		}
+
+		return null;
 	}
 
 	@Override
 	public void onDisable() {
-		pool.close();
+		if (prefetchCache != null) prefetchCache.clear();
+
+		if (savePipeline != null) {
+			// Players are only kicked after plugins have been disabled, so save everyone who is still online now
+			final var snapshots = new ArrayList<PlayerSnapshot>();
+			for (final var player : getServer().getOnlinePlayers()) {
+				final var session = sessions.get(player.getUniqueId());
+				if (session != null && session.transition(PlayerSession.State.READY, PlayerSession.State.SAVING)) {
+					snapshots.add(snapshotChanges(session, player, true));
+				}
+			}
+
+			savePipeline.shutdown(snapshots, config.shutdown.parallelism, config.shutdown.timeout, TimeUnit.SECONDS);
+		}
+
+		if (store != null) store.close();
 	}
 
 	/**
-	 * Loads a player from the database.
+	 * Starts fetching a player's data before they have joined. May be called from any thread.
+	 *
+	 * @param uuid The player who is about to join.
+	 */
+	public void prefetchPlayer(final @NotNull UUID uuid) {
+		if (prefetchCache != null) prefetchCache.prefetch(uuid);
+	}
+
+	/**
+	 * Drops the data fetched for a player who was not allowed to join after all.
+	 *
+	 * @param uuid The player who was not allowed to join.
+	 */
+	public void discardPrefetch(final @NotNull UUID uuid) {
+		if (prefetchCache != null) prefetchCache.discard(uuid);
+	}
+
+	/**
+	 * Starts loading a player from the database. If the player's data was already prefetched, it is
+	 * applied as soon as it is ready. Must be called from the server thread.
 	 *
 	 * @param player The player to load.
+	 * @return A future which completes once loading has finished or was cancelled.
 	 */
-	public void doLoadPlayer(final Player player) {
-		this.withDatabase(conn -> {
-			final var stmt = conn.prepareStatement("SELECT * FROM players WHERE uuid=?");
-			stmt.setString(1, player.getUniqueId().toString());
-
-			final var result = stmt.executeQuery();
-			if (result.next()) {
-				SerializedPlayer.fromDatabase(result).apply(this.config.saving, player);
-				this.getLogger().info("Loaded data of player '%s' from the database successfully".formatted(player.getName()));
-			} else {
-				this.getLogger().info("Could not load player '%s' from the database because they joined for the first time".formatted(player.getName()));
+	public CompletableFuture<Boolean> loadPlayer(final @NotNull Player player) {
+		final var uuid = player.getUniqueId();
+		final var prefetched = prefetchCache != null ? prefetchCache.take(uuid) : null;
+
+		PlayerSession session;
+		if (prefetched != null && prefetched.transition(PlayerSession.State.PREFETCHING, PlayerSession.State.LOADING)) {
+			session = prefetched;
+		} else {
+			// Whatever is left of an earlier attempt to load the player is outdated now
+			while ((session = openSession(uuid, PlayerSession.State.LOADING)) == null) {
+				final var stale = sessions.get(uuid);
+				if (stale != null && !stale.abandon()) {
+					getLogger().warning("Player '%s' joined while their previous session was still %s".formatted(
+							player.getName(), stale.getState()));
+					return CompletableFuture.completedFuture(false);
+				}
+
+				if (stale != null) closeSession(stale);
 			}
+		}
 
-			final var update = conn.prepareStatement("UPDATE players SET last_event='load' WHERE uuid=?");
-			update.setString(1, player.getUniqueId().toString());
-			update.executeUpdate();
-		});
+		return session.getTask().start().whenCompleteAsync((loaded, error) -> {
+			if (error != null) {
+				getLogger().severe("Failed to load data of player '%s': %s".formatted(player.getName(), error));
+			}
+		}, mainExecutor);
+	}
+
+	/**
+	 * Queues the sections of a player's data which changed since they were last loaded or saved to be
+	 * written to the database. Must be called from the server thread.
+	 *
+	 * @param player  The player to save.
+	 * @param release Set to <tt>true</tt> if the player is leaving the server, and <tt>false</tt> to only save
+	 *                a checkpoint of their data.
+	 * @return <tt>true</tt> if a save was queued and <tt>false</tt> if the player's data has not been loaded
+	 * or nothing changed since the last checkpoint.
+	 */
+	public boolean savePlayer(final @NotNull Player player, final boolean release) {
+		final var session = sessions.get(player.getUniqueId());
+		if (session == null) return false;
+
+		if (release) {
+			if (!session.transition(PlayerSession.State.READY, PlayerSession.State.SAVING)) return false;
+			savePipeline.release(session, snapshotChanges(session, player, true));
+			return true;
+		}
+
+		if (!session.isReady()) return false;
+
+		final var snapshot = snapshotChanges(session, player, false);
+		if (snapshot.sections.isEmpty()) return false;
+
+		savePipeline.submit(snapshot, false);
+		return true;
+	}
+
+	/**
+	 * Takes a snapshot of all sections of a player's data which changed since they were last loaded or
+	 * saved. Must be called from the server thread. The session's fingerprints are updated right away, the
+	 * save pipeline marks the sections as changed again should the save not reach the database.
+	 *
+	 * @param session The player's session.
+	 * @param player  The player to take a snapshot of.
+	 * @param release Set to <tt>true</tt> for the player's final save, which also includes the sections whose
+	 *                fingerprints leave out values that change all the time.
+	 * @return The snapshot taken.
+	 */
+	private PlayerSnapshot snapshotChanges(final @NotNull PlayerSession session, final @NotNull Player player,
+										   final boolean release) {
+		final var current = SectionFingerprints.of(config.saving, player, session.getStatistics());
+		final var changed = current.changedSince(session.getFingerprints());
+		if (release && Section.VITALS.isEnabled(config.saving)) changed.add(Section.VITALS);
+		if (release && Section.EFFECTS.isEnabled(config.saving) && !player.getActivePotionEffects().isEmpty()) changed.add(Section.EFFECTS);
+		if (release && session.getStatistics() != null && session.getStatistics().isComplete()) changed.add(Section.STATISTICS);
+		session.setFingerprints(current);
+		return PlayerSnapshot.capture(config.saving, player, changed, session.getStatistics());
+	}
+
+	/**
+	 * Handles a player leaving the server. If the player's data has been loaded, it is queued to be saved.
+	 * Otherwise, any load still in progress is cancelled. Must be called from the server thread.
+	 *
+	 * @param player The player who is leaving.
+	 */
+	public void unloadPlayer(final @NotNull Player player) {
+		if (savePlayer(player, true)) return;
+
+		// If the player's data was never loaded, whatever they have now must not overwrite it
+		final var session = sessions.get(player.getUniqueId());
+		if (session != null && session.abandon()) closeSession(session);
 	}
 }
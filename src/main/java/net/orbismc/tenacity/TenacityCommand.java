@@ -0,0 +1,240 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity;
+
+import net.orbismc.tenacity.store.PlayerDump;
+import net.orbismc.tenacity.store.StoreException;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.ConsoleCommandSender;
+import org.bukkit.command.TabExecutor;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * The <tt>/tenacity</tt> command.
+ */
+public final class TenacityCommand implements TabExecutor {
+	private static final List<String> SUBCOMMANDS = List.of("stats", "history", "restore", "export", "import");
+	private static final int EXPORT_FETCH_SIZE = 1000;
+	private static final int IMPORT_BATCH_SIZE = 256;
+	private static final long PROGRESS_INTERVAL = 10_000;
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+	private final Tenacity plugin;
+	private final AtomicBoolean dumping = new AtomicBoolean();
+
+	public TenacityCommand(Tenacity plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public boolean onCommand(final @NotNull CommandSender sender, final @NotNull Command command,
+							 final @NotNull String label, final @NotNull String[] args) {
+		if (args.length == 0) return false;
+
+		switch (args[0]) {
+			case "stats" -> {
+				sender.sendMessage("Tenacity statistics since the server started:");
+				for (final var line : plugin.getMetrics().summarize()) sender.sendMessage(" " + line);
+			}
+			case "history" -> {
+				if (args.length < 2 || args.length > 3) return false;
+
+				final var uuid = findPlayer(sender, args[1]);
+				if (uuid == null) return true;
+
+				final int limit;
+				try {
+					limit = args.length == 3 ? Integer.parseInt(args[2]) : 10;
+				} catch (final NumberFormatException e) {
+					return false;
+				}
+
+				plugin.getAsyncExecutor().execute(() -> listHistory(sender, args[1], uuid, limit));
+			}
+			case "restore" -> {
+				if (args.length != 3) return false;
+
+				final var uuid = findPlayer(sender, args[1]);
+				if (uuid == null) return true;
+
+				final long id;
+				try {
+					id = Long.parseLong(args[2]);
+				} catch (final NumberFormatException e) {
+					return false;
+				}
+
+				if (plugin.getServer().getPlayer(uuid) != null) {
+					sender.sendMessage("%s is online. Their data can only be restored while they are offline.".formatted(args[1]));
+					return true;
+				}
+
+				plugin.getAsyncExecutor().execute(() -> restore(sender, args[1], uuid, id));
+			}
+			case "export" -> {
+				if (args.length != 2) return false;
+
+				final var file = plugin.getDataFolder().toPath().resolve(args[1]);
+				if (!dumping.compareAndSet(false, true)) {
+					sender.sendMessage("An export or import is already running.");
+					return true;
+				}
+
+				sender.sendMessage("Exporting all players to %s...".formatted(file));
+				plugin.getAsyncExecutor().execute(() -> export(sender, file));
+			}
+			case "import" -> {
+				if (args.length < 2 || args.length > 3 || (args.length == 3 && !args[2].equals("reencode"))) return false;
+
+				// Imports overwrite leased data, so they must not be started by accident
+				if (!(sender instanceof ConsoleCommandSender)) {
+					sender.sendMessage("Imports can only be started from the console.");
+					return true;
+				}
+
+				if (!plugin.getServer().getOnlinePlayers().isEmpty()) {
+					sender.sendMessage("Imports can only run while no players are online.");
+					return true;
+				}
+
+				final var file = plugin.getDataFolder().toPath().resolve(args[1]);
+				if (!dumping.compareAndSet(false, true)) {
+					sender.sendMessage("An export or import is already running.");
+					return true;
+				}
+
+				sender.sendMessage("Importing all players from %s...".formatted(file));
+				plugin.getAsyncExecutor().execute(() -> importDump(sender, file, args.length == 3));
+			}
+			default -> {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	private void listHistory(final @NotNull CommandSender sender, final @NotNull String name, final @NotNull UUID uuid, final int limit) {
+		final var snapshots = plugin.queryStore(store -> store.listSnapshots(uuid, limit));
+		if (snapshots == null) {
+			sender.sendMessage("Failed to read the history of %s, see the server log for details.".formatted(name));
+			return;
+		}
+
+		if (snapshots.isEmpty()) {
+			sender.sendMessage("There is no history of %s.".formatted(name));
+			return;
+		}
+
+		sender.sendMessage("The most recent snapshots of %s:".formatted(name));
+		for (final var snapshot : snapshots) {
+			sender.sendMessage(" #%d  %s  %.1f KB%s".formatted(snapshot.id(), TIME_FORMAT.format(Instant.ofEpochMilli(snapshot.created())),
+					snapshot.size() / 1024.0, snapshot.keyframe() ? "  (keyframe)" : ""));
+		}
+	}
+
+	private void restore(final @NotNull CommandSender sender, final @NotNull String name, final @NotNull UUID uuid, final long id) {
+		final var result = plugin.queryStore(store -> store.restoreSnapshot(uuid, id));
+		if (result == null) {
+			sender.sendMessage("Failed to restore %s, see the server log for details.".formatted(name));
+			return;
+		}
+
+		sender.sendMessage(switch (result) {
+			case RESTORED -> "Restored %s to snapshot #%d.".formatted(name, id);
+			case NOT_FOUND -> "%s has no snapshot #%d.".formatted(name, id);
+			case LEASED -> "%s is online on another server. Their data can only be restored while they are offline.".formatted(name);
+		});
+	}
+
+	private void export(final @NotNull CommandSender sender, final @NotNull Path file) {
+		final var start = System.nanoTime();
+
+		try (final var out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+			final var count = PlayerDump.export(plugin.getStore(), out, EXPORT_FETCH_SIZE, progressLogger());
+			sender.sendMessage("Exported %d players in %.1f s.".formatted(count, (System.nanoTime() - start) / 1e9));
+		} catch (final StoreException | IOException e) {
+			plugin.getLogger().severe("Failed to export players to %s: %s".formatted(file, e));
+			sender.sendMessage("Export failed, see the server log for details.");
+		} finally {
+			dumping.set(false);
+		}
+	}
+
+	private void importDump(final @NotNull CommandSender sender, final @NotNull Path file, final boolean reencode) {
+		final var start = System.nanoTime();
+		final var storage = plugin.config.storage;
+
+		try (final var in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			final var count = PlayerDump.importDump(plugin.getStore(), in, plugin.config.database.poolSize, IMPORT_BATCH_SIZE,
+					reencode ? serial -> serial.reencodeItems(storage) : null, progressLogger());
+			sender.sendMessage("Imported %d players in %.1f s.".formatted(count, (System.nanoTime() - start) / 1e9));
+		} catch (final StoreException | IOException | RuntimeException e) {
+			plugin.getLogger().severe("Failed to import players from %s: %s".formatted(file, e));
+			sender.sendMessage("Import failed, see the server log for details.");
+		} finally {
+			dumping.set(false);
+		}
+	}
+
+	/**
+	 * @return A progress callback which logs every {@link #PROGRESS_INTERVAL} players copied.
+	 */
+	private LongConsumer progressLogger() {
+		final var next = new AtomicLong(PROGRESS_INTERVAL);
+		return players -> {
+			final var threshold = next.get();
+			if (players >= threshold && next.compareAndSet(threshold, players - players % PROGRESS_INTERVAL + PROGRESS_INTERVAL)) {
+				plugin.getLogger().info("Copied %d players so far".formatted(players));
+			}
+		};
+	}
+
+	/**
+	 * Looks up a player by name or UUID.
+	 *
+	 * @param sender The sender to report an unknown player to.
+	 * @param player The player's name or UUID.
+	 * @return The player's UUID or <tt>null</tt> if no such player is known.
+	 */
+	private @Nullable UUID findPlayer(final @NotNull CommandSender sender, final @NotNull String player) {
+		try {
+			return UUID.fromString(player);
+		} catch (final IllegalArgumentException e) {
+			// Not a UUID, so it has to be a name
+		}
+
+		final var offline = plugin.getServer().getOfflinePlayerIfCached(player);
+		if (offline == null) {
+			sender.sendMessage("%s has never played on this server. Use their UUID instead.".formatted(player));
+			return null;
+		}
+
+		return offline.getUniqueId();
+	}
+
+	@Override
+	public List<String> onTabComplete(final @NotNull CommandSender sender, final @NotNull Command command,
+									  final @NotNull String label, final @NotNull String[] args) {
+		if (args.length != 1) return List.of();
+		return SUBCOMMANDS.stream().filter(s -> s.startsWith(args[0])).toList();
+	}
+}
@@ -13,11 +13,25 @@ import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.representer.Representer;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 
 public final class TenacityConfig {
 	public TenacityDatabaseConfig database;
 	public TenacitySavingConfig saving;
+	public TenacityQueueConfig queue = new TenacityQueueConfig();
+	public TenacityLoadingConfig loading = new TenacityLoadingConfig();
+	public TenacityStorageConfig storage = new TenacityStorageConfig();
+	public TenacityAutosaveConfig autosave = new TenacityAutosaveConfig();
+	public TenacityShutdownConfig shutdown = new TenacityShutdownConfig();
+	public TenacityLeaseConfig lease = new TenacityLeaseConfig();
+	public TenacityPrefetchConfig prefetch = new TenacityPrefetchConfig();
+	public TenacityJournalConfig journal = new TenacityJournalConfig();
+	public TenacityMetricsConfig metrics = new TenacityMetricsConfig();
+	public TenacityHandoffConfig handoff = new TenacityHandoffConfig();
+	public TenacityHistoryConfig history = new TenacityHistoryConfig();
+	public TenacityBreakerConfig breaker = new TenacityBreakerConfig();
 
 	/**
 	 * Loads the configuration from a file.
@@ -32,6 +46,18 @@ public final class TenacityConfig {
 		final var type = new YAMLConstructorProxy(TenacityConfig.class);
 		type.addClassInfo(TenacityDatabaseConfig.class);
 		type.addClassInfo(TenacitySavingConfig.class);
+		type.addClassInfo(TenacityQueueConfig.class);
+		type.addClassInfo(TenacityLoadingConfig.class);
+		type.addClassInfo(TenacityStorageConfig.class);
+		type.addClassInfo(TenacityAutosaveConfig.class);
+		type.addClassInfo(TenacityShutdownConfig.class);
+		type.addClassInfo(TenacityLeaseConfig.class);
+		type.addClassInfo(TenacityPrefetchConfig.class);
+		type.addClassInfo(TenacityJournalConfig.class);
+		type.addClassInfo(TenacityMetricsConfig.class);
+		type.addClassInfo(TenacityHandoffConfig.class);
+		type.addClassInfo(TenacityHistoryConfig.class);
+		type.addClassInfo(TenacityBreakerConfig.class);
 
 		final var yml = new Yaml(type);
 		return yml.load(new FileInputStream(file));
@@ -49,6 +75,18 @@ public final class TenacityConfig {
 		repr.addClassTag(TenacityConfig.class, Tag.MAP);
 		repr.addClassTag(TenacityDatabaseConfig.class, Tag.MAP);
 		repr.addClassTag(TenacitySavingConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityQueueConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityLoadingConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityStorageConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityAutosaveConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityShutdownConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityLeaseConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityPrefetchConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityJournalConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityMetricsConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityHandoffConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityHistoryConfig.class, Tag.MAP);
+		repr.addClassTag(TenacityBreakerConfig.class, Tag.MAP);
 
 		var opt = new DumperOptions();
 		opt.setIndent(2);
@@ -64,12 +102,21 @@ public final class TenacityConfig {
 	}
 
 	public static class TenacityDatabaseConfig {
+		public String type = "mariadb";
+		public String file = "tenacity";
 		public String username;
 		public String password;
 		public String host;
 		public int port;
 		public String name;
 		public String url = null;
+		public String replicaUrl = null;
+		public int poolSize = 3;
+		public int idleTimeout = 600;
+		public int connectTimeout = 5;
+		public int queryTimeout = 10;
+		public boolean cachePreparedStatements = true;
+		public int preparedStatementCacheSize = 250;
 	}
 
 	public static class TenacitySavingConfig {
@@ -79,6 +126,77 @@ public final class TenacityConfig {
 		public boolean effects;
 		public boolean recipeBook;
 		public boolean inventory;
+		public boolean advancements;
+		public boolean statistics;
+		public boolean persistentData;
+	}
+
+	public static class TenacityQueueConfig {
+		public int capacity = 1024;
+		public int batchSize = 32;
+	}
+
+	public static class TenacityLoadingConfig {
+		public int retryDelay = 50;
+		public int maxRetryDelay = 2000;
+		public int applyBudget = 5000;
+	}
+
+	public static class TenacityStorageConfig {
+		public boolean compressItems = false;
+		public boolean splitTables = false;
+	}
+
+	public static class TenacityAutosaveConfig {
+		public boolean enabled = true;
+		public int interval = 300;
+	}
+
+	public static class TenacityShutdownConfig {
+		public int parallelism = 3;
+		public int timeout = 30;
+	}
+
+	public static class TenacityLeaseConfig {
+		public String serverId = null;
+		public int duration = 60;
+		public int renewInterval = 15;
+	}
+
+	public static class TenacityPrefetchConfig {
+		public boolean enabled = true;
+		public int capacity = 256;
+		public int ttl = 30;
+	}
+
+	public static class TenacityJournalConfig {
+		public boolean enabled = true;
+		public int segmentSize = 16;
+		public int retryInterval = 5;
+	}
+
+	public static class TenacityMetricsConfig {
+		public String file = null;
+		public int interval = 15;
+	}
+
+	public static class TenacityHandoffConfig {
+		public boolean enabled = false;
+	}
+
+	public static class TenacityHistoryConfig {
+		public boolean enabled = false;
+		public int keyframeInterval = 24;
+		public String keepAll = "6h";
+		public List<String> retention = new ArrayList<>(List.of("1h:1d", "1d:30d"));
+		public int pruneInterval = 3600;
+	}
+
+	public static class TenacityBreakerConfig {
+		public boolean enabled = true;
+		public int failureThreshold = 5;
+		public int slowCall = 2000;
+		public int openDuration = 10;
 	}
 
 	/**
@@ -4,16 +4,18 @@
  */
 package net.orbismc.tenacity;
 
-import net.orbismc.tenacity.serial.SerializedPlayer;
-import net.orbismc.tenacity.task.LoadPlayerTask;
+import net.orbismc.tenacity.serial.StatisticCodec;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryPickupItemEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerLoginEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerStatisticIncrementEvent;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -26,6 +28,29 @@ public final class TenacityEventListener implements Listener {
 		this.plugin = plugin;
 	}
 
+	/**
+	 * Handles a player connecting to the server. This runs off the server thread and starts fetching the
+	 * player's data early, so that it is ready once they join. Runs last, so that players refused by
+	 * other plugins are not fetched.
+	 *
+	 * @param event The event to handle.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onAsyncPlayerPreLogin(final @NotNull AsyncPlayerPreLoginEvent event) {
+		if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) return;
+		plugin.prefetchPlayer(event.getUniqueId());
+	}
+
+	/**
+	 * Drops the prefetched data of players who are refused at login, for example because the server is full.
+	 *
+	 * @param event The event to handle.
+	 */
+	@EventHandler(priority = EventPriority.MONITOR)
+	public void onPlayerLogin(final @NotNull PlayerLoginEvent event) {
+		if (event.getResult() != PlayerLoginEvent.Result.ALLOWED) plugin.discardPrefetch(event.getPlayer().getUniqueId());
+	}
+
 	/**
 	 * Handles a player joining the world. This will load the player data from the database.
 	 *
@@ -33,9 +58,7 @@ public final class TenacityEventListener implements Listener {
 	 */
 	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
 	public void onPlayerJoin(final @NotNull PlayerJoinEvent event) {
-		final var player = event.getPlayer();
-		plugin.setLoaded(player, false);
-		plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new LoadPlayerTask(plugin, player.getUniqueId()), 20);
+		plugin.loadPlayer(event.getPlayer());
 	}
 
 	/**
@@ -65,42 +88,28 @@ public final class TenacityEventListener implements Listener {
 	}
 
 	/**
-	 * Handles a player leaving the world. This will save the player data to the database.
+	 * Keeps track of statistics as they change, so that saving a player doesn't have to read all of them.
+	 * Runs last, so that only changes which actually happen are recorded.
 	 *
 	 * @param event The event to handle.
 	 */
-	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
-	public void onPlayerQuit(final @NotNull PlayerQuitEvent event) {
-		final var player = event.getPlayer();
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.MONITOR)
+	public void onStatisticIncrement(final @NotNull PlayerStatisticIncrementEvent event) {
+		final var session = plugin.getSession(event.getPlayer().getUniqueId());
+		final var statistics = session != null ? session.getStatistics() : null;
+		if (statistics == null) return;
 
-		plugin.withDatabase(conn -> {
-			final var serial = SerializedPlayer.fromPlayer(plugin.config.saving, player);
-			final var stmt = conn.prepareStatement("REPLACE INTO players (uuid, " +
-					"air, fire, glowing, health, absorption, active_effects, recipe_book, food_level, " +
-					"food_exhaustion, food_saturation, xp_level, xp_percentage, xp_total, inventory, " +
-					"ender_chest, armor_items, selected_slot, last_event) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
-			stmt.setString(1, serial.uuid.toString());
-			stmt.setInt(2, serial.air);
-			stmt.setInt(3, serial.fire);
-			stmt.setBoolean(4, serial.glowing);
-			stmt.setDouble(5, serial.health);
-			stmt.setDouble(6, serial.absorption);
-			stmt.setString(7, serial.activeEffects);
-			stmt.setString(8, serial.recipeBook);
-			stmt.setInt(9, serial.foodLevel);
-			stmt.setDouble(10, serial.foodExhaustion);
-			stmt.setDouble(11, serial.foodSaturation);
-			stmt.setInt(12, serial.xpLevel);
-			stmt.setDouble(13, serial.xpPercentage);
-			stmt.setInt(14, serial.xpTotal);
-			stmt.setString(15, serial.inventory);
-			stmt.setString(16, serial.enderChest);
-			stmt.setString(17, serial.armorItems);
-			stmt.setInt(18, serial.selectedSlot);
-			stmt.setString(19, "save");
-			stmt.executeUpdate();
+		statistics.record(StatisticCodec.key(event.getStatistic(), event.getMaterial(), event.getEntityType()), event.getNewValue());
+	}
 
-			plugin.getLogger().info("Saved player data of '%s' to the database successfully.".formatted(player.getName()));
-		});
+	/**
+	 * Handles a player leaving the world. This will take a snapshot of the player's data and queue it to be
+	 * saved to the database. If the player's data has not been loaded yet, loading is cancelled instead.
+	 *
+	 * @param event The event to handle.
+	 */
+	@EventHandler(ignoreCancelled = true, priority = EventPriority.HIGHEST)
+	public void onPlayerQuit(final @NotNull PlayerQuitEvent event) {
+		plugin.unloadPlayer(event.getPlayer());
 	}
 }
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.mariadb.jdbc.MariaDbPoolDataSource;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A pool of database connections. Besides handing out connections, it keeps track of how the pool is
+ * used. Pools connect either to a MariaDB server or to an embedded H2 database.
+ */
+public final class Database implements AutoCloseable {
+	private final DataSource pool;
+	private final Runnable closer;
+	private final String poolName;
+	private final int queryTimeout;
+
+	private final AtomicLong acquireCount = new AtomicLong();
+	private final AtomicLong acquireNanos = new AtomicLong();
+	private final AtomicLong maxAcquireNanos = new AtomicLong();
+
+	/**
+	 * Creates a new connection pool connecting to a MariaDB server.
+	 *
+	 * @param config   The database configuration.
+	 * @param poolName The name of the pool, used to look up its statistics. A <tt>poolName</tt> set in the
+	 *                 configured URL takes precedence, in which case the statistics are unavailable.
+	 */
+	public Database(final @NotNull TenacityConfig.TenacityDatabaseConfig config, final @NotNull String poolName) {
+		this(config, config.url, poolName);
+	}
+
+	/**
+	 * Creates a new connection pool connecting to a MariaDB server at the given URL, for example a replica
+	 * of the configured database. The pool options are taken from the configuration.
+	 *
+	 * @param config   The database configuration.
+	 * @param url      The URL to connect to or <tt>null</tt> to connect to the configured server.
+	 * @param poolName The name of the pool, used to look up its statistics.
+	 */
+	public Database(final @NotNull TenacityConfig.TenacityDatabaseConfig config, final @Nullable String url, final @NotNull String poolName) {
+		final var pool = new MariaDbPoolDataSource(buildUrl(config, url, poolName));
+		this.pool = pool;
+		this.closer = pool::close;
+		this.poolName = poolName;
+		this.queryTimeout = Math.max(0, config.queryTimeout);
+	}
+
+	private Database(final @NotNull JdbcConnectionPool pool, final @NotNull String poolName, final int queryTimeout) {
+		this.pool = pool;
+		this.closer = pool::dispose;
+		this.poolName = poolName;
+		this.queryTimeout = Math.max(0, queryTimeout);
+	}
+
+	/**
+	 * Creates a new connection pool connecting to an embedded H2 database. The database runs in MySQL
+	 * compatibility mode, so that the same statements work for both.
+	 *
+	 * @param url      The H2 URL to connect to, for example <tt>jdbc:h2:file:/path/to/tenacity</tt>.
+	 * @param config   The database configuration. Only the pool size and timeouts are used.
+	 * @param poolName The name of the pool.
+	 * @return The pool.
+	 */
+	public static Database h2(final @NotNull String url, final @NotNull TenacityConfig.TenacityDatabaseConfig config,
+							  final @NotNull String poolName) {
+		final var pool = JdbcConnectionPool.create(url + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE", "", "");
+		pool.setMaxConnections(Math.max(1, config.poolSize));
+		pool.setLoginTimeout(Math.max(1, config.connectTimeout));
+		return new Database(pool, poolName, config.queryTimeout);
+	}
+
+	/**
+	 * Builds the JDBC URL to connect with. Pool options are appended to a configured URL unless it
+	 * already sets them.
+	 *
+	 * @param config   The database configuration.
+	 * @param base     The configured URL or <tt>null</tt> to build one from the configuration.
+	 * @param poolName The name of the pool.
+	 * @return The URL to connect to.
+	 */
+	private static String buildUrl(final TenacityConfig.TenacityDatabaseConfig config, final String base, final String poolName) {
+		final var url = new StringBuilder(base != null ? base : "jdbc:mariadb://%s:%d/%s?user=%s&password=%s".formatted(
+				config.host,
+				config.port,
+				config.name,
+				config.username,
+				config.password
+		));
+
+		final var options = new LinkedHashMap<String, Object>();
+		options.put("maxPoolSize", config.poolSize);
+		options.put("maxIdleTime", config.idleTimeout);
+		options.put("connectTimeout", Math.max(1, config.connectTimeout) * 1000);
+		options.put("useServerPrepStmts", config.cachePreparedStatements);
+		options.put("cachePrepStmts", config.cachePreparedStatements);
+		options.put("prepStmtCacheSize", config.preparedStatementCacheSize);
+		options.put("registerJmxPool", true);
+		options.put("poolName", poolName);
+
+		for (final var option : options.entrySet()) {
+			if (url.indexOf(option.getKey() + "=") >= 0) continue;
+			url.append(url.indexOf("?") >= 0 ? '&' : '?').append(option.getKey()).append('=').append(option.getValue());
+		}
+
+		return url.toString();
+	}
+
+	/**
+	 * Takes a connection from the pool. The connection must be closed to return it to the pool. If all
+	 * connections are in use, waits for one for at most <tt>connectTimeout</tt> seconds.
+	 *
+	 * @return A connection to the database.
+	 * @throws SQLException If no connection could be established in time.
+	 */
+	public Connection getConnection() throws SQLException {
+		final var start = System.nanoTime();
+
+		try {
+			return pool.getConnection();
+		} finally {
+			final var elapsed = System.nanoTime() - start;
+			acquireCount.incrementAndGet();
+			acquireNanos.addAndGet(elapsed);
+			maxAcquireNanos.accumulateAndGet(elapsed, Math::max);
+		}
+	}
+
+	/**
+	 * Prepares a statement on the given connection, which the caller must close. Statements are cancelled if
+	 * they run for longer than <tt>queryTimeout</tt> seconds. Pooled connections are handed out as a new
+	 * handle every time, so statements are not cached here but by the MariaDB driver, which keeps them per
+	 * physical connection if <tt>cachePreparedStatements</tt> is enabled.
+	 *
+	 * @param conn The connection to prepare the statement on.
+	 * @param sql  The SQL of the statement.
+	 * @return The prepared statement.
+	 * @throws SQLException If the statement could not be prepared.
+	 */
+	public PreparedStatement prepare(final @NotNull Connection conn, final @NotNull String sql) throws SQLException {
+		final var stmt = conn.prepareStatement(sql);
+
+		try {
+			stmt.setQueryTimeout(queryTimeout);
+		} catch (final SQLException e) {
+			stmt.close();
+			throw e;
+		}
+
+		return stmt;
+	}
+
+	/**
+	 * @return Statistics about the connection pool.
+	 */
+	public DatabaseMetrics getMetrics() {
+		int active = -1, idle = -1, waiting = -1;
+
+		if (pool instanceof final JdbcConnectionPool h2) {
+			active = h2.getActiveConnections();
+		} else {
+			try {
+				// The driver registers the pool as "<poolName>-<index>"
+				final var server = ManagementFactory.getPlatformMBeanServer();
+				final var names = server.queryNames(new ObjectName("org.mariadb.jdbc.pool:type=" + poolName + "-*"), null);
+				for (final var name : names) {
+					active = ((Number) server.getAttribute(name, "ActiveConnections")).intValue();
+					idle = ((Number) server.getAttribute(name, "IdleConnections")).intValue();
+					waiting = ((Number) server.getAttribute(name, "ConnectionRequests")).intValue();
+				}
+			} catch (final JMException e) {
+				// The pool has not been started yet or does not expose statistics
+			}
+		}
+
+		final var count = acquireCount.get();
+		return new DatabaseMetrics(
+				active,
+				idle,
+				waiting,
+				count,
+				count == 0 ? 0 : acquireNanos.get() / (double) count / 1_000_000.0,
+				maxAcquireNanos.get() / 1_000_000.0,
+				0,
+				0
+		);
+	}
+
+	@Override
+	public void close() {
+		closer.run();
+	}
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+/**
+ * Statistics about the connection pool, taken at a single point in time. Connection counts are
+ * <tt>-1</tt> if the driver does not report them.
+ *
+ * @param activeConnections  The number of connections currently in use.
+ * @param idleConnections    The number of connections waiting in the pool.
+ * @param waitingRequests    The number of threads waiting for a connection.
+ * @param acquireCount       The number of connections taken from the pool so far.
+ * @param averageAcquireTime The average time in milliseconds it took to get a connection.
+ * @param maxAcquireTime     The longest time in milliseconds it took to get a connection.
+ * @param replicaReads       The number of players loaded from the read replica.
+ * @param replicaFallbacks   The number of players loaded from the primary because the replica was behind,
+ *                           unreachable or the player was not claimable.
+ */
+public record DatabaseMetrics(int activeConnections,
+							  int idleConnections,
+							  int waitingRequests,
+							  long acquireCount,
+							  double averageAcquireTime,
+							  double maxAcquireTime,
+							  long replicaReads,
+							  long replicaFallbacks) {
+	/**
+	 * @return The share of loads which used the read replica, between <tt>0</tt> and <tt>1</tt>.
+	 */
+	public double replicaHitRate() {
+		final var total = replicaReads + replicaFallbacks;
+		return total == 0 ? 0 : replicaReads / (double) total;
+	}
+
+	/**
+	 * @param reads     The number of players loaded from the read replica.
+	 * @param fallbacks The number of players loaded from the primary instead.
+	 * @return These statistics together with the given use of the read replica.
+	 */
+	public DatabaseMetrics withReplica(final long reads, final long fallbacks) {
+		return new DatabaseMetrics(activeConnections, idleConnections, waitingRequests, acquireCount, averageAcquireTime,
+				maxAcquireTime, reads, fallbacks);
+	}
+}
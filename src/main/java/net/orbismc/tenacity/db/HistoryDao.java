@@ -0,0 +1,266 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import net.orbismc.tenacity.serial.ColumnCodec;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.RetentionPolicy;
+import net.orbismc.tenacity.store.SnapshotHistory;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Reads and writes the <tt>player_snapshots</tt> table holding the history of every player's data (see
+ * {@link SnapshotHistory}). The <tt>history_deltas</tt> column of the <tt>players</tt> table counts the
+ * deltas appended since the last keyframe, or is <tt>NULL</tt> if the player has no keyframe yet. None of
+ * the methods start a transaction, so callers should run them in one together with the write they record.
+ */
+public final class HistoryDao {
+	private static final String COUNT = "SELECT history_deltas FROM players WHERE uuid=?";
+	private static final String LOCK = "SELECT history_deltas FROM players WHERE uuid=? FOR UPDATE";
+	private static final String SET_COUNT = "UPDATE players SET history_deltas=? WHERE uuid=?";
+	private static final String INSERT = "INSERT INTO player_snapshots (uuid, created, keyframe, data) VALUES (?, ?, ?, ?)";
+	private static final String LIST = "SELECT id, created, keyframe, OCTET_LENGTH(data) AS size FROM player_snapshots WHERE uuid=? ORDER BY id DESC LIMIT ?";
+	private static final String CHAIN = "SELECT id, created, keyframe, data FROM player_snapshots WHERE uuid=? AND id<=? "
+			+ "AND id>=(SELECT MAX(id) FROM player_snapshots WHERE uuid=? AND id<=? AND keyframe) ORDER BY id";
+	private static final String ALL = "SELECT id, created, keyframe, data FROM player_snapshots WHERE uuid=? ORDER BY id";
+	private static final String CANDIDATES = "SELECT DISTINCT uuid FROM player_snapshots WHERE created<?";
+	private static final String DELETE = "DELETE FROM player_snapshots WHERE id=?";
+	private static final String REWRITE = "UPDATE player_snapshots SET keyframe=?, data=? WHERE id=?";
+
+	private final Database database;
+	private final PlayerDao players;
+	private final int keyframeInterval;
+
+	/**
+	 * @param database         The database to prepare statements with.
+	 * @param players          The DAO to read full rows for keyframes with.
+	 * @param keyframeInterval The number of snapshots after which a keyframe is appended.
+	 */
+	public HistoryDao(final @NotNull Database database, final @NotNull PlayerDao players, final int keyframeInterval) {
+		this.database = database;
+		this.players = players;
+		this.keyframeInterval = Math.max(1, keyframeInterval);
+	}
+
+	/**
+	 * Appends a snapshot for every write, which must already have been accepted. Most snapshots only hold
+	 * the columns written, but every <tt>keyframeInterval</tt>th one holds all of the player's columns.
+	 *
+	 * @param conn   The connection to use.
+	 * @param writes The writes to record.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void record(final @NotNull Connection conn, final @NotNull List<PlayerStore.Write> writes) throws SQLException {
+		if (writes.isEmpty()) return;
+
+		final var now = new Timestamp(System.currentTimeMillis());
+
+		try (final var count = database.prepare(conn, COUNT);
+			 final var insert = database.prepare(conn, INSERT);
+			 final var setCount = database.prepare(conn, SET_COUNT)) {
+			for (final var write : writes) {
+				final var uuid = write.serial().uuid;
+				count.setString(1, uuid.toString());
+
+				final Integer deltas;
+				try (final var row = count.executeQuery()) {
+					deltas = row.next() ? row.getObject(1, Integer.class) : null;
+				}
+
+				final var keyframe = deltas == null || deltas + 1 >= keyframeInterval;
+				final Map<String, Object> columns;
+
+				if (keyframe) {
+					// Written in the same transaction, so this reads what was just written
+					columns = players.read(conn, uuid);
+					if (columns == null) continue;
+				} else {
+					columns = new LinkedHashMap<>();
+					for (final var column : write.columns()) columns.put(column, write.serial().getColumn(column));
+				}
+
+				addSnapshot(insert, uuid, now, keyframe, ColumnCodec.encode(columns));
+				setCount.setInt(1, keyframe ? 0 : deltas + 1);
+				setCount.setString(2, uuid.toString());
+				setCount.addBatch();
+			}
+
+			insert.executeBatch();
+			setCount.executeBatch();
+		}
+	}
+
+	/**
+	 * Appends a keyframe to a player's history.
+	 *
+	 * @param conn    The connection to use.
+	 * @param uuid    The player.
+	 * @param columns The values of all of the player's columns, by name.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void appendKeyframe(final @NotNull Connection conn, final @NotNull UUID uuid, final @NotNull Map<String, Object> columns) throws SQLException {
+		try (final var insert = database.prepare(conn, INSERT)) {
+			addSnapshot(insert, uuid, new Timestamp(System.currentTimeMillis()), true, ColumnCodec.encode(columns));
+			insert.executeBatch();
+		}
+
+		try (final var setCount = database.prepare(conn, SET_COUNT)) {
+			setCount.setInt(1, 0);
+			setCount.setString(2, uuid.toString());
+			setCount.executeUpdate();
+		}
+	}
+
+	/**
+	 * Lists the most recent snapshots in a player's history.
+	 *
+	 * @param conn  The connection to use.
+	 * @param uuid  The player.
+	 * @param limit The maximum number of snapshots to list.
+	 * @return The snapshots, newest first.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public List<PlayerStore.Snapshot> list(final @NotNull Connection conn, final @NotNull UUID uuid, final int limit) throws SQLException {
+		final var snapshots = new ArrayList<PlayerStore.Snapshot>();
+		try (final var stmt = database.prepare(conn, LIST)) {
+			stmt.setString(1, uuid.toString());
+			stmt.setInt(2, limit);
+
+			try (final var rows = stmt.executeQuery()) {
+				while (rows.next()) {
+					snapshots.add(new PlayerStore.Snapshot(rows.getLong("id"), rows.getTimestamp("created").getTime(),
+							rows.getBoolean("keyframe"), rows.getInt("size")));
+				}
+			}
+		}
+
+		return snapshots;
+	}
+
+	/**
+	 * Reads the snapshots needed to restore a point in a player's history.
+	 *
+	 * @param conn The connection to use.
+	 * @param uuid The player.
+	 * @param id   The id of the snapshot to restore.
+	 * @return The snapshots from the last keyframe up to the given one, oldest first, or an empty list if the
+	 * player has no snapshot with that id.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public List<SnapshotHistory.Entry> chain(final @NotNull Connection conn, final @NotNull UUID uuid, final long id) throws SQLException {
+		final List<SnapshotHistory.Entry> entries;
+		try (final var stmt = database.prepare(conn, CHAIN)) {
+			stmt.setString(1, uuid.toString());
+			stmt.setLong(2, id);
+			stmt.setString(3, uuid.toString());
+			stmt.setLong(4, id);
+			entries = readEntries(stmt.executeQuery());
+		}
+
+		if (entries.isEmpty() || entries.get(entries.size() - 1).id() != id) return List.of();
+		return entries;
+	}
+
+	/**
+	 * Finds the players who have snapshots which might have to be dropped.
+	 *
+	 * @param conn   The connection to use.
+	 * @param before The time in milliseconds before which snapshots may be dropped.
+	 * @return The players.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public List<UUID> findPrunable(final @NotNull Connection conn, final long before) throws SQLException {
+		final var uuids = new ArrayList<UUID>();
+		try (final var stmt = database.prepare(conn, CANDIDATES)) {
+			stmt.setTimestamp(1, new Timestamp(before));
+
+			try (final var rows = stmt.executeQuery()) {
+				while (rows.next()) uuids.add(UUID.fromString(rows.getString(1)));
+			}
+		}
+
+		return uuids;
+	}
+
+	/**
+	 * Drops the snapshots the retention policy no longer keeps from a player's history. Locks the player's
+	 * row first, so that no snapshot is appended while the history is being rewritten.
+	 *
+	 * @param conn   The connection to use.
+	 * @param uuid   The player.
+	 * @param policy The retention policy.
+	 * @param now    The current time in milliseconds.
+	 * @return The number of snapshots dropped.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public int prune(final @NotNull Connection conn, final @NotNull UUID uuid, final @NotNull RetentionPolicy policy, final long now) throws SQLException {
+		try (final var lock = database.prepare(conn, LOCK)) {
+			lock.setString(1, uuid.toString());
+			lock.executeQuery().close();
+		}
+
+		final List<SnapshotHistory.Entry> entries;
+		try (final var all = database.prepare(conn, ALL)) {
+			all.setString(1, uuid.toString());
+			entries = readEntries(all.executeQuery());
+		}
+
+		if (entries.isEmpty()) return 0;
+
+		final var pruning = SnapshotHistory.prune(entries, policy.select(entries, now));
+		if (pruning.isEmpty()) return 0;
+
+		try (final var delete = database.prepare(conn, DELETE); final var rewrite = database.prepare(conn, REWRITE)) {
+			for (final var id : pruning.deleted()) {
+				delete.setLong(1, id);
+				delete.addBatch();
+			}
+
+			for (final var entry : pruning.rewritten()) {
+				rewrite.setBoolean(1, entry.keyframe());
+				rewrite.setBytes(2, entry.data());
+				rewrite.setLong(3, entry.id());
+				rewrite.addBatch();
+			}
+
+			delete.executeBatch();
+			rewrite.executeBatch();
+		}
+
+		return pruning.deleted().size();
+	}
+
+	private static void addSnapshot(final @NotNull PreparedStatement insert, final @NotNull UUID uuid,
+									final @NotNull Timestamp created, final boolean keyframe, final byte @NotNull [] data) throws SQLException {
+		insert.setString(1, uuid.toString());
+		insert.setTimestamp(2, created);
+		insert.setBoolean(3, keyframe);
+		insert.setBytes(4, data);
+		insert.addBatch();
+	}
+
+	private static List<SnapshotHistory.Entry> readEntries(final @NotNull ResultSet rows) throws SQLException {
+		final var entries = new ArrayList<SnapshotHistory.Entry>();
+		try (rows) {
+			while (rows.next()) {
+				entries.add(new SnapshotHistory.Entry(rows.getLong("id"), rows.getTimestamp("created").getTime(),
+						rows.getBoolean("keyframe"), rows.getBytes("data")));
+			}
+		}
+
+		return entries;
+	}
+}
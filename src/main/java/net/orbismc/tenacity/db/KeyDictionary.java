@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Small, stable ids for keys which are stored as bitsets, like the recipes in recipe books (see
+ * {@link net.orbismc.tenacity.serial.RecipeCodec}) or the criteria of advancements (see
+ * {@link net.orbismc.tenacity.serial.AdvancementCodec}). The ids are kept in a table, so that all servers
+ * agree on them, and never change once assigned. Every server keeps a copy of the table in memory, which is
+ * extended whenever a key or id it doesn't know yet comes up. Lookups may be done from any thread.
+ *
+ * @param <K> The type of keys.
+ */
+public final class KeyDictionary<K> {
+	private final Database database;
+	private final String select;
+	private final String insert;
+	private final Function<String, @Nullable K> parser;
+	private final ConcurrentHashMap<K, Integer> ids = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, K> keys = new ConcurrentHashMap<>();
+	private int maxId = 0;
+
+	/**
+	 * @param database The database to prepare statements with.
+	 * @param table    The table holding the ids.
+	 * @param column   The column of the table holding the keys, as strings.
+	 * @param parser   A function turning a stored string back into a key or <tt>null</tt> if it is invalid.
+	 */
+	private KeyDictionary(final @NotNull Database database, final @NotNull String table, final @NotNull String column,
+						  final @NotNull Function<String, @Nullable K> parser) {
+		this.database = database;
+		this.select = "SELECT id, %s FROM %s WHERE id > ?".formatted(column, table);
+		this.insert = "INSERT IGNORE INTO %s (%s) VALUES (?)".formatted(table, column);
+		this.parser = parser;
+	}
+
+	/**
+	 * @param database The database to prepare statements with.
+	 * @return The dictionary of recipes, kept in the <tt>tenacity_recipes</tt> table.
+	 */
+	public static KeyDictionary<NamespacedKey> recipes(final @NotNull Database database) {
+		return new KeyDictionary<>(database, "tenacity_recipes", "recipe", NamespacedKey::fromString);
+	}
+
+	/**
+	 * @param database The database to prepare statements with.
+	 * @return The dictionary of advancement criteria, kept in the <tt>tenacity_criteria</tt> table.
+	 */
+	public static KeyDictionary<String> criteria(final @NotNull Database database) {
+		return new KeyDictionary<>(database, "tenacity_criteria", "criterion", Function.identity());
+	}
+
+	/**
+	 * Gets the id of a key.
+	 *
+	 * @param key The key to look up.
+	 * @return The id of the key or <tt>-1</tt> if it is not known yet.
+	 */
+	public int getId(final @NotNull K key) {
+		return ids.getOrDefault(key, -1);
+	}
+
+	/**
+	 * Gets the key with an id.
+	 *
+	 * @param id The id to look up.
+	 * @return The key or <tt>null</tt> if the id is not known yet.
+	 */
+	public @Nullable K getKey(final int id) {
+		return keys.get(id);
+	}
+
+	/**
+	 * @return A copy of all keys known so far, by id.
+	 */
+	public Map<Integer, K> getAll() {
+		return new HashMap<>(keys);
+	}
+
+	/**
+	 * Checks whether all the given keys have an id.
+	 *
+	 * @param keys The keys to check.
+	 * @return <tt>true</tt> if all keys are known and <tt>false</tt> if not.
+	 */
+	public boolean containsAll(final @NotNull Collection<K> keys) {
+		for (final var key : keys) if (!ids.containsKey(key)) return false;
+		return true;
+	}
+
+	/**
+	 * Loads all ids added to the database since the last time this was called. Ids are handed out in
+	 * order, but concurrent registrations may commit them out of order, so a refresh can miss some ids
+	 * below the highest one known. Use {@link #reload(Connection)} if an id is still missing afterwards.
+	 *
+	 * @param conn The connection to use.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public synchronized void refresh(final @NotNull Connection conn) throws SQLException {
+		load(conn, maxId);
+	}
+
+	/**
+	 * Loads all ids from the database again, including ones which {@link #refresh(Connection)} skipped.
+	 *
+	 * @param conn The connection to use.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public synchronized void reload(final @NotNull Connection conn) throws SQLException {
+		load(conn, 0);
+	}
+
+	private void load(final @NotNull Connection conn, final int after) throws SQLException {
+		try (final var stmt = database.prepare(conn, select)) {
+			stmt.setInt(1, after);
+
+			try (final var result = stmt.executeQuery()) {
+				while (result.next()) {
+					final var id = result.getInt(1);
+					final var key = parser.apply(result.getString(2));
+					if (key == null) continue;
+
+					ids.put(key, id);
+					keys.put(id, key);
+					maxId = Math.max(maxId, id);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives all the given keys which don't have an id yet one.
+	 *
+	 * @param conn The connection to use.
+	 * @param keys The keys to register.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void register(final @NotNull Connection conn, final @NotNull Collection<K> keys) throws SQLException {
+		final var missing = keys.stream().filter(key -> !ids.containsKey(key)).toList();
+		if (missing.isEmpty()) return;
+
+		// Another server may have added them in the meantime, which INSERT IGNORE skips
+		try (final var stmt = database.prepare(conn, insert)) {
+			for (final var key : missing) {
+				stmt.setString(1, key.toString());
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+		}
+
+		refresh(conn);
+	}
+}
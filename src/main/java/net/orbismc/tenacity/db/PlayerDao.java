@@ -0,0 +1,622 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.serial.AdvancementCodec;
+import net.orbismc.tenacity.serial.RecipeCodec;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Reads and writes rows of the <tt>players</tt> table. Every access to player data is guarded by the
+ * lease this server holds on it. Statements are prepared on every access, which the driver's statement
+ * cache makes cheap (see {@link Database#prepare(Connection, String)}).
+ * <p>
+ * Only the columns of sections enabled in the saving config are read. If split tables are enabled, large
+ * sections are stored in their own tables keyed by the player's UUID (see {@link Section#getSplitTable()}).
+ * These are only joined in if the section is enabled, so a server which only saves vitals never touches them.
+ * The lease and version always stay in the <tt>players</tt> table.
+ */
+public final class PlayerDao {
+	private static final String INSERT = "INSERT IGNORE INTO players (uuid, version, owner, lease_expires) VALUES (?, 1, ?, %s)";
+	private static final String CLAIM = "UPDATE players SET version=version+1, owner=?, lease_expires=%s WHERE uuid=? AND version=?";
+	private static final String CLAIM_CLAIMABLE = CLAIM + " AND (owner IS NULL OR owner=? OR lease_expires < %s)";
+	private static final String RELEASE = "UPDATE players SET version=version+1, owner=NULL, lease_expires=NULL WHERE uuid=? AND owner=? AND version=?";
+	private static final int RENEW_BATCH = 64;
+	private static final String RENEW = "UPDATE players SET version=version+1, lease_expires=%s WHERE owner=? AND uuid IN (%s)";
+	private static final String IMPORT = "INSERT INTO players (uuid, version%s) VALUES (?, 1%s) "
+			+ "ON DUPLICATE KEY UPDATE %sversion=version+1, owner=NULL, lease_expires=NULL, history_deltas=NULL";
+	private static final String RESTORE = "UPDATE players SET %sversion=version+1 WHERE uuid=? AND (owner IS NULL OR lease_expires < %s)";
+
+	private final Database database;
+	private final SqlDialect dialect;
+	private final KeyDictionary<NamespacedKey> recipes;
+	private final KeyDictionary<String> criteria;
+	private final TenacityConfig.TenacitySavingConfig saving;
+	private final boolean split;
+	private final String serverId;
+	private final int leaseDuration;
+	private final String select;
+	private final Map<String, List<String>> splitColumns = new LinkedHashMap<>();
+
+	/**
+	 * @param database      The database to prepare statements with.
+	 * @param dialect       The kind of database connected to.
+	 * @param recipes       The dictionary to decode recipe books with.
+	 * @param criteria      The dictionary to decode the progress of advancements with.
+	 * @param config        The config defining which sections are read and where they are stored.
+	 * @param serverId      The id this server uses to claim ownership of player data.
+	 */
+	public PlayerDao(final @NotNull Database database, final @NotNull SqlDialect dialect, final @NotNull KeyDictionary<NamespacedKey> recipes,
+					 final @NotNull KeyDictionary<String> criteria, final @NotNull TenacityConfig config, final @NotNull String serverId) {
+		this.database = database;
+		this.dialect = dialect;
+		this.recipes = recipes;
+		this.criteria = criteria;
+		this.saving = config.saving;
+		// Split tables are only supported for MariaDB, H2 databases are always created fresh
+		this.split = config.storage.splitTables && dialect == SqlDialect.MARIADB;
+		this.serverId = serverId;
+		this.leaseDuration = config.lease.duration;
+		this.select = buildSelect();
+
+		for (final var section : Section.values()) {
+			final var table = section.getSplitTable();
+			if (table != null) splitColumns.put(table, section.getColumns(saving));
+		}
+	}
+
+	/**
+	 * Builds the query reading a player's data. It selects only the columns of enabled sections and joins
+	 * in the tables of enabled split sections.
+	 *
+	 * @return The query.
+	 */
+	private String buildSelect() {
+		final var columns = new ArrayList<String>();
+		columns.add("players.uuid");
+		columns.add("players.version");
+
+		final var joins = new ArrayList<String>();
+		for (final var section : Section.enabled(saving)) {
+			final var table = section.getTable(split);
+			if (!table.equals("players")) joins.add(" LEFT JOIN %s ON %s.uuid=players.uuid".formatted(table, table));
+			for (final var column : section.getColumns(saving)) columns.add(table + "." + column);
+		}
+
+		columns.add("(players.owner IS NULL OR players.owner=? OR players.lease_expires < %s) AS claimable".formatted(dialect.getNow()));
+		return "SELECT %s FROM players%s WHERE players.uuid=?".formatted(String.join(", ", columns), String.join("", joins));
+	}
+
+	/**
+	 * Fetches a player's data and claims it for this server. The data can only be claimed if no other
+	 * server holds a valid lease on it. Claiming compares the version read with the stored one, so a
+	 * successful claim also proves that the data read is up-to-date.
+	 *
+	 * @param conn The connection to use.
+	 * @param uuid The player to claim.
+	 * @return The result of the claim.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public PlayerStore.Claim claim(final @NotNull Connection conn, final @NotNull UUID uuid) throws SQLException {
+		try (final var select = database.prepare(conn, this.select)) {
+			select.setString(1, serverId);
+			select.setString(2, uuid.toString());
+
+			try (final var row = select.executeQuery()) {
+				if (!row.next()) return insert(conn, uuid);
+
+				// Another server still holds a valid lease on the player's data
+				if (!row.getBoolean("claimable")) return PlayerStore.Claim.BUSY;
+
+				try (final var update = database.prepare(conn, CLAIM.formatted(dialect.getLeaseExpiry()))) {
+					update.setString(1, serverId);
+					update.setInt(2, leaseDuration);
+					update.setString(3, uuid.toString());
+					update.setLong(4, row.getLong("version"));
+					if (update.executeUpdate() == 0) return PlayerStore.Claim.BUSY;
+				}
+
+				final var serial = SerializedPlayer.fromDatabase(row, saving);
+				decodeRecipes(conn, serial);
+				decodeAdvancements(conn, serial);
+				return new PlayerStore.Claim(true, serial, row.getLong("version") + 1);
+			}
+		}
+	}
+
+	/**
+	 * Creates an empty row holding the lease on a player who joined for the first time.
+	 *
+	 * @param conn The connection to use.
+	 * @param uuid The player.
+	 * @return The result of the claim.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	private PlayerStore.Claim insert(final @NotNull Connection conn, final @NotNull UUID uuid) throws SQLException {
+		try (final var insert = database.prepare(conn, INSERT.formatted(dialect.getLeaseExpiry()))) {
+			insert.setString(1, uuid.toString());
+			insert.setString(2, serverId);
+			insert.setInt(3, leaseDuration);
+			return insert.executeUpdate() == 1 ? new PlayerStore.Claim(true, null, 1) : PlayerStore.Claim.BUSY;
+		}
+	}
+
+	/**
+	 * Reads a player's data without claiming it, for example from a replica, so that it can be claimed on
+	 * the primary with {@link #claimFetched(Connection, Fetched)} afterwards.
+	 *
+	 * @param source The database the connection belongs to.
+	 * @param conn   The connection to read with.
+	 * @param uuid   The player to read.
+	 * @return The player's data or <tt>null</tt> if nothing is stored yet or another server seems to hold a
+	 * valid lease on it.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public @Nullable Fetched fetch(final @NotNull Database source, final @NotNull Connection conn, final @NotNull UUID uuid) throws SQLException {
+		try (final var select = source.prepare(conn, this.select)) {
+			select.setString(1, serverId);
+			select.setString(2, uuid.toString());
+
+			try (final var row = select.executeQuery()) {
+				if (!row.next() || !row.getBoolean("claimable")) return null;
+				return new Fetched(SerializedPlayer.fromDatabase(row, saving), row.getLong("version"));
+			}
+		}
+	}
+
+	/**
+	 * Claims a player's data read by {@link #fetch(Database, Connection, UUID)}. The claim only succeeds if
+	 * the stored version still matches the one read, which proves that the data read is up-to-date, and
+	 * if no other server holds a valid lease on it.
+	 *
+	 * @param conn    The connection to the primary database.
+	 * @param fetched The data read.
+	 * @return The result of the claim or <tt>null</tt> if the data read is outdated or another server holds
+	 * the lease, in which case it has to be claimed with {@link #claim(Connection, UUID)} instead.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public @Nullable PlayerStore.Claim claimFetched(final @NotNull Connection conn, final @NotNull Fetched fetched) throws SQLException {
+		try (final var update = database.prepare(conn, CLAIM_CLAIMABLE.formatted(dialect.getLeaseExpiry(), dialect.getNow()))) {
+			update.setString(1, serverId);
+			update.setInt(2, leaseDuration);
+			update.setString(3, fetched.serial.uuid.toString());
+			update.setLong(4, fetched.version);
+			update.setString(5, serverId);
+			if (update.executeUpdate() == 0) return null;
+		}
+
+		decodeRecipes(conn, fetched.serial);
+		decodeAdvancements(conn, fetched.serial);
+		return new PlayerStore.Claim(true, fetched.serial, fetched.version + 1);
+	}
+
+	/**
+	 * Decodes a player's recipe book, unless it is stored in the legacy format. If the recipe book refers to
+	 * ids this server doesn't know even after reloading the dictionary, it is left undecoded, which makes
+	 * the load fail (see {@link net.orbismc.tenacity.serial.ApplyPlan}) instead of the recipe book being lost.
+	 *
+	 * @param conn   The connection to refresh the recipe dictionary with.
+	 * @param serial The player.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	private void decodeRecipes(final @NotNull Connection conn, final @NotNull SerializedPlayer serial) throws SQLException {
+		if (serial.recipeBook == null || RecipeCodec.isLegacy(serial.recipeBook)) return;
+		serial.recipes = RecipeCodec.decode(serial.recipeBook, recipes::getKey);
+
+		// Another server has given ids to recipes we haven't seen yet, possibly below the highest one we know
+		if (serial.recipes == null) {
+			recipes.reload(conn);
+			serial.recipes = RecipeCodec.decode(serial.recipeBook, recipes::getKey);
+		}
+	}
+
+	/**
+	 * Decodes the progress of a player's advancements, unless it is stored as JSON. Like the recipe book,
+	 * progress referring to criteria this server doesn't know even after reloading the dictionary is left
+	 * undecoded, which makes the load fail.
+	 *
+	 * @param conn   The connection to refresh the criteria dictionary with.
+	 * @param serial The player.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	private void decodeAdvancements(final @NotNull Connection conn, final @NotNull SerializedPlayer serial) throws SQLException {
+		if (serial.advancements == null || AdvancementCodec.isJson(serial.advancements)) return;
+		serial.awardedCriteria = AdvancementCodec.decode(serial.advancements, criteria::getKey);
+
+		// Another server has given ids to criteria we haven't seen yet, possibly below the highest one we know
+		if (serial.awardedCriteria == null) {
+			criteria.reload(conn);
+			serial.awardedCriteria = AdvancementCodec.decode(serial.advancements, criteria::getKey);
+		}
+	}
+
+	/**
+	 * Hands the lease on a player's data back without writing anything. The lease is only released if
+	 * nothing was written since it was claimed, so that releasing an old claim never drops a newer one.
+	 *
+	 * @param conn    The connection to use.
+	 * @param uuid    The player to release.
+	 * @param version The version of the player's data returned by {@link #claim(Connection, UUID)}.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void release(final @NotNull Connection conn, final @NotNull UUID uuid, final long version) throws SQLException {
+		try (final var stmt = database.prepare(conn, RELEASE)) {
+			stmt.setString(1, uuid.toString());
+			stmt.setString(2, serverId);
+			stmt.setLong(3, version);
+			stmt.executeUpdate();
+		}
+	}
+
+	/**
+	 * Extends the leases this server holds on the given players' data. The players are renewed in chunks
+	 * of a fixed size, so that a single statement is prepared for all of them.
+	 *
+	 * @param conn  The connection to use.
+	 * @param uuids The players whose leases to extend.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void renewLeases(final @NotNull Connection conn, final @NotNull Collection<UUID> uuids) throws SQLException {
+		final var players = List.copyOf(uuids);
+
+		try (final var stmt = database.prepare(conn, RENEW.formatted(dialect.getLeaseExpiry(), String.join(", ", Collections.nCopies(RENEW_BATCH, "?"))))) {
+			for (int i = 0; i < players.size(); i += RENEW_BATCH) {
+				stmt.setInt(1, leaseDuration);
+				stmt.setString(2, serverId);
+
+				// The last chunk is padded with its last player, listing a player twice does no harm
+				for (int j = 0; j < RENEW_BATCH; j++) {
+					stmt.setString(3 + j, players.get(Math.min(i + j, players.size() - 1)).toString());
+				}
+
+				stmt.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Writes a batch of players to the database. Only the columns given with each write are written, all
+	 * other columns remain untouched. If another server has taken over a player in the meantime, their
+	 * write is rejected. If split tables are enabled, the batch is written in a single transaction, so
+	 * that a player's sections are never written without the lease being checked and updated. If the
+	 * connection is already part of a transaction, the batch is written as part of it instead.
+	 *
+	 * @param conn   The connection to use.
+	 * @param writes The players to write.
+	 * @return The players whose write was rejected.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public List<UUID> update(final @NotNull Connection conn, final @NotNull List<PlayerStore.Write> writes) throws SQLException {
+		// Players with the same set of columns can share a statement
+		final var groups = new LinkedHashMap<List<String>, List<PlayerStore.Write>>();
+		for (final var write : writes) groups.computeIfAbsent(write.columns(), k -> new ArrayList<>()).add(write);
+
+		if (!split || !conn.getAutoCommit()) {
+			final var rejected = new ArrayList<UUID>();
+			for (final var group : groups.entrySet()) rejected.addAll(update(conn, group.getKey(), group.getValue()));
+			return rejected;
+		}
+
+		final var autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+
+		try {
+			final var rejected = new ArrayList<UUID>();
+			for (final var group : groups.entrySet()) rejected.addAll(update(conn, group.getKey(), group.getValue()));
+			conn.commit();
+			return rejected;
+		} catch (final SQLException | RuntimeException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	private List<UUID> update(final @NotNull Connection conn,
+							  final @NotNull List<String> columns,
+							  final @NotNull List<PlayerStore.Write> writes) throws SQLException {
+		// Sort the columns into the tables they are stored in
+		final var tables = new LinkedHashMap<String, List<String>>();
+		for (final var column : columns) tables.computeIfAbsent(getTable(column), k -> new ArrayList<>()).add(column);
+
+		final var own = tables.getOrDefault("players", List.of());
+		final var assignments = new ArrayList<String>();
+		for (final var column : own) assignments.add(column + "=?");
+		assignments.add("version=version+1");
+		assignments.add("owner=?");
+		assignments.add("lease_expires=" + dialect.getLeaseExpiry());
+
+		final var rejected = new ArrayList<UUID>();
+		try (final var stmt = database.prepare(conn, "UPDATE players SET %s WHERE uuid=? AND owner=?".formatted(String.join(", ", assignments)))) {
+			for (final var write : writes) {
+				int i = 1;
+				for (final var column : own) stmt.setObject(i++, write.serial().getColumn(column));
+				stmt.setString(i++, write.release() ? null : serverId);
+				stmt.setInt(i++, write.release() ? 0 : leaseDuration);
+				stmt.setString(i++, write.serial().uuid.toString());
+				stmt.setString(i, serverId);
+				stmt.addBatch();
+			}
+
+			final var counts = stmt.executeBatch();
+			for (int i = 0; i < counts.length; i++) {
+				if (counts[i] == 0) rejected.add(writes.get(i).serial().uuid);
+			}
+		}
+
+		// Split sections are only written for players whose lease was just confirmed
+		final var rejectedSet = new HashSet<>(rejected);
+		for (final var table : tables.entrySet()) {
+			if (table.getKey().equals("players")) continue;
+			upsert(conn, table.getKey(), table.getValue(), writes.stream().filter(w -> !rejectedSet.contains(w.serial().uuid)).toList());
+		}
+
+		return rejected;
+	}
+
+	private void upsert(final @NotNull Connection conn,
+						final @NotNull String table,
+						final @NotNull List<String> columns,
+						final @NotNull List<PlayerStore.Write> writes) throws SQLException {
+		if (writes.isEmpty()) return;
+
+		final var placeholders = new ArrayList<String>();
+		final var assignments = new ArrayList<String>();
+		for (final var column : columns) {
+			placeholders.add("?");
+			assignments.add("%s=VALUES(%s)".formatted(column, column));
+		}
+
+		try (final var stmt = database.prepare(conn, "INSERT INTO %s (uuid, %s) VALUES (?, %s) ON DUPLICATE KEY UPDATE %s".formatted(
+				table, String.join(", ", columns), String.join(", ", placeholders), String.join(", ", assignments)))) {
+			for (final var write : writes) {
+				int i = 1;
+				stmt.setString(i++, write.serial().uuid.toString());
+				for (final var column : columns) stmt.setObject(i++, write.serial().getColumn(column));
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+		}
+	}
+
+	/**
+	 * Reads the columns of all enabled sections of a player, without claiming them.
+	 *
+	 * @param conn The connection to use.
+	 * @param uuid The player to read.
+	 * @return The values of the columns by name or <tt>null</tt> if nothing is stored for the player.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public @Nullable Map<String, Object> read(final @NotNull Connection conn, final @NotNull UUID uuid) throws SQLException {
+		try (final var select = database.prepare(conn, this.select)) {
+			select.setString(1, serverId);
+			select.setString(2, uuid.toString());
+
+			try (final var row = select.executeQuery()) {
+				if (!row.next()) return null;
+
+				final var serial = SerializedPlayer.fromDatabase(row, saving);
+				final var columns = new LinkedHashMap<String, Object>();
+				for (final var section : serial.sections) {
+					for (final var column : section.getColumns(saving)) columns.put(column, serial.getColumn(column));
+				}
+
+				return columns;
+			}
+		}
+	}
+
+	/**
+	 * Replaces a player's data, for example with an earlier snapshot. Unlike {@link #update(Connection, List)},
+	 * this requires that no server holds a valid lease on the data.
+	 *
+	 * @param conn    The connection to use.
+	 * @param uuid    The player whose data to replace.
+	 * @param columns The values of the columns to write, by name.
+	 * @return <tt>true</tt> if the data was replaced and <tt>false</tt> if a server holds the lease on it.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public boolean restore(final @NotNull Connection conn, final @NotNull UUID uuid, final @NotNull Map<String, Object> columns) throws SQLException {
+		final var serial = new SerializedPlayer(uuid);
+		final var tables = new LinkedHashMap<String, List<String>>();
+		for (final var column : columns.entrySet()) {
+			serial.setColumn(column.getKey(), column.getValue());
+			tables.computeIfAbsent(getTable(column.getKey()), k -> new ArrayList<>()).add(column.getKey());
+		}
+
+		final var own = tables.getOrDefault("players", List.of());
+		final var assignments = new StringBuilder();
+		for (final var column : own) assignments.append(column).append("=?, ");
+
+		try (final var stmt = database.prepare(conn, RESTORE.formatted(assignments, dialect.getNow()))) {
+			int i = 1;
+			for (final var column : own) stmt.setObject(i++, serial.getColumn(column));
+			stmt.setString(i, uuid.toString());
+			if (stmt.executeUpdate() == 0) return false;
+		}
+
+		final var write = List.of(new PlayerStore.Write(serial, List.copyOf(columns.keySet()), true));
+		for (final var table : tables.entrySet()) {
+			if (!table.getKey().equals("players")) upsert(conn, table.getKey(), table.getValue(), write);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Reads the data of all players, with all sections regardless of which are saved. Rows are streamed
+	 * from the database instead of being read all at once, so this works for any number of players.
+	 *
+	 * @param conn      The connection to use. It can't be used for anything else until this returns.
+	 * @param fetchSize The number of rows to fetch from the database at a time.
+	 * @param consumer  The consumer to pass every player to.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void export(final @NotNull Connection conn, final int fetchSize, final @NotNull Consumer<SerializedPlayer> consumer) throws SQLException {
+		final var columns = new ArrayList<String>();
+		columns.add("players.uuid");
+
+		final var joins = new ArrayList<String>();
+		for (final var section : Section.values()) {
+			final var table = section.getTable(split);
+			if (!table.equals("players")) joins.add(" LEFT JOIN %s ON %s.uuid=players.uuid".formatted(table, table));
+			for (final var column : section.getAllColumns()) columns.add(table + "." + column);
+		}
+
+		// Prepared with the driver directly, since the query timeout doesn't suit a streaming statement
+		final var sql = "SELECT %s FROM players%s".formatted(String.join(", ", columns), String.join("", joins));
+		try (final var stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			stmt.setFetchSize(fetchSize);
+
+			try (final var rows = stmt.executeQuery()) {
+				while (rows.next()) consumer.accept(SerializedPlayer.fromDatabase(rows));
+			}
+		}
+	}
+
+	/**
+	 * Writes players read by {@link #export(Connection, int, Consumer)}, replacing the data of players who
+	 * are already stored. Leases are not checked, so this must only be done while no server is using the
+	 * database. Imported players start a new history with their next save.
+	 *
+	 * @param conn    The connection to use.
+	 * @param players The players to write. All sections they have are written.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public void importPlayers(final @NotNull Connection conn, final @NotNull List<SerializedPlayer> players) throws SQLException {
+		final var groups = new LinkedHashMap<List<String>, List<PlayerStore.Write>>();
+		for (final var serial : players) {
+			final var columns = new ArrayList<String>();
+			for (final var section : serial.sections) columns.addAll(section.getAllColumns());
+			groups.computeIfAbsent(columns, k -> new ArrayList<>()).add(new PlayerStore.Write(serial, columns, true));
+		}
+
+		for (final var group : groups.entrySet()) {
+			final var tables = new LinkedHashMap<String, List<String>>();
+			tables.put("players", new ArrayList<>());
+			for (final var column : group.getKey()) tables.computeIfAbsent(getTable(column), k -> new ArrayList<>()).add(column);
+
+			final var own = tables.get("players");
+			final var names = new StringBuilder();
+			final var placeholders = new StringBuilder();
+			final var assignments = new StringBuilder();
+			for (final var column : own) {
+				names.append(", ").append(column);
+				placeholders.append(", ?");
+				assignments.append("%s=VALUES(%s), ".formatted(column, column));
+			}
+
+			try (final var stmt = database.prepare(conn, IMPORT.formatted(names, placeholders, assignments))) {
+				for (final var write : group.getValue()) {
+					int i = 1;
+					stmt.setString(i++, write.serial().uuid.toString());
+					for (final var column : own) stmt.setObject(i++, write.serial().getColumn(column));
+					stmt.addBatch();
+				}
+
+				stmt.executeBatch();
+			}
+
+			for (final var table : tables.entrySet()) {
+				if (!table.getKey().equals("players")) upsert(conn, table.getKey(), table.getValue(), group.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Moves the data of large sections into or out of their own tables, depending on whether split tables
+	 * are enabled. Does nothing if the data is already where it belongs. All servers sharing the database
+	 * must use the same setting, and it must only be changed while all of them are stopped.
+	 *
+	 * @param conn The connection to use.
+	 * @return The number of rows moved.
+	 * @throws SQLException If accessing the database fails.
+	 */
+	public int moveSplitSections(final @NotNull Connection conn) throws SQLException {
+		final var autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+
+		try (final var stmt = conn.createStatement()) {
+			int moved = 0;
+
+			for (final var table : splitColumns.entrySet()) {
+				final var columns = table.getValue();
+				final var copied = new ArrayList<String>();
+				final var cleared = new ArrayList<String>();
+				final var present = new ArrayList<String>();
+
+				for (final var column : columns) {
+					copied.add(split ? "%s=VALUES(%s)".formatted(column, column) : "players.%s=%s.%s".formatted(column, table.getKey(), column));
+					cleared.add(column + "=NULL");
+					present.add(column + " IS NOT NULL");
+				}
+
+				if (split) {
+					moved += stmt.executeUpdate("INSERT INTO %s (uuid, %s) SELECT uuid, %s FROM players WHERE %s ON DUPLICATE KEY UPDATE %s".formatted(
+							table.getKey(), String.join(", ", columns), String.join(", ", columns), String.join(" OR ", present), String.join(", ", copied)));
+					stmt.executeUpdate("UPDATE players SET %s WHERE %s".formatted(String.join(", ", cleared), String.join(" OR ", present)));
+				} else {
+					moved += stmt.executeUpdate("UPDATE players JOIN %s ON %s.uuid=players.uuid SET %s".formatted(
+							table.getKey(), table.getKey(), String.join(", ", copied)));
+					stmt.executeUpdate("DELETE FROM %s".formatted(table.getKey()));
+				}
+			}
+
+			conn.commit();
+			return moved;
+		} catch (final SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Gets the table a column is stored in.
+	 *
+	 * @param column The name of the column.
+	 * @return The name of the table.
+	 */
+	private String getTable(final @NotNull String column) {
+		if (!split) return "players";
+
+		for (final var table : splitColumns.entrySet()) {
+			if (table.getValue().contains(column)) return table.getKey();
+		}
+
+		return "players";
+	}
+
+	/**
+	 * A player's data read without claiming it.
+	 *
+	 * @param serial  The player's data.
+	 * @param version The version of the data read.
+	 */
+	public record Fetched(@NotNull SerializedPlayer serial, long version) {
+	}
+}
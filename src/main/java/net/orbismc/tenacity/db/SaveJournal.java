@@ -0,0 +1,442 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.store.PlayerStore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of saves which have not been written to the database yet. Every save is
+ * recorded here before it is written, so that saves survive the database being unreachable or the
+ * server crashing. Once the database is reachable again, the saves are written in the order they were
+ * recorded.
+ * <p>
+ * The journal is split into memory-mapped segment files. Every entry has the following layout:
+ *
+ * <pre>
+ *   u32    magic
+ *   u8     status (0: pending, 1: written, 2: replaced by a newer entry)
+ *   u32    length of the payload
+ *   u32    CRC32 of the payload
+ *   u8[]   the payload
+ * </pre>
+ * <p>
+ * Only one entry per player is pending at any time: a newer save of the same player absorbs the columns
+ * of the pending one, which is then marked as replaced. A segment without any pending entries is deleted,
+ * or reused if it is the segment currently written to. Entries with a bad checksum mark the end of a
+ * segment, which happens if the server crashed while writing them.
+ */
+public final class SaveJournal implements AutoCloseable {
+	private static final int MAGIC = 0x544A524E;
+	private static final int HEADER_SIZE = 13;
+	private static final byte PENDING = 0;
+	private static final byte WRITTEN = 1;
+	private static final byte REPLACED = 2;
+
+	private static final byte TYPE_NULL = 0;
+	private static final byte TYPE_INTEGER = 1;
+	private static final byte TYPE_DOUBLE = 2;
+	private static final byte TYPE_BOOLEAN = 3;
+	private static final byte TYPE_STRING = 4;
+	private static final byte TYPE_BYTES = 5;
+
+	private final Path directory;
+	private final int segmentSize;
+	private final Logger logger;
+	private final ArrayList<Segment> segments = new ArrayList<>();
+	private final TreeMap<Long, Entry> pending = new TreeMap<>();
+	private final HashMap<UUID, Entry> latest = new HashMap<>();
+	private final Set<Segment> dirty = new LinkedHashSet<>();
+	private Segment active;
+	private long nextSequence = 1;
+	private long nextSegment = 1;
+
+	/**
+	 * Opens the journal in the given directory. Saves left over from a previous run are recovered.
+	 *
+	 * @param directory   The directory to keep the segment files in.
+	 * @param segmentSize The size of a segment file in bytes.
+	 * @param logger      The logger to report recovered and damaged entries to.
+	 * @throws IOException If the journal could not be opened.
+	 */
+	public SaveJournal(final @NotNull Path directory, final int segmentSize, final @NotNull Logger logger) throws IOException {
+		this.directory = directory;
+		this.segmentSize = Math.max(HEADER_SIZE * 16, segmentSize);
+		this.logger = logger;
+
+		Files.createDirectories(directory);
+		recover();
+		this.active = createSegment(this.segmentSize);
+	}
+
+	/**
+	 * Records a save in the journal. If a save of the same player is still pending, its columns are
+	 * carried over to the new one, unless the new one writes them as well.
+	 *
+	 * @param write The save to record.
+	 * @return The entry recorded.
+	 * @throws IOException If the save could not be recorded.
+	 */
+	public synchronized Entry append(final @NotNull PlayerStore.Write write) throws IOException {
+		final var previous = latest.get(write.serial().uuid);
+		var merged = write;
+
+		if (previous != null) {
+			final var columns = new ArrayList<>(write.columns());
+			for (final var column : previous.write.columns()) {
+				if (columns.contains(column)) continue;
+				write.serial().setColumn(column, previous.write.serial().getColumn(column));
+				columns.add(column);
+			}
+
+			write.serial().sections.addAll(previous.write.serial().sections);
+			merged = new PlayerStore.Write(write.serial(), List.copyOf(columns), write.release());
+		}
+
+		final var sequence = nextSequence++;
+		final var payload = encode(sequence, merged);
+		final var size = HEADER_SIZE + payload.length;
+
+		if (active.position + size > active.buffer.capacity()) {
+			active = createSegment(Math.max(segmentSize, size));
+		}
+
+		final var crc = new CRC32();
+		crc.update(payload);
+
+		final var offset = active.position;
+		active.buffer.position(offset);
+		active.buffer.putInt(MAGIC);
+		active.buffer.put(PENDING);
+		active.buffer.putInt(payload.length);
+		active.buffer.putInt((int) crc.getValue());
+		active.buffer.put(payload);
+		active.position += size;
+		dirty.add(active);
+
+		final var entry = new Entry(sequence, active, offset, merged);
+		active.entries++;
+		active.live++;
+		pending.put(sequence, entry);
+		latest.put(merged.serial().uuid, entry);
+
+		if (previous != null) setStatus(previous, REPLACED);
+		return entry;
+	}
+
+	/**
+	 * Marks an entry as written to the database.
+	 *
+	 * @param entry The entry to mark.
+	 */
+	public synchronized void markWritten(final @NotNull Entry entry) {
+		setStatus(entry, WRITTEN);
+	}
+
+	/**
+	 * Flushes all entries recorded or marked since the last call to disk. Entries may have been recorded
+	 * in several segments in the meantime and older segments change when their entries are marked.
+	 */
+	public synchronized void sync() {
+		for (final var segment : dirty) segment.buffer.force();
+		dirty.clear();
+	}
+
+	/**
+	 * @return All pending entries in the order they were recorded.
+	 */
+	public synchronized List<Entry> getPending() {
+		return new ArrayList<>(pending.values());
+	}
+
+	/**
+	 * @return The players with a pending entry.
+	 */
+	public synchronized Set<UUID> getPendingPlayers() {
+		return new HashSet<>(latest.keySet());
+	}
+
+	/**
+	 * @return The number of pending entries.
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Moves the pending entries of old segments which are mostly unused into the current segment, so that
+	 * the old segments can be deleted.
+	 *
+	 * @throws IOException If an entry could not be moved.
+	 */
+	public synchronized void compact() throws IOException {
+		for (final var segment : List.copyOf(segments)) {
+			if (segment == active || segment.live == 0 || segment.live * 4 > segment.entries) continue;
+
+			for (final var entry : List.copyOf(pending.values())) {
+				if (entry.segment == segment) append(entry.write);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		for (final var segment : segments) {
+			segment.buffer.force();
+
+			try {
+				segment.channel.close();
+			} catch (final IOException e) {
+				logger.warning("Failed to close journal segment %s: %s".formatted(segment.path, e));
+			}
+		}
+
+		segments.clear();
+		dirty.clear();
+	}
+
+	private void setStatus(final Entry entry, final byte status) {
+		if (pending.remove(entry.sequence) == null) return;
+		latest.remove(entry.write.serial().uuid, entry);
+		entry.segment.buffer.put(entry.offset + 4, status);
+		dirty.add(entry.segment);
+
+		final var segment = entry.segment;
+		if (--segment.live > 0) return;
+
+		if (segment == active) {
+			// Nothing left to replay, start over at the beginning of the segment
+			active.position = 0;
+			active.entries = 0;
+			return;
+		}
+
+		deleteSegment(segment);
+	}
+
+	private Segment createSegment(final int size) throws IOException {
+		final var path = directory.resolve("%016d.seg".formatted(nextSegment++));
+		final var channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final var segment = new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+		segments.add(segment);
+		return segment;
+	}
+
+	private void deleteSegment(final Segment segment) {
+		segments.remove(segment);
+		dirty.remove(segment);
+
+		try {
+			segment.channel.close();
+			Files.deleteIfExists(segment.path);
+		} catch (final IOException e) {
+			logger.warning("Failed to delete journal segment %s: %s".formatted(segment.path, e));
+		}
+	}
+
+	/**
+	 * Reads all segments left over from a previous run and collects the entries still pending.
+	 */
+	private void recover() throws IOException {
+		final var paths = new ArrayList<Path>();
+		try (final var files = Files.list(directory)) {
+			files.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().forEach(paths::add);
+		}
+
+		for (final var path : paths) {
+			final var name = path.getFileName().toString();
+			nextSegment = Math.max(nextSegment, Long.parseLong(name.substring(0, name.length() - 4)) + 1);
+
+			final var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			final var segment = new Segment(path, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+			segments.add(segment);
+
+			final var buffer = segment.buffer;
+			while (segment.position + HEADER_SIZE <= buffer.capacity()) {
+				final var offset = segment.position;
+				if (buffer.getInt(offset) != MAGIC) break;
+
+				final var status = buffer.get(offset + 4);
+				final var length = buffer.getInt(offset + 5);
+				final var checksum = buffer.getInt(offset + 9);
+				if (length < 0 || offset + HEADER_SIZE + length > buffer.capacity()) break;
+
+				final var payload = new byte[length];
+				buffer.get(offset + HEADER_SIZE, payload);
+
+				final var crc = new CRC32();
+				crc.update(payload);
+				if ((int) crc.getValue() != checksum) {
+					logger.warning("Journal segment %s is damaged at offset %d, ignoring the rest of it".formatted(path, offset));
+					break;
+				}
+
+				segment.position += HEADER_SIZE + length;
+				segment.entries++;
+				if (status != PENDING) continue;
+
+				final Entry entry;
+				try {
+					entry = decode(payload, segment, offset);
+				} catch (final IOException | RuntimeException e) {
+					logger.warning("Could not read journal entry in %s at offset %d: %s".formatted(path, offset, e));
+					continue;
+				}
+
+				nextSequence = Math.max(nextSequence, entry.sequence + 1);
+				segment.live++;
+				pending.put(entry.sequence, entry);
+			}
+		}
+
+		// A newer entry already contains everything an older one of the same player does
+		for (final var entry : List.copyOf(pending.values())) {
+			final var previous = latest.put(entry.write.serial().uuid, entry);
+			if (previous != null) setStatus(previous, REPLACED);
+		}
+
+		for (final var segment : List.copyOf(segments)) {
+			if (segment.live == 0) deleteSegment(segment);
+		}
+
+		if (!pending.isEmpty()) {
+			logger.info("Recovered %d saves from the journal which have not been written to the database yet".formatted(pending.size()));
+		}
+	}
+
+	private static byte[] encode(final long sequence, final PlayerStore.Write write) throws IOException {
+		final var bytes = new ByteArrayOutputStream();
+
+		try (final var out = new DataOutputStream(bytes)) {
+			final var serial = write.serial();
+			out.writeLong(sequence);
+			out.writeLong(serial.uuid.getMostSignificantBits());
+			out.writeLong(serial.uuid.getLeastSignificantBits());
+			out.writeBoolean(write.release());
+
+			int sections = 0;
+			for (final var section : serial.sections) sections |= 1 << section.ordinal();
+			out.writeInt(sections);
+
+			out.writeShort(write.columns().size());
+			for (final var column : write.columns()) {
+				out.writeUTF(column);
+
+				final var value = serial.getColumn(column);
+				if (value == null) {
+					out.writeByte(TYPE_NULL);
+				} else if (value instanceof final Integer i) {
+					out.writeByte(TYPE_INTEGER);
+					out.writeInt(i);
+				} else if (value instanceof final Double d) {
+					out.writeByte(TYPE_DOUBLE);
+					out.writeDouble(d);
+				} else if (value instanceof final Boolean b) {
+					out.writeByte(TYPE_BOOLEAN);
+					out.writeBoolean(b);
+				} else if (value instanceof final String s) {
+					final var data = s.getBytes(StandardCharsets.UTF_8);
+					out.writeByte(TYPE_STRING);
+					out.writeInt(data.length);
+					out.write(data);
+				} else if (value instanceof final byte[] data) {
+					out.writeByte(TYPE_BYTES);
+					out.writeInt(data.length);
+					out.write(data);
+				} else {
+					throw new IOException("Cannot store a value of type %s in the journal".formatted(value.getClass()));
+				}
+			}
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static Entry decode(final byte[] payload, final Segment segment, final int offset) throws IOException {
+		try (final var in = new DataInputStream(new ByteArrayInputStream(payload))) {
+			final var sequence = in.readLong();
+			final var serial = new SerializedPlayer(new UUID(in.readLong(), in.readLong()));
+			final var release = in.readBoolean();
+
+			final var sections = in.readInt();
+			for (final var section : Section.values()) {
+				if ((sections & 1 << section.ordinal()) != 0) serial.sections.add(section);
+			}
+
+			final var count = in.readUnsignedShort();
+			final var columns = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				final var column = in.readUTF();
+				final var type = in.readByte();
+
+				serial.setColumn(column, switch (type) {
+					case TYPE_NULL -> null;
+					case TYPE_INTEGER -> in.readInt();
+					case TYPE_DOUBLE -> in.readDouble();
+					case TYPE_BOOLEAN -> in.readBoolean();
+					case TYPE_STRING -> new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+					case TYPE_BYTES -> in.readNBytes(in.readInt());
+					default -> throw new IOException("Unknown value type %d".formatted(type));
+				});
+
+				columns.add(column);
+			}
+
+			return new Entry(sequence, segment, offset, new PlayerStore.Write(serial, List.copyOf(columns), release));
+		}
+	}
+
+	/**
+	 * A save recorded in the journal.
+	 */
+	public static final class Entry {
+		private final long sequence;
+		private final Segment segment;
+		private final int offset;
+		private final PlayerStore.Write write;
+
+		private Entry(final long sequence, final Segment segment, final int offset, final PlayerStore.Write write) {
+			this.sequence = sequence;
+			this.segment = segment;
+			this.offset = offset;
+			this.write = write;
+		}
+
+		/**
+		 * @return The save to write to the database.
+		 */
+		public PlayerStore.Write write() {
+			return write;
+		}
+	}
+
+	private static final class Segment {
+		private final Path path;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		private int position = 0;
+		private int entries = 0;
+		private int live = 0;
+
+		private Segment(final Path path, final FileChannel channel, final MappedByteBuffer buffer) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+}
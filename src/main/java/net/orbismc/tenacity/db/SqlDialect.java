@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+/**
+ * The SQL databases player data can be stored in. Both understand the same statements, except for dealing
+ * with time and changing the schema.
+ */
+public enum SqlDialect {
+	MARIADB("NOW(3)", "NOW(3) + INTERVAL ? SECOND", "schema/%d.sql", 9),
+	H2("LOCALTIMESTAMP(3)", "DATEADD(SECOND, ?, LOCALTIMESTAMP(3))", "schema/h2/%d.sql", 4);
+
+	private final String now;
+	private final String expiry;
+	private final String schemaScript;
+	private final int schemaVersion;
+
+	SqlDialect(final String now, final String expiry, final String schemaScript, final int schemaVersion) {
+		this.now = now;
+		this.expiry = expiry;
+		this.schemaScript = schemaScript;
+		this.schemaVersion = schemaVersion;
+	}
+
+	/**
+	 * @return An expression for the current time of the database, in milliseconds.
+	 */
+	public String getNow() {
+		return now;
+	}
+
+	/**
+	 * @return An expression for the time a lease expires, with a parameter taking the lease duration in seconds.
+	 */
+	public String getLeaseExpiry() {
+		return expiry;
+	}
+
+	/**
+	 * @return The name of the resource holding the migration script for a version, with a placeholder for
+	 * the version.
+	 */
+	public String getSchemaScript() {
+		return schemaScript;
+	}
+
+	/**
+	 * @return The version of the schema this build of tenacity expects.
+	 */
+	public int getSchemaVersion() {
+		return schemaVersion;
+	}
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of non-negative values with a fixed relative precision, similar to an HDR histogram.
+ * Values are sorted into buckets which double in width every 32 buckets, so every value is
+ * known to within about 3% no matter how large it is. Recording a value is lock-free and does not
+ * allocate, so this may be used on hot paths and from any thread.
+ */
+public final class Histogram {
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(SUB_COUNT * (64 - SUB_BITS + 1));
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value. Negative values are recorded as zero.
+	 *
+	 * @param value The value to record.
+	 */
+	public void record(long value) {
+		if (value < 0) value = 0;
+
+		buckets.incrementAndGet(indexOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Records the time passed since the given point in time.
+	 *
+	 * @param start The point in time as returned by {@link System#nanoTime()}.
+	 */
+	public void recordSince(final long start) {
+		record(System.nanoTime() - start);
+	}
+
+	/**
+	 * @return The number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The sum of all values recorded.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return The largest value recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Gets the value below which the given share of all recorded values lie.
+	 *
+	 * @param quantile The share of values, between <tt>0</tt> and <tt>1</tt>.
+	 * @return The value at the given quantile or <tt>0</tt> if nothing was recorded.
+	 */
+	public long getQuantile(final double quantile) {
+		final var total = count.get();
+		if (total == 0) return 0;
+
+		final var rank = Math.max(1, (long) Math.ceil(quantile * total));
+		long seen = 0;
+
+		for (int i = 0; i < buckets.length(); i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) return Math.min(upperBoundOf(i), max.get());
+		}
+
+		return max.get();
+	}
+
+	private static int indexOf(final long value) {
+		if (value < SUB_COUNT) return (int) value;
+
+		final var shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		return SUB_COUNT * (shift + 1) + (int) (value >>> shift) - SUB_COUNT;
+	}
+
+	private static long upperBoundOf(final int index) {
+		if (index < SUB_COUNT) return index;
+
+		final var shift = index / SUB_COUNT - 1;
+		final var base = (long) (index % SUB_COUNT + SUB_COUNT) << shift;
+		return base + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Collects measurements of how long loading and saving players takes. All values are recorded since the
+ * plugin was enabled. Durations are recorded in nanoseconds and sizes in bytes.
+ */
+public final class TenacityMetrics {
+	private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+	/**
+	 * The time from a player joining until their data has been applied.
+	 */
+	public final Histogram joinToReady = new Histogram();
+
+	/**
+	 * The time spent running a single database action or query, including waiting for a connection.
+	 */
+	public final Histogram query = new Histogram();
+
+	/**
+	 * The time spent decoding a player's stored data off the server thread, so that it can be applied.
+	 */
+	public final Histogram decode = new Histogram();
+
+	/**
+	 * The time spent applying a player's data on the server thread.
+	 */
+	public final Histogram apply = new Histogram();
+
+	/**
+	 * The time a decoded player waits for the server thread to have time to apply their data.
+	 */
+	public final Histogram applyQueueWait = new Histogram();
+
+	/**
+	 * The time a save waits in the queue before it is written.
+	 */
+	public final Histogram saveQueueWait = new Histogram();
+
+	/**
+	 * The time from submitting a save to it being written.
+	 */
+	public final Histogram save = new Histogram();
+
+	/**
+	 * The number of times loading a player had to wait for another server to hand over their data.
+	 */
+	public final LongAdder handoffRetries = new LongAdder();
+
+	/**
+	 * The number of times another server announced that it handed over a player who was waiting to be loaded.
+	 */
+	public final LongAdder handoffWakeups = new LongAdder();
+
+	/**
+	 * The number of database actions and queries which were not run because the database kept failing.
+	 */
+	public final LongAdder storeRejected = new LongAdder();
+
+	/**
+	 * The number of players loaded.
+	 */
+	public final LongAdder loads = new LongAdder();
+
+	/**
+	 * The number of saves written.
+	 */
+	public final LongAdder saves = new LongAdder();
+
+	private final ConcurrentHashMap<String, Histogram> payload = new ConcurrentHashMap<>();
+	private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+	/**
+	 * Gets the histogram of the number of bytes written to a column.
+	 *
+	 * @param column The name of the column.
+	 * @return The histogram of the column.
+	 */
+	public Histogram payload(final @NotNull String column) {
+		return payload.computeIfAbsent(column, k -> new Histogram());
+	}
+
+	/**
+	 * Registers a value which is read whenever the metrics are exported.
+	 *
+	 * @param name  The name of the value, without the <tt>tenacity_</tt> prefix.
+	 * @param help  A description of the value.
+	 * @param value A function reading the current value.
+	 */
+	public void registerGauge(final @NotNull String name, final @NotNull String help, final @NotNull DoubleSupplier value) {
+		gauges.put(name, new Gauge(help, value));
+	}
+
+	/**
+	 * Summarizes all metrics in a few human-readable lines.
+	 *
+	 * @return The lines of the summary.
+	 */
+	public List<String> summarize() {
+		final var lines = new ArrayList<String>();
+		lines.add("Loads: %d, saves: %d, handoff retries: %d, handoff wakeups: %d, rejected queries: %d".formatted(
+				loads.sum(), saves.sum(), handoffRetries.sum(), handoffWakeups.sum(), storeRejected.sum()));
+		lines.add(summarizeDuration("Join to ready", joinToReady));
+		lines.add(summarizeDuration("Database query", query));
+		lines.add(summarizeDuration("Decode", decode));
+		lines.add(summarizeDuration("Apply (server thread)", apply));
+		lines.add(summarizeDuration("Apply queue wait", applyQueueWait));
+		lines.add(summarizeDuration("Save queue wait", saveQueueWait));
+		lines.add(summarizeDuration("Save", save));
+
+		for (final var column : new TreeMap<>(payload).entrySet()) {
+			final var histogram = column.getValue();
+			lines.add("Payload %s: avg %d B, p99 %d B, max %d B".formatted(
+					column.getKey(),
+					histogram.getCount() == 0 ? 0 : histogram.getSum() / histogram.getCount(),
+					histogram.getQuantile(0.99),
+					histogram.getMax()));
+		}
+
+		for (final var gauge : new TreeMap<>(gauges).entrySet()) {
+			lines.add("%s: %s".formatted(gauge.getKey(), format(gauge.getValue().value.getAsDouble())));
+		}
+
+		return lines;
+	}
+
+	/**
+	 * Writes all metrics in the Prometheus text format.
+	 *
+	 * @param out    The writer to write to.
+	 * @param server The id of this server, added as a label to every metric.
+	 * @throws IOException If writing fails.
+	 */
+	public void writePrometheus(final @NotNull Writer out, final @NotNull String server) throws IOException {
+		final var labels = "server=\"%s\"".formatted(escape(server));
+
+		writeCounter(out, "handoff_retries_total", "Times loading a player waited for another server to hand over their data.", labels, handoffRetries);
+		writeCounter(out, "handoff_wakeups_total", "Times another server announced that it handed over a player waiting to be loaded.", labels, handoffWakeups);
+		writeCounter(out, "store_rejected_total", "Database actions not run because the database kept failing.", labels, storeRejected);
+		writeCounter(out, "loads_total", "Players loaded.", labels, loads);
+		writeCounter(out, "saves_total", "Saves written to the database.", labels, saves);
+
+		writeSummary(out, "join_ready_seconds", "Time from a player joining until their data has been applied.", Map.of(labels, joinToReady), 1e-9);
+		writeSummary(out, "query_seconds", "Time spent running a database action, including waiting for a connection.", Map.of(labels, query), 1e-9);
+		writeSummary(out, "decode_seconds", "Time spent decoding a player's stored data off the server thread.", Map.of(labels, decode), 1e-9);
+		writeSummary(out, "apply_seconds", "Time spent applying a player's data on the server thread.", Map.of(labels, apply), 1e-9);
+		writeSummary(out, "apply_queue_wait_seconds", "Time a decoded player waits for the server thread to apply their data.", Map.of(labels, applyQueueWait), 1e-9);
+		writeSummary(out, "save_queue_wait_seconds", "Time a save waits in the queue before it is written.", Map.of(labels, saveQueueWait), 1e-9);
+		writeSummary(out, "save_seconds", "Time from submitting a save to it being written.", Map.of(labels, save), 1e-9);
+
+		final var columns = new TreeMap<String, Histogram>();
+		for (final var column : payload.entrySet()) {
+			columns.put("%s,column=\"%s\"".formatted(labels, escape(column.getKey())), column.getValue());
+		}
+
+		writeSummary(out, "payload_bytes", "Bytes written to a column per save.", columns, 1);
+
+		for (final var gauge : new TreeMap<>(gauges).entrySet()) {
+			final var name = "tenacity_" + gauge.getKey();
+			out.write("# HELP %s %s\n".formatted(name, gauge.getValue().help));
+			out.write("# TYPE %s gauge\n".formatted(name));
+			out.write("%s{%s} %s\n".formatted(name, labels, format(gauge.getValue().value.getAsDouble())));
+		}
+	}
+
+	private static void writeCounter(final Writer out, final String name, final String help, final String labels,
+									 final LongAdder counter) throws IOException {
+		out.write("# HELP tenacity_%s %s\n".formatted(name, help));
+		out.write("# TYPE tenacity_%s counter\n".formatted(name));
+		out.write("tenacity_%s{%s} %d\n".formatted(name, labels, counter.sum()));
+	}
+
+	private static void writeSummary(final Writer out, final String name, final String help,
+									 final Map<String, Histogram> histograms, final double scale) throws IOException {
+		out.write("# HELP tenacity_%s %s\n".formatted(name, help));
+		out.write("# TYPE tenacity_%s summary\n".formatted(name));
+
+		for (final var entry : histograms.entrySet()) {
+			final var histogram = entry.getValue();
+			for (final var quantile : QUANTILES) {
+				out.write("tenacity_%s{%s,quantile=\"%s\"} %s\n".formatted(
+						name, entry.getKey(), quantile, format(histogram.getQuantile(quantile) * scale)));
+			}
+
+			out.write("tenacity_%s_sum{%s} %s\n".formatted(name, entry.getKey(), format(histogram.getSum() * scale)));
+			out.write("tenacity_%s_count{%s} %d\n".formatted(name, entry.getKey(), histogram.getCount()));
+		}
+	}
+
+	private static String summarizeDuration(final String label, final Histogram histogram) {
+		return "%s: n=%d, p50 %.1f ms, p99 %.1f ms, max %.1f ms".formatted(
+				label,
+				histogram.getCount(),
+				histogram.getQuantile(0.5) / 1_000_000.0,
+				histogram.getQuantile(0.99) / 1_000_000.0,
+				histogram.getMax() / 1_000_000.0);
+	}
+
+	private static String format(final double value) {
+		return String.format(Locale.ROOT, "%.6g", value);
+	}
+
+	private static String escape(final String value) {
+		return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private record Gauge(String help, DoubleSupplier value) {
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import com.google.gson.reflect.TypeToken;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Encodes the progress of a player's advancements as bitsets. Every criterion of every advancement is given
+ * a small, stable id by a dictionary stored in the database (see {@link #criterion(NamespacedKey, String)})
+ * and the progress is stored as the set of ids of all awarded criteria:
+ *
+ * <pre>
+ *   u8   magic (0xAD)
+ *   u8   format version
+ *   u8[] the ids of all awarded criteria as a little-endian bitset (see {@link BitSet#toByteArray()})
+ * </pre>
+ * <p>
+ * Players who have been around for a while have made progress on several hundred advancements, most of them
+ * recipe unlocks, which takes up a few hundred bytes this way. If a criterion could not be given an id, the
+ * progress is stored as a JSON object of awarded criteria by advancement instead, see {@link #encodeJson(Map)}.
+ */
+public final class AdvancementCodec {
+	private static final byte MAGIC = (byte) 0xAD;
+	private static final byte VERSION = 1;
+	private static final Type MAP_OF_LISTS = new TypeToken<Map<String, List<String>>>() {
+	}.getType();
+
+	private AdvancementCodec() {
+	}
+
+	/**
+	 * Gets the key a criterion is stored as in the dictionary. Advancement keys never contain spaces, so
+	 * everything after the first space is the criterion.
+	 *
+	 * @param advancement The advancement the criterion belongs to.
+	 * @param criterion   The name of the criterion.
+	 * @return The key of the criterion.
+	 */
+	public static String criterion(final @NotNull NamespacedKey advancement, final @NotNull String criterion) {
+		return advancement + " " + criterion;
+	}
+
+	/**
+	 * Lists the keys of all awarded criteria.
+	 *
+	 * @param progress The awarded criteria by advancement.
+	 * @return The keys of the criteria, see {@link #criterion(NamespacedKey, String)}.
+	 */
+	public static List<String> criteria(final @NotNull Map<NamespacedKey, ? extends Collection<String>> progress) {
+		final var criteria = new ArrayList<String>();
+		for (final var advancement : progress.entrySet()) {
+			for (final var criterion : advancement.getValue()) criteria.add(criterion(advancement.getKey(), criterion));
+		}
+
+		return criteria;
+	}
+
+	/**
+	 * Encodes the progress of a player's advancements.
+	 *
+	 * @param progress The awarded criteria by advancement.
+	 * @param ids      A function returning the id of a criterion or <tt>-1</tt> if it has no id yet.
+	 * @return The encoded progress or <tt>null</tt> if one of the criteria has no id.
+	 */
+	public static byte @Nullable [] encode(final @NotNull Map<NamespacedKey, ? extends Collection<String>> progress,
+										   final @NotNull ToIntFunction<String> ids) {
+		final var bits = new BitSet();
+		for (final var advancement : progress.entrySet()) {
+			for (final var criterion : advancement.getValue()) {
+				final var id = ids.applyAsInt(criterion(advancement.getKey(), criterion));
+				if (id < 0) return null;
+				bits.set(id);
+			}
+		}
+
+		final var body = bits.toByteArray();
+		final var data = new byte[body.length + 2];
+		data[0] = MAGIC;
+		data[1] = VERSION;
+		System.arraycopy(body, 0, data, 2, body.length);
+		return data;
+	}
+
+	/**
+	 * Encodes the progress of a player's advancements as JSON, for criteria which could not be given an id.
+	 *
+	 * @param progress The awarded criteria by advancement.
+	 * @return The encoded progress.
+	 */
+	public static byte @NotNull [] encodeJson(final @NotNull Map<NamespacedKey, ? extends Collection<String>> progress) {
+		final var entries = new LinkedHashMap<String, List<String>>();
+		for (final var advancement : progress.entrySet()) {
+			entries.put(advancement.getKey().toString(), List.copyOf(advancement.getValue()));
+		}
+
+		return SerializedPlayer.GSON.toJson(entries).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes progress encoded by {@link #encode(Map, ToIntFunction)}.
+	 *
+	 * @param data The encoded progress.
+	 * @param keys A function returning the key of the criterion with an id or <tt>null</tt> if the id is unknown.
+	 * @return The awarded criteria by advancement or <tt>null</tt> if one of the ids is unknown.
+	 * @throws IllegalArgumentException If the data is not bitset-encoded progress.
+	 */
+	public static @Nullable Map<NamespacedKey, Set<String>> decode(final byte @NotNull [] data,
+																	final @NotNull IntFunction<String> keys) {
+		if (isJson(data)) throw new IllegalArgumentException("Not bitset-encoded advancement progress");
+		if (data[1] != VERSION) throw new IllegalArgumentException("Unsupported advancement progress version %d".formatted(data[1]));
+
+		final var bits = BitSet.valueOf(Arrays.copyOfRange(data, 2, data.length));
+		final var progress = new HashMap<NamespacedKey, Set<String>>();
+
+		for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+			final var key = keys.apply(id);
+			if (key == null) return null;
+
+			final var separator = key.indexOf(' ');
+			final var advancement = separator > 0 ? NamespacedKey.fromString(key.substring(0, separator)) : null;
+			if (advancement == null) continue;
+
+			progress.computeIfAbsent(advancement, k -> new HashSet<>()).add(key.substring(separator + 1));
+		}
+
+		return progress;
+	}
+
+	/**
+	 * Decodes progress stored as JSON.
+	 *
+	 * @param data The encoded progress.
+	 * @return The awarded criteria by advancement.
+	 */
+	public static @NotNull Map<NamespacedKey, Set<String>> decodeJson(final byte @NotNull [] data) {
+		final Map<String, List<String>> entries = SerializedPlayer.GSON.fromJson(new String(data, StandardCharsets.UTF_8), MAP_OF_LISTS);
+
+		final var progress = new HashMap<NamespacedKey, Set<String>>();
+		for (final var entry : entries.entrySet()) {
+			final var advancement = NamespacedKey.fromString(entry.getKey());
+			if (advancement != null) progress.put(advancement, new HashSet<>(entry.getValue()));
+		}
+
+		return progress;
+	}
+
+	/**
+	 * Checks whether the given data is stored as JSON.
+	 *
+	 * @param data The data to check.
+	 * @return <tt>true</tt> if the data is a JSON object and <tt>false</tt> if it is a bitset.
+	 */
+	public static boolean isJson(final byte @NotNull [] data) {
+		return data.length < 2 || data[0] != MAGIC;
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.bukkit.GameRule;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.potion.PotionEffect;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A player's stored data, fully decoded and ready to be applied. Decoding items, effects, recipe books,
+ * advancements and statistics is the expensive part of loading a player, so it happens off the server thread
+ * when the plan is created. Applying the plan on the server thread only calls setters on the player.
+ */
+public final class ApplyPlan {
+	private final TenacityConfig.TenacitySavingConfig config;
+	private final SerializedPlayer serial;
+	private final List<PotionEffect> effects;
+	private final Set<NamespacedKey> recipes;
+	private final ItemStack[] inventory;
+	private final ItemStack[] armorItems;
+	private final ItemStack[] enderChest;
+	private final Map<NamespacedKey, Set<String>> advancements;
+	private final Map<String, Integer> statistics;
+	private final List<StatisticCodec.Entry> statisticEntries;
+
+	private ApplyPlan(final TenacityConfig.TenacitySavingConfig config, final SerializedPlayer serial) {
+		this.config = config;
+		this.serial = serial;
+
+		if (config.effects && serial.activeEffects != null) {
+			final List<Map<String, Object>> maps = SerializedPlayer.GSON.fromJson(serial.activeEffects, SerializedPlayer.LIST_OF_OBJECTS);
+			effects = new ArrayList<>(maps.size());
+			for (final var map : maps) effects.add(new PotionEffect(map));
+		} else {
+			effects = null;
+		}
+
+		if (config.recipeBook && serial.recipes != null) {
+			recipes = serial.recipes;
+		} else if (config.recipeBook && serial.recipeBook != null && RecipeCodec.isLegacy(serial.recipeBook)) {
+			recipes = RecipeCodec.decodeLegacy(serial.recipeBook);
+		} else if (config.recipeBook && serial.recipeBook != null) {
+			// Skipping it would let the player's empty recipe book be saved over the stored one later
+			throw new IllegalStateException("The recipe book refers to recipe ids which are not known");
+		} else {
+			recipes = null;
+		}
+
+		final var items = config.inventory && serial.inventory != null;
+		inventory = items ? ItemCodec.decode(serial.inventory) : null;
+		armorItems = items && serial.armorItems != null ? ItemCodec.decode(serial.armorItems) : null;
+		enderChest = config.inventory && serial.enderChest != null ? ItemCodec.decode(serial.enderChest) : null;
+
+		if (config.advancements && serial.awardedCriteria != null) {
+			advancements = serial.awardedCriteria;
+		} else if (config.advancements && serial.advancements != null && AdvancementCodec.isJson(serial.advancements)) {
+			advancements = AdvancementCodec.decodeJson(serial.advancements);
+		} else if (config.advancements && serial.advancements != null) {
+			// Skipping it would let the player's missing progress be saved over the stored one later
+			throw new IllegalStateException("The advancements refer to criterion ids which are not known");
+		} else {
+			advancements = null;
+		}
+
+		statistics = config.statistics && serial.statistics != null ? StatisticCodec.decode(serial.statistics) : null;
+		statisticEntries = statistics != null ? StatisticCodec.resolve(statistics) : null;
+	}
+
+	/**
+	 * Decodes a player's data into a plan. May be called from any thread.
+	 *
+	 * @param config The configuration of which values to apply.
+	 * @param serial The player's data.
+	 * @return The plan created.
+	 * @throws IllegalStateException If the data refers to recipes or criteria by ids which could not be
+	 *                               resolved. Such data must not be applied partially.
+	 */
+	public static ApplyPlan of(final @NotNull TenacityConfig.TenacitySavingConfig config, final @NotNull SerializedPlayer serial) {
+		return new ApplyPlan(config, serial);
+	}
+
+	/**
+	 * Applies the plan to the given player. Values which have never been stored are skipped. Must be called
+	 * from the server thread.
+	 *
+	 * @param target The player to apply to.
+	 */
+	public void apply(final @NotNull Player target) {
+		if (config.health && serial.health != null) {
+			target.setRemainingAir(serial.air);
+			target.setHealth(serial.health);
+			target.setFireTicks(serial.fire);
+			target.setGlowing(serial.glowing);
+			target.setAbsorptionAmount(serial.absorption);
+		}
+
+		if (config.experience && serial.xpLevel != null) {
+			target.setLevel(serial.xpLevel);
+			target.setExp(serial.xpPercentage.floatValue());
+			target.setTotalExperience(serial.xpTotal);
+		}
+
+		if (config.food && serial.foodLevel != null) {
+			target.setFoodLevel(serial.foodLevel);
+			target.setExhaustion(serial.foodExhaustion.floatValue());
+			target.setSaturation(serial.foodSaturation.floatValue());
+		}
+
+		if (effects != null) {
+			for (final var effect : effects) target.addPotionEffect(effect);
+		}
+
+		if (recipes != null) {
+			// Discovering recipes one by one sends a packet and fires an event each, so only send the difference
+			final var known = target.getDiscoveredRecipes();
+			final var discover = new ArrayList<NamespacedKey>();
+			final var undiscover = new ArrayList<NamespacedKey>();
+			for (final var recipe : recipes) if (!known.contains(recipe)) discover.add(recipe);
+			for (final var recipe : known) if (!recipes.contains(recipe)) undiscover.add(recipe);
+
+			if (!undiscover.isEmpty()) target.undiscoverRecipes(undiscover);
+			if (!discover.isEmpty()) target.discoverRecipes(discover);
+		}
+
+		if (inventory != null) {
+			target.getInventory().clear();
+			target.getInventory().setContents(inventory);
+			if (armorItems != null) target.getInventory().setArmorContents(armorItems);
+			if (serial.selectedSlot != null) target.getInventory().setHeldItemSlot(serial.selectedSlot);
+		}
+
+		if (enderChest != null) {
+			target.getEnderChest().clear();
+			target.getEnderChest().setContents(enderChest);
+		}
+
+		if (advancements != null) applyAdvancements(target);
+
+		// Statistics the player has here, but which are not stored, are reset by their StatisticTracker
+		if (statisticEntries != null) {
+			for (final var entry : statisticEntries) entry.apply(target);
+		}
+
+		if (config.persistentData && serial.persistentData != null) {
+			try {
+				target.getPersistentDataContainer().readFromBytes(serial.persistentData, true);
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * @return The stored statistics which were applied, by key, or <tt>null</tt> if none are stored.
+	 */
+	public @Nullable Map<String, Integer> getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Awards and revokes criteria until the player's progress matches the stored one. Every criterion changed
+	 * sends a packet and completing an advancement fires an event, so criteria which already match are left
+	 * alone. Completed advancements are not announced in chat, since the player has completed them before.
+	 *
+	 * @param target The player to apply to.
+	 */
+	private void applyAdvancements(final @NotNull Player target) {
+		final var world = target.getWorld();
+		final var announce = Boolean.TRUE.equals(world.getGameRuleValue(GameRule.ANNOUNCE_ADVANCEMENTS));
+		if (announce) world.setGameRule(GameRule.ANNOUNCE_ADVANCEMENTS, false);
+
+		try {
+			for (final var iterator = target.getServer().advancementIterator(); iterator.hasNext(); ) {
+				final var advancement = iterator.next();
+				final var progress = target.getAdvancementProgress(advancement);
+				final var awarded = progress.getAwardedCriteria();
+				final var stored = advancements.getOrDefault(advancement.getKey(), Set.of());
+				if (awarded.isEmpty() && stored.isEmpty()) continue;
+
+				for (final var criterion : awarded) if (!stored.contains(criterion)) progress.revokeCriteria(criterion);
+				for (final var criterion : stored) if (!awarded.contains(criterion)) progress.awardCriteria(criterion);
+			}
+		} finally {
+			if (announce) world.setGameRule(GameRule.ANNOUNCE_ADVANCEMENTS, true);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes a set of database columns and their values into a single blob, as stored in the player history:
+ *
+ * <pre>
+ *   u8   magic (0xC5)
+ *   u8   format version
+ *   the rest is deflated:
+ *     u16  number of columns
+ *     for every column:
+ *       utf  the column's name
+ *       u8   the type of value, one of the TYPE_ constants
+ *       ...  the value, unless it is NULL
+ * </pre>
+ */
+public final class ColumnCodec {
+	private static final byte MAGIC = (byte) 0xC5;
+	private static final byte VERSION = 1;
+
+	private static final int TYPE_NULL = 0;
+	private static final int TYPE_INTEGER = 1;
+	private static final int TYPE_DOUBLE = 2;
+	private static final int TYPE_BOOLEAN = 3;
+	private static final int TYPE_STRING = 4;
+	private static final int TYPE_BYTES = 5;
+
+	private ColumnCodec() {
+	}
+
+	/**
+	 * Encodes columns and their values.
+	 *
+	 * @param columns The values of the columns, by name.
+	 * @return The encoded columns.
+	 */
+	public static byte[] encode(final @NotNull Map<String, Object> columns) {
+		final var bytes = new ByteArrayOutputStream();
+		bytes.write(MAGIC);
+		bytes.write(VERSION);
+
+		final var deflater = new Deflater(Deflater.BEST_SPEED);
+		try (final var out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+			write(out, columns);
+		} catch (final IOException e) {
+			// Writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		} finally {
+			deflater.end();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes columns encoded by {@link #encode(Map)}.
+	 *
+	 * @param data The encoded columns.
+	 * @return The values of the columns, by name, in the order they were encoded.
+	 * @throws IllegalArgumentException If the data is corrupt.
+	 */
+	public static Map<String, Object> decode(final byte @NotNull [] data) {
+		if (data.length < 2 || data[0] != MAGIC || data[1] != VERSION) {
+			throw new IllegalArgumentException("Not an encoded set of columns");
+		}
+
+		try (final var in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data, 2, data.length - 2)))) {
+			return read(in);
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Corrupt set of columns", e);
+		}
+	}
+
+	/**
+	 * Writes columns and their values without the header and compression, for embedding them in a larger
+	 * format which takes care of those.
+	 *
+	 * @param out     The output to write to.
+	 * @param columns The values of the columns, by name.
+	 * @throws IOException If writing fails.
+	 */
+	public static void write(final @NotNull DataOutput out, final @NotNull Map<String, Object> columns) throws IOException {
+		out.writeShort(columns.size());
+
+		for (final var column : columns.entrySet()) {
+			out.writeUTF(column.getKey());
+
+			final var value = column.getValue();
+			if (value == null) {
+				out.writeByte(TYPE_NULL);
+			} else if (value instanceof final Integer i) {
+				out.writeByte(TYPE_INTEGER);
+				out.writeInt(i);
+			} else if (value instanceof final Double d) {
+				out.writeByte(TYPE_DOUBLE);
+				out.writeDouble(d);
+			} else if (value instanceof final Boolean b) {
+				out.writeByte(TYPE_BOOLEAN);
+				out.writeBoolean(b);
+			} else if (value instanceof final String s) {
+				writeBytes(out, TYPE_STRING, s.getBytes(StandardCharsets.UTF_8));
+			} else if (value instanceof final byte[] b) {
+				writeBytes(out, TYPE_BYTES, b);
+			} else {
+				throw new IllegalArgumentException("Can't encode %s of column %s".formatted(value.getClass(), column.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * Reads columns written by {@link #write(DataOutput, Map)}.
+	 *
+	 * @param in The input to read from.
+	 * @return The values of the columns, by name, in the order they were written.
+	 * @throws IOException              If reading fails.
+	 * @throws IllegalArgumentException If the data is corrupt.
+	 */
+	public static Map<String, Object> read(final @NotNull DataInput in) throws IOException {
+		final var count = in.readUnsignedShort();
+		final var columns = new LinkedHashMap<String, Object>(count * 2);
+
+		for (int i = 0; i < count; i++) {
+			final var column = in.readUTF();
+			final var type = in.readUnsignedByte();
+
+			columns.put(column, switch (type) {
+				case TYPE_NULL -> null;
+				case TYPE_INTEGER -> in.readInt();
+				case TYPE_DOUBLE -> in.readDouble();
+				case TYPE_BOOLEAN -> in.readBoolean();
+				case TYPE_STRING -> new String(readBytes(in), StandardCharsets.UTF_8);
+				case TYPE_BYTES -> readBytes(in);
+				default -> throw new IllegalArgumentException("Unknown type %d of column %s".formatted(type, column));
+			});
+		}
+
+		return columns;
+	}
+
+	private static void writeBytes(final DataOutput out, final int type, final byte[] value) throws IOException {
+		out.writeByte(type);
+		out.writeInt(value.length);
+		out.write(value);
+	}
+
+	private static byte[] readBytes(final DataInput in) throws IOException {
+		final var value = new byte[in.readInt()];
+		in.readFully(value);
+		return value;
+	}
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes lists of item stacks into a compact binary format. Every item is stored using Paper's
+ * {@link ItemStack#serializeAsBytes()}. The encoded data starts with a small header:
+ *
+ * <pre>
+ *   u8     magic (0xA7)
+ *   u8     format version
+ *   u8     flags (bit 0: the rest of the data is deflate-compressed)
+ *   varint number of items
+ *   for each item:
+ *     varint length of the item data (0 if the slot is empty)
+ *     u8[]   the item data
+ * </pre>
+ * <p>
+ * Data written by older versions of tenacity was stored as a JSON list of {@link ItemStack#serialize()}
+ * maps. Such data is still understood by {@link #decode(byte[])}.
+ */
+public final class ItemCodec {
+	private static final byte MAGIC = (byte) 0xA7;
+	private static final byte VERSION = 1;
+	private static final byte FLAG_DEFLATE = 0x01;
+
+	private ItemCodec() {
+	}
+
+	/**
+	 * Encodes a list of items.
+	 *
+	 * @param items    The items to encode.
+	 * @param compress Whether to deflate the encoded items. The result is only compressed if that actually
+	 *                 makes it smaller.
+	 * @return The encoded items.
+	 */
+	public static byte @NotNull [] encode(final ItemStack @NotNull [] items, final boolean compress) {
+		final var body = new ByteArrayOutputStream(items.length * 64);
+
+		try (final var out = new DataOutputStream(body)) {
+			writeVarInt(out, items.length);
+
+			for (final var item : items) {
+				if (item == null || item.getType().isAir()) {
+					writeVarInt(out, 0);
+					continue;
+				}
+
+				final var data = item.serializeAsBytes();
+				writeVarInt(out, data.length);
+				out.write(data);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		var payload = body.toByteArray();
+		var flags = (byte) 0;
+
+		if (compress) {
+			final var deflated = deflate(payload);
+			if (deflated.length < payload.length) {
+				payload = deflated;
+				flags |= FLAG_DEFLATE;
+			}
+		}
+
+		final var result = new byte[payload.length + 3];
+		result[0] = MAGIC;
+		result[1] = VERSION;
+		result[2] = flags;
+		System.arraycopy(payload, 0, result, 3, payload.length);
+		return result;
+	}
+
+	/**
+	 * Decodes a list of items previously encoded using {@link #encode(ItemStack[], boolean)}. Items stored in
+	 * the legacy JSON format are decoded as well.
+	 *
+	 * @param data The data to decode.
+	 * @return The items decoded.
+	 */
+	public static ItemStack @NotNull [] decode(final byte @NotNull [] data) {
+		if (isLegacy(data)) return decodeLegacy(new String(data, StandardCharsets.UTF_8));
+		if (data.length < 3 || data[0] != MAGIC) throw new IllegalArgumentException("Unknown item data format");
+		if (data[1] != VERSION) throw new IllegalArgumentException("Unsupported item data version %d".formatted(data[1]));
+
+		var payload = new byte[data.length - 3];
+		System.arraycopy(data, 3, payload, 0, payload.length);
+		if ((data[2] & FLAG_DEFLATE) != 0) payload = inflate(payload);
+
+		try (final var in = new DataInputStream(new ByteArrayInputStream(payload))) {
+			final var items = new ItemStack[readVarInt(in)];
+
+			for (int i = 0; i < items.length; i++) {
+				final var length = readVarInt(in);
+				if (length == 0) continue;
+
+				items[i] = ItemStack.deserializeBytes(in.readNBytes(length));
+			}
+
+			return items;
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Checks whether the given data was stored using the legacy JSON format.
+	 *
+	 * @param data The data to check.
+	 * @return <tt>true</tt> if the data is JSON and <tt>false</tt> if not.
+	 */
+	public static boolean isLegacy(final byte @NotNull [] data) {
+		return data.length > 0 && data[0] == '[';
+	}
+
+	/**
+	 * Parse a list of item stacks from JSON.
+	 *
+	 * @param json A JSON string to read the items from.
+	 * @return A list of item stacks.
+	 */
+	private static ItemStack[] decodeLegacy(final @NotNull String json) {
+		final List<Map<String, Object>> rawItems = SerializedPlayer.GSON.fromJson(json, SerializedPlayer.LIST_OF_OBJECTS);
+		final ItemStack[] items = new ItemStack[rawItems.size()];
+
+		for (int i = 0; i < rawItems.size(); i++) {
+			items[i] = rawItems.get(i) != null ? ItemStack.deserialize(rawItems.get(i)) : null;
+		}
+
+		return items;
+	}
+
+	private static byte[] deflate(final byte[] data) {
+		final var deflater = new Deflater(Deflater.BEST_SPEED);
+		final var out = new ByteArrayOutputStream(data.length / 2 + 16);
+		final var buffer = new byte[8192];
+
+		try {
+			deflater.setInput(data);
+			deflater.finish();
+			while (!deflater.finished()) out.write(buffer, 0, deflater.deflate(buffer));
+		} finally {
+			deflater.end();
+		}
+
+		return out.toByteArray();
+	}
+
+	private static byte[] inflate(final byte[] data) {
+		final var inflater = new Inflater();
+		final var out = new ByteArrayOutputStream(data.length * 3);
+		final var buffer = new byte[8192];
+
+		try {
+			inflater.setInput(data);
+			while (!inflater.finished()) {
+				final var count = inflater.inflate(buffer);
+				if (count == 0 && inflater.needsInput()) throw new IllegalArgumentException("Truncated item data");
+				out.write(buffer, 0, count);
+			}
+		} catch (final DataFormatException e) {
+			throw new IllegalArgumentException("Corrupt item data", e);
+		} finally {
+			inflater.end();
+		}
+
+		return out.toByteArray();
+	}
+
+	private static void writeVarInt(final DataOutput out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+
+		out.writeByte(value);
+	}
+
+	private static int readVarInt(final DataInput in) throws IOException {
+		int value = 0;
+
+		for (int shift = 0; shift < 32; shift += 7) {
+			final var b = in.readUnsignedByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+
+		throw new IOException("VarInt is too long");
+	}
+}
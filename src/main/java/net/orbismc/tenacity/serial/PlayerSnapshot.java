@@ -0,0 +1,242 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.bukkit.NamespacedKey;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.potion.PotionEffect;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A copy of a player's state, taken on the server thread. Unlike a {@link SerializedPlayer},
+ * a snapshot does not contain any encoded data, so taking one is cheap. It can safely be handed to other
+ * threads for serialization.
+ */
+public final class PlayerSnapshot {
+	public final UUID uuid;
+	public final String name;
+	public final EnumSet<Section> sections;
+	public Integer air = null;
+	public Integer fire = null;
+	public Boolean glowing = null;
+	public Double health = null;
+	public Double absorption = null;
+	public List<PotionEffect> activeEffects = null;
+	public List<NamespacedKey> recipeBook = null;
+	public Integer selectedSlot = null;
+	public Integer foodLevel = null;
+	public Double foodExhaustion = null;
+	public Double foodSaturation = null;
+	public Integer xpLevel = null;
+	public Double xpPercentage = null;
+	public Integer xpTotal = null;
+	public ItemStack[] inventory = null;
+	public ItemStack[] enderChest = null;
+	public ItemStack[] armorItems = null;
+	public Map<NamespacedKey, Collection<String>> advancements = null;
+	public Map<String, Integer> statistics = null;
+	public byte[] persistentData = null;
+
+	private PlayerSnapshot(final UUID uuid, final String name, final EnumSet<Section> sections) {
+		this.uuid = uuid;
+		this.name = name;
+		this.sections = sections;
+	}
+
+	/**
+	 * Copies the given items so that they are no longer backed by the live inventory.
+	 *
+	 * @param items The items to copy.
+	 * @return A copy of every item.
+	 */
+	private static ItemStack[] copyItems(final ItemStack[] items) {
+		final var copy = new ItemStack[items.length];
+		for (int i = 0; i < items.length; i++) copy[i] = items[i] != null ? items[i].clone() : null;
+		return copy;
+	}
+
+	/**
+	 * Copies the awarded criteria of all advancements the player has made progress on. The collections
+	 * returned by the server are already copies.
+	 *
+	 * @param player The player to copy the progress of.
+	 * @return The awarded criteria by advancement.
+	 */
+	private static Map<NamespacedKey, Collection<String>> captureAdvancements(final Player player) {
+		final var progress = new HashMap<NamespacedKey, Collection<String>>();
+		for (final var iterator = player.getServer().advancementIterator(); iterator.hasNext(); ) {
+			final var advancement = iterator.next();
+			final var awarded = player.getAdvancementProgress(advancement).getAwardedCriteria();
+			if (!awarded.isEmpty()) progress.put(advancement.getKey(), awarded);
+		}
+
+		return progress;
+	}
+
+	/**
+	 * Serializes the player's persistent data container. Containers are small, so this is cheap enough to do
+	 * on the server thread, and the bytes are stored as they are.
+	 *
+	 * @param player The player to copy the container of.
+	 * @return The serialized container.
+	 */
+	private static byte[] capturePersistentData(final Player player) {
+		try {
+			return player.getPersistentDataContainer().serializeToBytes();
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the given player, copying only the fields defined in the given config. This
+	 * must be called from the server thread.
+	 *
+	 * @param config The config to use when copying.
+	 * @param player The player to take a snapshot of.
+	 * @return The snapshot taken.
+	 */
+	public static PlayerSnapshot capture(final @NotNull TenacityConfig.TenacitySavingConfig config,
+										 final @NotNull Player player) {
+		return capture(config, player, Section.enabled(config));
+	}
+
+	/**
+	 * Takes a snapshot of the given sections of a player, copying only the fields defined in the given
+	 * config. This must be called from the server thread.
+	 *
+	 * @param config   The config to use when copying.
+	 * @param player   The player to take a snapshot of.
+	 * @param sections The sections to copy.
+	 * @return The snapshot taken.
+	 */
+	public static PlayerSnapshot capture(final @NotNull TenacityConfig.TenacitySavingConfig config,
+										 final @NotNull Player player,
+										 final @NotNull EnumSet<Section> sections) {
+		return capture(config, player, sections, null);
+	}
+
+	/**
+	 * Takes a snapshot of the given sections of a player, copying only the fields defined in the given
+	 * config. This must be called from the server thread.
+	 *
+	 * @param config     The config to use when copying.
+	 * @param player     The player to take a snapshot of.
+	 * @param sections   The sections to copy.
+	 * @param statistics The tracker of the player's statistics or <tt>null</tt> to read all of them, which is
+	 *                   much slower.
+	 * @return The snapshot taken.
+	 */
+	public static PlayerSnapshot capture(final @NotNull TenacityConfig.TenacitySavingConfig config,
+										 final @NotNull Player player,
+										 final @NotNull EnumSet<Section> sections,
+										 final @Nullable StatisticTracker statistics) {
+		final var snapshot = new PlayerSnapshot(player.getUniqueId(), player.getName(), EnumSet.noneOf(Section.class));
+
+		for (final var section : sections) {
+			if (!section.isEnabled(config)) continue;
+			snapshot.sections.add(section);
+
+			switch (section) {
+				case VITALS -> {
+					if (config.health) {
+						snapshot.air = player.getRemainingAir();
+						snapshot.health = player.getHealth();
+						snapshot.fire = player.getFireTicks();
+						snapshot.glowing = player.isGlowing();
+						snapshot.absorption = player.getAbsorptionAmount();
+					}
+
+					if (config.experience) {
+						snapshot.xpLevel = player.getLevel();
+						snapshot.xpPercentage = (double) player.getExp();
+						snapshot.xpTotal = player.getTotalExperience();
+					}
+
+					if (config.food) {
+						snapshot.foodLevel = player.getFoodLevel();
+						snapshot.foodExhaustion = (double) player.getExhaustion();
+						snapshot.foodSaturation = (double) player.getSaturation();
+					}
+				}
+				case EFFECTS -> snapshot.activeEffects = new ArrayList<>(player.getActivePotionEffects());
+				case RECIPE_BOOK -> snapshot.recipeBook = new ArrayList<>(player.getDiscoveredRecipes());
+				case INVENTORY -> {
+					snapshot.selectedSlot = player.getInventory().getHeldItemSlot();
+					snapshot.inventory = copyItems(player.getInventory().getContents());
+				}
+				case ARMOR -> snapshot.armorItems = copyItems(player.getInventory().getArmorContents());
+				case ENDER_CHEST -> snapshot.enderChest = copyItems(player.getEnderChest().getContents());
+				case ADVANCEMENTS -> snapshot.advancements = captureAdvancements(player);
+				case STATISTICS -> {
+					if (statistics == null) {
+						snapshot.statistics = StatisticTracker.readAll(player);
+					} else {
+						statistics.refresh(player);
+						snapshot.statistics = statistics.copy();
+					}
+				}
+				case PERSISTENT_DATA -> snapshot.persistentData = capturePersistentData(player);
+			}
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Fills in all sections which are present in an older snapshot of the same player but missing from this
+	 * one. This is used to combine two saves which have not been written to the database yet.
+	 *
+	 * @param older The older snapshot.
+	 * @return This snapshot.
+	 */
+	public PlayerSnapshot mergeOlder(final @NotNull PlayerSnapshot older) {
+		for (final var section : older.sections) {
+			if (!sections.add(section)) continue;
+
+			switch (section) {
+				case VITALS -> {
+					air = older.air;
+					health = older.health;
+					fire = older.fire;
+					glowing = older.glowing;
+					absorption = older.absorption;
+					xpLevel = older.xpLevel;
+					xpPercentage = older.xpPercentage;
+					xpTotal = older.xpTotal;
+					foodLevel = older.foodLevel;
+					foodExhaustion = older.foodExhaustion;
+					foodSaturation = older.foodSaturation;
+				}
+				case EFFECTS -> activeEffects = older.activeEffects;
+				case RECIPE_BOOK -> recipeBook = older.recipeBook;
+				case INVENTORY -> {
+					selectedSlot = older.selectedSlot;
+					inventory = older.inventory;
+				}
+				case ARMOR -> armorItems = older.armorItems;
+				case ENDER_CHEST -> enderChest = older.enderChest;
+				case ADVANCEMENTS -> advancements = older.advancements;
+				case STATISTICS -> statistics = older.statistics;
+				case PERSISTENT_DATA -> persistentData = older.persistentData;
+			}
+		}
+
+		return this;
+	}
+}
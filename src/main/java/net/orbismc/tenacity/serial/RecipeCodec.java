@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Encodes recipe books as bitsets. Every recipe is given a small, stable id by a dictionary stored in the
+ * database and the recipe book is stored as the set of ids discovered:
+ *
+ * <pre>
+ *   u8   magic (0xB7)
+ *   u8   format version
+ *   u8[] the ids of all discovered recipes as a little-endian bitset (see {@link BitSet#toByteArray()})
+ * </pre>
+ * <p>
+ * A recipe book of a thousand recipes takes up about 150 bytes instead of more than 30 KB. Data written by
+ * older versions of tenacity was stored as a JSON list of recipe keys. Such data is still understood by
+ * {@link #decodeLegacy(byte[])}.
+ */
+public final class RecipeCodec {
+	private static final byte MAGIC = (byte) 0xB7;
+	private static final byte VERSION = 1;
+
+	private RecipeCodec() {
+	}
+
+	/**
+	 * Encodes a recipe book.
+	 *
+	 * @param recipes The discovered recipes.
+	 * @param ids     A function returning the id of a recipe or <tt>-1</tt> if the recipe has no id yet.
+	 * @return The encoded recipe book or <tt>null</tt> if one of the recipes has no id.
+	 */
+	public static byte @Nullable [] encode(final @NotNull Collection<NamespacedKey> recipes,
+										   final @NotNull ToIntFunction<NamespacedKey> ids) {
+		final var bits = new BitSet();
+		for (final var recipe : recipes) {
+			final var id = ids.applyAsInt(recipe);
+			if (id < 0) return null;
+			bits.set(id);
+		}
+
+		final var body = bits.toByteArray();
+		final var data = new byte[body.length + 2];
+		data[0] = MAGIC;
+		data[1] = VERSION;
+		System.arraycopy(body, 0, data, 2, body.length);
+		return data;
+	}
+
+	/**
+	 * Encodes a recipe book in the legacy JSON format, for recipes which could not be given an id.
+	 *
+	 * @param recipes The discovered recipes.
+	 * @return The encoded recipe book.
+	 */
+	public static byte @NotNull [] encodeLegacy(final @NotNull Collection<NamespacedKey> recipes) {
+		final var entries = recipes.stream().map(NamespacedKey::toString).toList();
+		return SerializedPlayer.GSON.toJson(entries).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes a recipe book encoded by {@link #encode(Collection, ToIntFunction)}.
+	 *
+	 * @param data The encoded recipe book.
+	 * @param keys A function returning the recipe with an id or <tt>null</tt> if the id is unknown.
+	 * @return The discovered recipes or <tt>null</tt> if one of the ids is unknown.
+	 * @throws IllegalArgumentException If the data is not a bitset-encoded recipe book.
+	 */
+	public static @Nullable Set<NamespacedKey> decode(final byte @NotNull [] data,
+													  final @NotNull IntFunction<NamespacedKey> keys) {
+		if (isLegacy(data)) throw new IllegalArgumentException("Not a bitset-encoded recipe book");
+		if (data[1] != VERSION) throw new IllegalArgumentException("Unsupported recipe book version %d".formatted(data[1]));
+
+		final var bits = BitSet.valueOf(Arrays.copyOfRange(data, 2, data.length));
+		final var recipes = new HashSet<NamespacedKey>(bits.cardinality() * 2);
+
+		for (int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1)) {
+			final var key = keys.apply(id);
+			if (key == null) return null;
+			recipes.add(key);
+		}
+
+		return recipes;
+	}
+
+	/**
+	 * Decodes a recipe book stored as a JSON list of recipe keys.
+	 *
+	 * @param data The encoded recipe book.
+	 * @return The discovered recipes.
+	 */
+	public static @NotNull Set<NamespacedKey> decodeLegacy(final byte @NotNull [] data) {
+		final List<String> entries = SerializedPlayer.GSON.fromJson(new String(data, StandardCharsets.UTF_8), SerializedPlayer.LIST_OF_STRINGS);
+
+		final var recipes = new HashSet<NamespacedKey>(entries.size() * 2);
+		for (final var entry : entries) recipes.add(Objects.requireNonNull(NamespacedKey.fromString(entry)));
+		return recipes;
+	}
+
+	/**
+	 * Checks whether the given data is stored in the legacy JSON format.
+	 *
+	 * @param data The data to check.
+	 * @return <tt>true</tt> if the data is a JSON list and <tt>false</tt> if it is a bitset.
+	 */
+	public static boolean isLegacy(final byte @NotNull [] data) {
+		return data.length < 2 || data[0] != MAGIC;
+	}
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * A part of the player's data which is tracked and written to the database separately.
+ */
+public enum Section {
+	/**
+	 * Health, experience and food, depending on what is enabled in the config.
+	 */
+	VITALS,
+	EFFECTS("active_effects"),
+	RECIPE_BOOK("recipe_book"),
+	INVENTORY("inventory", "selected_slot"),
+	ARMOR("armor_items"),
+	ENDER_CHEST("ender_chest"),
+
+	/**
+	 * The awarded criteria of all advancements, see {@link AdvancementCodec}.
+	 */
+	ADVANCEMENTS("advancements"),
+
+	/**
+	 * All non-zero statistics, see {@link StatisticCodec}.
+	 */
+	STATISTICS("statistics"),
+
+	/**
+	 * The player's persistent data container, holding data of other plugins.
+	 */
+	PERSISTENT_DATA("persistent_data");
+
+	private static final List<String> HEALTH_COLUMNS = List.of("air", "fire", "glowing", "health", "absorption");
+	private static final List<String> EXPERIENCE_COLUMNS = List.of("xp_level", "xp_percentage", "xp_total");
+	private static final List<String> FOOD_COLUMNS = List.of("food_level", "food_exhaustion", "food_saturation");
+
+	private final List<String> columns;
+
+	Section(final String... columns) {
+		this.columns = List.of(columns);
+	}
+
+	/**
+	 * Checks whether this section is saved according to the given config.
+	 *
+	 * @param config The config to check.
+	 * @return <tt>true</tt> if the section is saved and <tt>false</tt> if not.
+	 */
+	public boolean isEnabled(final @NotNull TenacityConfig.TenacitySavingConfig config) {
+		return switch (this) {
+			case VITALS -> config.health || config.experience || config.food;
+			case EFFECTS -> config.effects;
+			case RECIPE_BOOK -> config.recipeBook;
+			case INVENTORY, ARMOR, ENDER_CHEST -> config.inventory;
+			case ADVANCEMENTS -> config.advancements;
+			case STATISTICS -> config.statistics;
+			case PERSISTENT_DATA -> config.persistentData;
+		};
+	}
+
+	/**
+	 * Gets the database columns holding this section's data.
+	 *
+	 * @param config The config defining which values are saved.
+	 * @return The names of the columns.
+	 */
+	public List<String> getColumns(final @NotNull TenacityConfig.TenacitySavingConfig config) {
+		if (this != VITALS) return columns;
+
+		final var result = new ArrayList<String>();
+		if (config.health) result.addAll(HEALTH_COLUMNS);
+		if (config.experience) result.addAll(EXPERIENCE_COLUMNS);
+		if (config.food) result.addAll(FOOD_COLUMNS);
+		return result;
+	}
+
+	/**
+	 * Gets all database columns this section can have, regardless of what is saved.
+	 *
+	 * @return The names of the columns.
+	 */
+	public List<String> getAllColumns() {
+		if (this != VITALS) return columns;
+
+		final var result = new ArrayList<String>();
+		result.addAll(HEALTH_COLUMNS);
+		result.addAll(EXPERIENCE_COLUMNS);
+		result.addAll(FOOD_COLUMNS);
+		return result;
+	}
+
+	/**
+	 * Gets the table holding this section's data. Large sections can be moved out of the <tt>players</tt>
+	 * table into their own tables, so that servers which don't save them never read or write their rows.
+	 *
+	 * @param split Set to <tt>true</tt> if large sections are stored in their own tables.
+	 * @return The name of the table.
+	 */
+	public String getTable(final boolean split) {
+		final var table = getSplitTable();
+		return split && table != null ? table : "players";
+	}
+
+	/**
+	 * @return The table this section is stored in when large sections are stored in their own tables or
+	 * <tt>null</tt> if it always stays in the <tt>players</tt> table.
+	 */
+	public @Nullable String getSplitTable() {
+		return switch (this) {
+			case RECIPE_BOOK -> "players_recipe_book";
+			case INVENTORY -> "players_inventory";
+			case ENDER_CHEST -> "players_ender_chest";
+			default -> null;
+		};
+	}
+
+	/**
+	 * Gets all sections saved according to the given config.
+	 *
+	 * @param config The config to check.
+	 * @return The sections enabled.
+	 */
+	public static EnumSet<Section> enabled(final @NotNull TenacityConfig.TenacitySavingConfig config) {
+		final var sections = EnumSet.noneOf(Section.class);
+		for (final var section : values()) if (section.isEnabled(config)) sections.add(section);
+		return sections;
+	}
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumSet;
+import java.util.Map;
+
+/**
+ * Cheap fingerprints of every section of a player's data. Comparing the fingerprints taken when the
+ * player's data was last loaded or saved to the current ones tells which sections changed and need to
+ * be written to the database again. Fingerprints are only meaningful during a single server run.
+ * <p>
+ * Values which change on their own every tick, like the remaining duration of potion effects, remaining
+ * air, fire ticks, exhaustion and saturation, are left out. Otherwise the sections would be written at
+ * every autosave. They are saved when the player leaves.
+ */
+public final class SectionFingerprints {
+	private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	private final long[] values = new long[Section.values().length];
+	private final boolean[] known = new boolean[Section.values().length];
+
+	private SectionFingerprints() {
+	}
+
+	/**
+	 * Takes the fingerprints of all enabled sections of the given player. Must be called from the
+	 * server thread.
+	 *
+	 * @param config The config defining which sections are saved.
+	 * @param player The player to take the fingerprints of.
+	 * @return The fingerprints taken.
+	 */
+	public static SectionFingerprints of(final @NotNull TenacityConfig.TenacitySavingConfig config,
+										 final @NotNull Player player) {
+		return of(config, player, null);
+	}
+
+	/**
+	 * Takes the fingerprints of all enabled sections of the given player. Must be called from the
+	 * server thread.
+	 *
+	 * @param config     The config defining which sections are saved.
+	 * @param player     The player to take the fingerprints of.
+	 * @param statistics The tracker of the player's statistics or <tt>null</tt> to read all of them, which is
+	 *                   much slower. While the tracker is incomplete, statistics get no fingerprint and are
+	 *                   never considered changed.
+	 * @return The fingerprints taken.
+	 */
+	public static SectionFingerprints of(final @NotNull TenacityConfig.TenacitySavingConfig config,
+										 final @NotNull Player player,
+										 final @Nullable StatisticTracker statistics) {
+		final var fingerprints = new SectionFingerprints();
+
+		for (final var section : Section.enabled(config)) {
+			if (section == Section.STATISTICS && statistics != null && !statistics.isComplete()) continue;
+
+			fingerprints.set(section, switch (section) {
+				case VITALS -> vitals(config, player);
+				case EFFECTS -> effects(player);
+				case RECIPE_BOOK -> mix(1, player.getDiscoveredRecipes().hashCode());
+				case INVENTORY -> mix(items(player.getInventory().getContents()), player.getInventory().getHeldItemSlot());
+				case ARMOR -> items(player.getInventory().getArmorContents());
+				case ENDER_CHEST -> items(player.getEnderChest().getContents());
+				case ADVANCEMENTS -> advancements(player);
+				case STATISTICS -> statistics != null
+						? mix(System.identityHashCode(statistics), Long.hashCode(statistics.refresh(player)))
+						: mix(1, StatisticTracker.readAll(player).entrySet().stream()
+						.filter(entry -> StatisticTracker.isCounted(entry.getKey()))
+						.mapToInt(Map.Entry::hashCode)
+						.sum());
+				case PERSISTENT_DATA -> mix(1, player.getPersistentDataContainer().hashCode());
+			});
+		}
+
+		return fingerprints;
+	}
+
+	/**
+	 * Forgets the fingerprint of a section, causing it to always be considered changed.
+	 *
+	 * @param section The section to forget.
+	 * @return This object.
+	 */
+	public SectionFingerprints forget(final @NotNull Section section) {
+		known[section.ordinal()] = false;
+		return this;
+	}
+
+	/**
+	 * Determines which sections differ between these fingerprints and an older set of fingerprints.
+	 *
+	 * @param previous The previous fingerprints or <tt>null</tt> if there are none, in which case all
+	 *                 sections are considered changed.
+	 * @return The sections which changed.
+	 */
+	public EnumSet<Section> changedSince(final @Nullable SectionFingerprints previous) {
+		final var changed = EnumSet.noneOf(Section.class);
+
+		for (final var section : Section.values()) {
+			final var i = section.ordinal();
+			if (!known[i]) continue;
+			if (previous == null || !previous.known[i] || previous.values[i] != values[i]) changed.add(section);
+		}
+
+		return changed;
+	}
+
+	private void set(final Section section, final long value) {
+		values[section.ordinal()] = value;
+		known[section.ordinal()] = true;
+	}
+
+	private static long vitals(final TenacityConfig.TenacitySavingConfig config, final Player player) {
+		long hash = 1;
+
+		if (config.health) {
+			hash = mix(hash, Boolean.hashCode(player.isGlowing()));
+			hash = mix(hash, Double.hashCode(player.getHealth()));
+			hash = mix(hash, Double.hashCode(player.getAbsorptionAmount()));
+		}
+
+		if (config.experience) {
+			hash = mix(hash, player.getLevel());
+			hash = mix(hash, Float.hashCode(player.getExp()));
+			hash = mix(hash, player.getTotalExperience());
+		}
+
+		if (config.food) {
+			hash = mix(hash, player.getFoodLevel());
+		}
+
+		return hash;
+	}
+
+	private static long effects(final Player player) {
+		long hash = 1;
+		for (final var effect : player.getActivePotionEffects()) {
+			long effectHash = mix(effect.getType().getKey().hashCode(), effect.getAmplifier());
+			effectHash = mix(effectHash, Boolean.hashCode(effect.isAmbient()));
+			effectHash = mix(effectHash, Boolean.hashCode(effect.hasParticles()));
+			effectHash = mix(effectHash, Boolean.hashCode(effect.hasIcon()));
+
+			// The collection has no defined order, so the effects are combined in an order-independent way
+			hash += effectHash;
+		}
+
+		return hash;
+	}
+
+	private static long advancements(final Player player) {
+		long hash = 1;
+		for (final var iterator = player.getServer().advancementIterator(); iterator.hasNext(); ) {
+			final var advancement = iterator.next();
+			final var awarded = player.getAdvancementProgress(advancement).getAwardedCriteria();
+			if (!awarded.isEmpty()) hash = mix(hash, advancement.getKey().hashCode() ^ awarded.hashCode());
+		}
+
+		return hash;
+	}
+
+	private static long items(final ItemStack[] items) {
+		long hash = items.length;
+		for (final var item : items) hash = mix(hash, item == null || item.getType().isAir() ? 0 : item.hashCode());
+		return hash;
+	}
+
+	private static long mix(final long hash, final int value) {
+		return (hash ^ value) * MULTIPLIER + Long.rotateLeft(hash, 31);
+	}
+}
@@ -9,17 +9,18 @@ import com.google.gson.reflect.TypeToken;
 import net.orbismc.tenacity.TenacityConfig;
 import org.bukkit.NamespacedKey;
 import org.bukkit.entity.Player;
-import org.bukkit.inventory.ItemStack;
 import org.bukkit.potion.PotionEffect;
 import org.jetbrains.annotations.NotNull;
 
 import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.function.ToIntFunction;
 
 /**
- * Represents serialized player data. TODO: Also save achievements
+ * Represents serialized player data.
  */
 public class SerializedPlayer {
 	public static final Gson GSON = new Gson();
@@ -31,13 +32,20 @@ public class SerializedPlayer {
 	}.getType();
 
 	public final UUID uuid;
+	public final EnumSet<Section> sections = EnumSet.noneOf(Section.class);
 	public Integer air = null;
 	public Integer fire = null;
 	public Boolean glowing = null;
 	public Double health = null;
 	public Double absorption = null;
 	public String activeEffects = null;
-	public String recipeBook = null;
+	public byte[] recipeBook = null;
+
+	/**
+	 * The decoded recipe book. Decoding needs the recipe dictionary, so this is filled in separately after
+	 * loading, see {@link RecipeCodec}.
+	 */
+	public Set<NamespacedKey> recipes = null;
 	public Integer selectedSlot = null;
 	public Integer foodLevel = null;
 	public Double foodExhaustion = null;
@@ -45,177 +53,266 @@ public class SerializedPlayer {
 	public Integer xpLevel = null;
 	public Double xpPercentage = null;
 	public Integer xpTotal = null;
-	public String inventory = null;
-	public String enderChest = null;
-	public String armorItems = null;
-
-	public SerializedPlayer(UUID uuid) {
-		this.uuid = uuid;
-	}
+	public byte[] inventory = null;
+	public byte[] enderChest = null;
+	public byte[] armorItems = null;
+	public byte[] advancements = null;
+	public byte[] statistics = null;
+	public byte[] persistentData = null;
 
 	/**
-	 * Parse a list of item stacks from JSON.
-	 *
-	 * @param json A JSON string to read the items from.
-	 * @return A list of item stacks.
+	 * The decoded progress of advancements. Decoding needs the criteria dictionary, so this is filled in
+	 * separately after loading, see {@link AdvancementCodec}.
 	 */
-	private static ItemStack[] loadItems(final @NotNull String json) {
-		final List<Map<String, Object>> rawItems = GSON.fromJson(json, LIST_OF_OBJECTS);
-		final ItemStack[] items = new ItemStack[rawItems.size()];
-
-		for (int i = 0; i < rawItems.size(); i++) {
-			items[i] = rawItems.get(i) != null ? ItemStack.deserialize(rawItems.get(i)) : null;
-		}
+	public Map<NamespacedKey, Set<String>> awardedCriteria = null;
 
-		return items;
+	public SerializedPlayer(UUID uuid) {
+		this.uuid = uuid;
 	}
 
 	/**
-	 * Dump a list of items to JSON.
+	 * Converts a {@link Player} object into a {@link SerializedPlayer} object, copying only the fields
+	 * defined in the given config.
 	 *
-	 * @param items A list of items to dump.
-	 * @return The JSON representation of the items
+	 * @param config       The config to use when converting.
+	 * @param player       The player to convert.
+	 * @param recipeIds    A function returning the id of a recipe or <tt>-1</tt> if it has none.
+	 * @param criterionIds A function returning the id of an advancement criterion or <tt>-1</tt> if it has none.
+	 * @return The serialized player created.
 	 */
-	private static String dumpItems(final ItemStack[] items) {
-		final var itemsMap = new ArrayList<Map<String, Object>>();
-		for (final var item : items) itemsMap.add(item != null ? item.serialize() : null);
-		return GSON.toJson(itemsMap);
+	public static SerializedPlayer fromPlayer(final @NotNull TenacityConfig config,
+											  final @NotNull Player player,
+											  final @NotNull ToIntFunction<NamespacedKey> recipeIds,
+											  final @NotNull ToIntFunction<String> criterionIds) {
+		return fromSnapshot(config.storage, PlayerSnapshot.capture(config.saving, player), recipeIds, criterionIds);
 	}
 
 	/**
-	 * Converts a {@link Player} object into a {@link SerializedPlayer} object, copying only the fields
-	 * defined in the given config.
+	 * Converts a {@link PlayerSnapshot} into a {@link SerializedPlayer} object. Since a snapshot is
+	 * detached from the live player, this may be called from any thread.
 	 *
-	 * @param config The config to use when converting.
-	 * @param player The player to convert.
+	 * @param config       The storage config to use when converting.
+	 * @param snapshot     The snapshot to convert.
+	 * @param recipeIds    A function returning the id of a recipe or <tt>-1</tt> if it has none. If one of the
+	 *                     player's recipes has no id, the recipe book is stored in the legacy format.
+	 * @param criterionIds A function returning the id of an advancement criterion or <tt>-1</tt> if it has
+	 *                     none. If one of the awarded criteria has no id, the progress is stored as JSON.
 	 * @return The serialized player created.
 	 */
-	public static SerializedPlayer fromPlayer(final @NotNull TenacityConfig.TenacitySavingConfig config,
-											  final @NotNull Player player) {
-		final var serial = new SerializedPlayer(player.getUniqueId());
-
-		if (config.health) {
-			serial.air = player.getRemainingAir();
-			serial.health = player.getHealth();
-			serial.fire = player.getFireTicks();
-			serial.glowing = player.isGlowing();
-			serial.absorption = player.getAbsorptionAmount();
-		}
+	public static SerializedPlayer fromSnapshot(final @NotNull TenacityConfig.TenacityStorageConfig config,
+												final @NotNull PlayerSnapshot snapshot,
+												final @NotNull ToIntFunction<NamespacedKey> recipeIds,
+												final @NotNull ToIntFunction<String> criterionIds) {
+		final var serial = new SerializedPlayer(snapshot.uuid);
+		serial.sections.addAll(snapshot.sections);
+		serial.air = snapshot.air;
+		serial.health = snapshot.health;
+		serial.fire = snapshot.fire;
+		serial.glowing = snapshot.glowing;
+		serial.absorption = snapshot.absorption;
+		serial.xpLevel = snapshot.xpLevel;
+		serial.xpPercentage = snapshot.xpPercentage;
+		serial.xpTotal = snapshot.xpTotal;
+		serial.foodLevel = snapshot.foodLevel;
+		serial.foodExhaustion = snapshot.foodExhaustion;
+		serial.foodSaturation = snapshot.foodSaturation;
+		serial.selectedSlot = snapshot.selectedSlot;
 
-		if (config.experience) {
-			serial.xpLevel = player.getLevel();
-			serial.xpPercentage = (double) player.getExp();
-			serial.xpTotal = player.getTotalExperience();
-		}
-
-		if (config.food) {
-			serial.foodLevel = player.getFoodLevel();
-			serial.foodExhaustion = (double) player.getExhaustion();
-			serial.foodSaturation = (double) player.getSaturation();
-		}
-
-		if (config.effects) {
+		if (snapshot.activeEffects != null) {
 			final var effects = new ArrayList<Map<String, Object>>();
-			for (final var effect : player.getActivePotionEffects()) effects.add(effect.serialize());
+			for (final var effect : snapshot.activeEffects) effects.add(effect.serialize());
 			serial.activeEffects = GSON.toJson(effects);
 		}
 
-		if (config.recipeBook) {
-			final var entries = new ArrayList<String>();
-			for (final var entry : player.getDiscoveredRecipes()) entries.add(entry.toString());
-			serial.recipeBook = GSON.toJson(entries);
+		if (snapshot.recipeBook != null) {
+			final var encoded = RecipeCodec.encode(snapshot.recipeBook, recipeIds);
+			serial.recipeBook = encoded != null ? encoded : RecipeCodec.encodeLegacy(snapshot.recipeBook);
 		}
 
-		if (config.inventory) {
-			final var inventory = player.getInventory();
-			serial.selectedSlot = inventory.getHeldItemSlot();
-			serial.inventory = dumpItems(inventory.getContents());
-			serial.armorItems = dumpItems(inventory.getArmorContents());
-			serial.enderChest = GSON.toJson(player.getEnderChest().getContents());
+		if (snapshot.inventory != null) serial.inventory = ItemCodec.encode(snapshot.inventory, config.compressItems);
+		if (snapshot.armorItems != null) serial.armorItems = ItemCodec.encode(snapshot.armorItems, config.compressItems);
+		if (snapshot.enderChest != null) serial.enderChest = ItemCodec.encode(snapshot.enderChest, config.compressItems);
+
+		if (snapshot.advancements != null) {
+			final var encoded = AdvancementCodec.encode(snapshot.advancements, criterionIds);
+			serial.advancements = encoded != null ? encoded : AdvancementCodec.encodeJson(snapshot.advancements);
 		}
 
+		if (snapshot.statistics != null) serial.statistics = StatisticCodec.encode(snapshot.statistics);
+		if (snapshot.persistentData != null) serial.persistentData = snapshot.persistentData;
+
 		return serial;
 	}
 
 	/**
-	 * Loads a serialized player from a {@link ResultSet}. It is required that the result set have
-	 * all columns present.
+	 * Loads a serialized player from a {@link ResultSet}. Only the sections enabled in the given config
+	 * are read, so the result set only needs to contain their columns. Columns which are <tt>NULL</tt> are
+	 * left as <tt>null</tt>.
 	 *
 	 * @param result The result set to query from.
+	 * @param config The config defining which sections to read.
 	 * @return The serialized player instance from the database.
 	 */
-	public static SerializedPlayer fromDatabase(final @NotNull ResultSet result) throws SQLException {
+	public static SerializedPlayer fromDatabase(final @NotNull ResultSet result,
+												final @NotNull TenacityConfig.TenacitySavingConfig config) throws SQLException {
 		final var serial = new SerializedPlayer(UUID.fromString(result.getString("uuid")));
-		serial.air = result.getInt("air");
-		serial.fire = result.getInt("fire");
-		serial.glowing = result.getBoolean("glowing");
-		serial.health = result.getDouble("health");
-		serial.absorption = result.getDouble("absorption");
-		serial.activeEffects = result.getString("active_effects");
-		serial.recipeBook = result.getString("recipe_book");
-		serial.selectedSlot = result.getInt("selected_slot");
-		serial.foodLevel = result.getInt("food_level");
-		serial.foodExhaustion = result.getDouble("food_exhaustion");
-		serial.foodSaturation = result.getDouble("food_saturation");
-		serial.xpLevel = result.getInt("xp_level");
-		serial.xpPercentage = result.getDouble("xp_percentage");
-		serial.xpTotal = result.getInt("xp_total");
-		serial.inventory = result.getString("inventory");
-		serial.enderChest = result.getString("ender_chest");
-		serial.armorItems = result.getString("armor_items");
+		serial.sections.addAll(Section.enabled(config));
+
+		for (final var section : serial.sections) {
+			for (final var column : section.getColumns(config)) serial.setColumn(column, readColumn(result, column));
+		}
+
 		return serial;
 	}
 
 	/**
-	 * Apply the settings from this {@link SerializedPlayer} to the given {@link Player} object.
+	 * Loads a serialized player with all sections from a {@link ResultSet}, regardless of which are saved.
+	 * The result set needs to contain all columns.
 	 *
-	 * @param config The configuration of which values to apply.
-	 * @param target The player to apply to.
+	 * @param result The result set to read from.
+	 * @return The serialized player instance from the database.
 	 */
-	public void apply(final @NotNull TenacityConfig.TenacitySavingConfig config,
-					  final @NotNull Player target) {
-		if (config.health) {
-			target.setRemainingAir(air);
-			target.setHealth(health);
-			target.setFireTicks(fire);
-			target.setGlowing(glowing);
-			target.setAbsorptionAmount(absorption);
-		}
+	public static SerializedPlayer fromDatabase(final @NotNull ResultSet result) throws SQLException {
+		final var serial = new SerializedPlayer(UUID.fromString(result.getString("uuid")));
+		serial.sections.addAll(EnumSet.allOf(Section.class));
 
-		if (config.experience) {
-			target.setLevel(xpLevel);
-			target.setExp(xpPercentage.floatValue());
-			target.setTotalExperience(xpTotal);
+		for (final var section : serial.sections) {
+			for (final var column : section.getAllColumns()) serial.setColumn(column, readColumn(result, column));
 		}
 
-		if (config.food) {
-			target.setFoodLevel(foodLevel);
-			target.setExhaustion(foodExhaustion.floatValue());
-			target.setSaturation(foodSaturation.floatValue());
-		}
+		return serial;
+	}
 
-		if (config.effects) {
-			final List<Map<String, Object>> effects = GSON.fromJson(this.activeEffects, LIST_OF_OBJECTS);
-			for (final var effect : effects) target.addPotionEffect(new PotionEffect(effect));
-		}
+	/**
+	 * Reads a single column from a {@link ResultSet} as the type it is stored as in this class.
+	 *
+	 * @param result The result set to read from.
+	 * @param column The name of the column.
+	 * @return The value of the column or <tt>null</tt> if it is <tt>NULL</tt>.
+	 */
+	private static Object readColumn(final @NotNull ResultSet result, final @NotNull String column) throws SQLException {
+		return switch (column) {
+			case "air", "fire", "selected_slot", "food_level", "xp_level", "xp_total" -> result.getObject(column, Integer.class);
+			case "health", "absorption", "food_exhaustion", "food_saturation", "xp_percentage" -> result.getObject(column, Double.class);
+			case "glowing" -> result.getObject(column, Boolean.class);
+			case "active_effects" -> result.getString(column);
+			case "recipe_book", "inventory", "ender_chest", "armor_items", "advancements", "statistics", "persistent_data" ->
+					result.getBytes(column);
+			default -> throw new IllegalArgumentException("Unknown column %s".formatted(column));
+		};
+	}
 
-		if (config.recipeBook) {
-			final List<String> entries = GSON.fromJson(this.recipeBook, LIST_OF_STRINGS);
-			for (final var entry : entries)
-				target.discoverRecipe(Objects.requireNonNull(NamespacedKey.fromString(entry)));
-		}
+	/**
+	 * Encodes the player's items again in the current format, for example to convert items stored by older
+	 * versions of tenacity or after changing whether items are compressed. Decoding items needs a running
+	 * server.
+	 *
+	 * @param config The storage config to encode items with.
+	 */
+	public void reencodeItems(final @NotNull TenacityConfig.TenacityStorageConfig config) {
+		if (inventory != null) inventory = ItemCodec.encode(ItemCodec.decode(inventory), config.compressItems);
+		if (armorItems != null) armorItems = ItemCodec.encode(ItemCodec.decode(armorItems), config.compressItems);
+		if (enderChest != null) enderChest = ItemCodec.encode(ItemCodec.decode(enderChest), config.compressItems);
+	}
+
+	/**
+	 * Gets the value of a database column.
+	 *
+	 * @param column The name of the column.
+	 * @return The value to store in the column.
+	 */
+	public Object getColumn(final @NotNull String column) {
+		return switch (column) {
+			case "air" -> air;
+			case "fire" -> fire;
+			case "glowing" -> glowing;
+			case "health" -> health;
+			case "absorption" -> absorption;
+			case "active_effects" -> activeEffects;
+			case "recipe_book" -> recipeBook;
+			case "selected_slot" -> selectedSlot;
+			case "food_level" -> foodLevel;
+			case "food_exhaustion" -> foodExhaustion;
+			case "food_saturation" -> foodSaturation;
+			case "xp_level" -> xpLevel;
+			case "xp_percentage" -> xpPercentage;
+			case "xp_total" -> xpTotal;
+			case "inventory" -> inventory;
+			case "ender_chest" -> enderChest;
+			case "armor_items" -> armorItems;
+			case "advancements" -> advancements;
+			case "statistics" -> statistics;
+			case "persistent_data" -> persistentData;
+			default -> throw new IllegalArgumentException("Unknown column %s".formatted(column));
+		};
+	}
 
-		if (config.inventory) {
-			final var contents = loadItems(inventory);
-			final var armor = loadItems(armorItems);
-			final var echest = loadItems(enderChest);
-
-			target.getInventory().clear();
-			target.getInventory().setContents(contents);
-			target.getInventory().setArmorContents(armor);
-			target.getEnderChest().clear();
-			target.getEnderChest().setContents(echest);
-			target.getInventory().setHeldItemSlot(selectedSlot);
+	/**
+	 * Sets the value of a database column.
+	 *
+	 * @param column The name of the column.
+	 * @param value  The value stored in the column.
+	 */
+	public void setColumn(final @NotNull String column, final Object value) {
+		switch (column) {
+			case "air" -> air = (Integer) value;
+			case "fire" -> fire = (Integer) value;
+			case "glowing" -> glowing = (Boolean) value;
+			case "health" -> health = (Double) value;
+			case "absorption" -> absorption = (Double) value;
+			case "active_effects" -> activeEffects = (String) value;
+			// Saves journaled by older versions hold the legacy recipe book as a string
+			case "recipe_book" -> recipeBook = value instanceof final String json ? json.getBytes(StandardCharsets.UTF_8) : (byte[]) value;
+			case "selected_slot" -> selectedSlot = (Integer) value;
+			case "food_level" -> foodLevel = (Integer) value;
+			case "food_exhaustion" -> foodExhaustion = (Double) value;
+			case "food_saturation" -> foodSaturation = (Double) value;
+			case "xp_level" -> xpLevel = (Integer) value;
+			case "xp_percentage" -> xpPercentage = (Double) value;
+			case "xp_total" -> xpTotal = (Integer) value;
+			case "inventory" -> inventory = (byte[]) value;
+			case "ender_chest" -> enderChest = (byte[]) value;
+			case "armor_items" -> armorItems = (byte[]) value;
+			case "advancements" -> advancements = (byte[]) value;
+			case "statistics" -> statistics = (byte[]) value;
+			case "persistent_data" -> persistentData = (byte[]) value;
+			default -> throw new IllegalArgumentException("Unknown column %s".formatted(column));
 		}
 	}
+
+	/**
+	 * Gets the sections which are not stored at all or still stored in an outdated format. These should be
+	 * written again, even if they did not change.
+	 *
+	 * @return The outdated sections.
+	 */
+	public EnumSet<Section> getOutdatedSections() {
+		final var outdated = EnumSet.noneOf(Section.class);
+		if (health == null && xpLevel == null && foodLevel == null) outdated.add(Section.VITALS);
+		if (activeEffects == null) outdated.add(Section.EFFECTS);
+		if (recipeBook == null || RecipeCodec.isLegacy(recipeBook)) outdated.add(Section.RECIPE_BOOK);
+		if (inventory == null || ItemCodec.isLegacy(inventory)) outdated.add(Section.INVENTORY);
+		if (armorItems == null || ItemCodec.isLegacy(armorItems)) outdated.add(Section.ARMOR);
+		if (enderChest == null || ItemCodec.isLegacy(enderChest)) outdated.add(Section.ENDER_CHEST);
+		if (advancements == null || AdvancementCodec.isJson(advancements)) outdated.add(Section.ADVANCEMENTS);
+		if (statistics == null) outdated.add(Section.STATISTICS);
+		if (persistentData == null) outdated.add(Section.PERSISTENT_DATA);
+
+		// Sections which were not read can't be judged
+		outdated.retainAll(sections);
+		return outdated;
+	}
+
+	/**
+	 * Apply the settings from this {@link SerializedPlayer} to the given {@link Player} object. Values
+	 * which have never been stored are skipped. This decodes the data on the calling thread, use an
+	 * {@link ApplyPlan} to decode it off the server thread instead.
+	 *
+	 * @param config The configuration of which values to apply.
+	 * @param target The player to apply to.
+	 */
+	public void apply(final @NotNull TenacityConfig.TenacitySavingConfig config,
+					  final @NotNull Player target) {
+		ApplyPlan.of(config, this).apply(target);
+	}
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import org.bukkit.Material;
+import org.bukkit.Statistic;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Encodes a player's statistics. There are several thousand statistics, one for every block mined, item
+ * used or entity killed, but a player only ever touches a few hundred of them. Only those are stored:
+ *
+ * <pre>
+ *   u8   magic (0x57)
+ *   u8   format version
+ *   the rest is deflated:
+ *     u32  number of statistics
+ *     for every statistic, ordered by key:
+ *       utf  the statistic's key, see {@link #key(Statistic, Material, EntityType)}
+ *       u32  the statistic's value, never zero
+ * </pre>
+ */
+public final class StatisticCodec {
+	private static final byte MAGIC = 0x57;
+	private static final byte VERSION = 1;
+
+	private StatisticCodec() {
+	}
+
+	/**
+	 * Gets the key a statistic is stored as. The key is the statistic's name, followed by the name of the
+	 * block, item or entity for statistics which have one, for example <tt>MINE_BLOCK:STONE</tt>.
+	 *
+	 * @param statistic The statistic.
+	 * @param material  The block or item of the statistic or <tt>null</tt> if it has none.
+	 * @param entity    The entity of the statistic or <tt>null</tt> if it has none.
+	 * @return The key of the statistic.
+	 */
+	public static String key(final @NotNull Statistic statistic, final @Nullable Material material,
+							 final @Nullable EntityType entity) {
+		if (material != null) return statistic.name() + ":" + material.name();
+		if (entity != null) return statistic.name() + ":" + entity.name();
+		return statistic.name();
+	}
+
+	/**
+	 * Encodes statistics.
+	 *
+	 * @param statistics The values of the statistics, by key. Statistics which are zero are skipped.
+	 * @return The encoded statistics.
+	 */
+	public static byte @NotNull [] encode(final @NotNull Map<String, Integer> statistics) {
+		// Sorting keeps the encoding stable, so unchanged statistics don't show up in the history's deltas
+		final var sorted = new TreeMap<String, Integer>();
+		for (final var entry : statistics.entrySet()) if (entry.getValue() != 0) sorted.put(entry.getKey(), entry.getValue());
+
+		final var bytes = new ByteArrayOutputStream(sorted.size() * 8 + 16);
+		bytes.write(MAGIC);
+		bytes.write(VERSION);
+
+		final var deflater = new Deflater(Deflater.BEST_SPEED);
+		try (final var out = new DataOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+			out.writeInt(sorted.size());
+			for (final var entry : sorted.entrySet()) {
+				out.writeUTF(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+		} catch (final IOException e) {
+			// Writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		} finally {
+			deflater.end();
+		}
+
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Decodes statistics encoded by {@link #encode(Map)}.
+	 *
+	 * @param data The encoded statistics.
+	 * @return The values of all non-zero statistics, by key.
+	 * @throws IllegalArgumentException If the data is corrupt.
+	 */
+	public static @NotNull Map<String, Integer> decode(final byte @NotNull [] data) {
+		if (data.length < 2 || data[0] != MAGIC) throw new IllegalArgumentException("Unknown statistics format");
+		if (data[1] != VERSION) throw new IllegalArgumentException("Unsupported statistics version %d".formatted(data[1]));
+
+		try (final var in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data, 2, data.length - 2)))) {
+			final var count = in.readInt();
+			final var statistics = new HashMap<String, Integer>();
+			for (int i = 0; i < count; i++) statistics.put(in.readUTF(), in.readInt());
+			return statistics;
+		} catch (final IOException e) {
+			throw new IllegalArgumentException("Corrupt statistics", e);
+		}
+	}
+
+	/**
+	 * Looks up the statistics behind stored keys, so that applying them is cheap. Keys of statistics, blocks,
+	 * items or entities this server doesn't know, for example because they were stored by a newer version,
+	 * are skipped. May be called from any thread.
+	 *
+	 * @param statistics The values of the statistics, by key.
+	 * @return The statistics which can be applied to a player.
+	 */
+	public static @NotNull List<Entry> resolve(final @NotNull Map<String, Integer> statistics) {
+		final var entries = new ArrayList<Entry>(statistics.size());
+		for (final var stored : statistics.entrySet()) {
+			final var entry = resolve(stored.getKey(), stored.getValue());
+			if (entry != null) entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	private static @Nullable Entry resolve(final @NotNull String key, final int value) {
+		final var separator = key.indexOf(':');
+
+		try {
+			final var statistic = Statistic.valueOf(separator < 0 ? key : key.substring(0, separator));
+			final var type = statistic.getType();
+			if (separator < 0) return type == Statistic.Type.UNTYPED ? new Entry(statistic, null, null, value) : null;
+
+			final var qualifier = key.substring(separator + 1);
+			return switch (type) {
+				case BLOCK, ITEM -> {
+					final var material = Material.getMaterial(qualifier);
+					yield material != null ? new Entry(statistic, material, null, value) : null;
+				}
+				case ENTITY -> new Entry(statistic, null, EntityType.valueOf(qualifier), value);
+				case UNTYPED -> null;
+			};
+		} catch (final IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * A statistic of a player, ready to be applied.
+	 *
+	 * @param statistic The statistic.
+	 * @param material  The block or item of the statistic or <tt>null</tt> if it has none.
+	 * @param entity    The entity of the statistic or <tt>null</tt> if it has none.
+	 * @param value     The value of the statistic.
+	 */
+	public record Entry(@NotNull Statistic statistic, @Nullable Material material, @Nullable EntityType entity, int value) {
+		/**
+		 * Sets the statistic of a player to this value. Must be called from the server thread.
+		 *
+		 * @param player The player to apply to.
+		 */
+		public void apply(final @NotNull Player player) {
+			if (material != null) player.setStatistic(statistic, material, value);
+			else if (entity != null) player.setStatistic(statistic, entity, value);
+			else player.setStatistic(statistic, value);
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import org.bukkit.Material;
+import org.bukkit.Statistic;
+import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Keeps track of a player's non-zero statistics while they are online, so that saving them doesn't mean
+ * reading several thousand statistics on the server thread. The tracker starts out with the statistics
+ * which were loaded and is then updated with every change the server reports. Only the few statistics which
+ * change without being reported, like the distance walked or the time played, are read again when saving.
+ * <p>
+ * If none of the player's statistics were stored yet, all of them have to be read once. Since these are
+ * several thousand calls, reading them is split into small parts, see {@link #scanPart(Player)}. The tracker
+ * is incomplete until all parts have been read. If statistics were stored, they are scanned the same way to
+ * reset statistics the player has on this server, but which are zero in the stored ones.
+ * <p>
+ * Statistics which count time change every tick. They are kept up to date, but changes to them are not
+ * counted, so that players aren't saved at every autosave just for being online. They are written whenever
+ * other statistics are and when the player leaves.
+ * <p>
+ * All methods must be called from the server thread.
+ */
+public final class StatisticTracker {
+	private static final List<Statistic> UNTYPED = Arrays.stream(Statistic.values()).filter(s -> s.getType() == Statistic.Type.UNTYPED).toList();
+	private static final List<Material> BLOCKS = Arrays.stream(Material.values()).filter(m -> m.isBlock() && !m.isLegacy()).toList();
+	private static final List<Material> ITEMS = Arrays.stream(Material.values()).filter(m -> m.isItem() && !m.isLegacy()).toList();
+	private static final List<EntityType> ENTITIES = Arrays.stream(EntityType.values()).filter(e -> e != EntityType.UNKNOWN).toList();
+	private static final int PART_SIZE = 256;
+	private static final List<Part> PARTS = parts();
+	private static final Set<String> TIME = Set.of(Statistic.PLAY_ONE_MINUTE.name(), Statistic.TIME_SINCE_DEATH.name(),
+			Statistic.TIME_SINCE_REST.name(), Statistic.TOTAL_WORLD_TIME.name(), Statistic.SNEAK_TIME.name());
+
+	private final HashMap<String, Integer> values;
+	private final @Nullable Set<String> stored;
+	private long version = 0;
+	private int nextPart = 0;
+
+	private StatisticTracker(final @NotNull Map<String, Integer> values, final @Nullable Set<String> stored) {
+		this.values = new HashMap<>(values);
+		this.stored = stored;
+	}
+
+	/**
+	 * Starts tracking statistics which were just loaded and applied to the player. Statistics which are
+	 * not stored are reset by calling {@link #scanPart(Player)} until it returns <tt>false</tt>.
+	 *
+	 * @param stored The stored statistics, by key.
+	 * @return The tracker created.
+	 */
+	public static StatisticTracker of(final @NotNull Map<String, Integer> stored) {
+		return new StatisticTracker(stored, Set.copyOf(stored.keySet()));
+	}
+
+	/**
+	 * Starts tracking statistics which have to be read from the player first, because none of them have
+	 * been stored yet. The statistics are read by calling {@link #scanPart(Player)} until it returns
+	 * <tt>false</tt>.
+	 *
+	 * @return The tracker created.
+	 */
+	public static StatisticTracker scan() {
+		return new StatisticTracker(Map.of(), null);
+	}
+
+	/**
+	 * Reads all non-zero statistics of a player.
+	 *
+	 * @param player The player to read from.
+	 * @return The statistics, by key. See {@link StatisticCodec#key(Statistic, Material, EntityType)}.
+	 */
+	public static Map<String, Integer> readAll(final @NotNull Player player) {
+		final var values = new HashMap<String, Integer>();
+		for (final var part : PARTS) part.read(player, (key, value) -> put(values, key, value));
+		return values;
+	}
+
+	/**
+	 * Reads the next part of the player's statistics. If statistics were stored, the player's statistics
+	 * which are not are set to zero, otherwise the statistics read are tracked.
+	 *
+	 * @param player The player to read from.
+	 * @return <tt>true</tt> if there are more parts to read and <tt>false</tt> if the scan is done.
+	 */
+	public boolean scanPart(final @NotNull Player player) {
+		if (nextPart >= PARTS.size()) return false;
+		final var part = PARTS.get(nextPart++);
+
+		if (stored == null) {
+			// Statistics reported while scanning are up-to-date already, reading them again doesn't change that
+			part.read(player, this::record);
+		} else {
+			part.read(player, (key, value) -> {
+				if (value == 0 || stored.contains(key)) return;
+
+				// Anything the player gained here since joining is dropped as well, the stored value is zero
+				for (final var entry : StatisticCodec.resolve(Map.of(key, 0))) entry.apply(player);
+				record(key, 0);
+			});
+		}
+
+		return nextPart < PARTS.size();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the tracker knows all of the player's statistics and <tt>false</tt> if they are
+	 * still being scanned.
+	 */
+	public boolean isComplete() {
+		return stored != null || nextPart >= PARTS.size();
+	}
+
+	/**
+	 * Checks whether changes of a statistic count as changes of the player's statistics. Statistics which
+	 * count time don't.
+	 *
+	 * @param key The key of the statistic, see {@link StatisticCodec#key(Statistic, Material, EntityType)}.
+	 * @return <tt>true</tt> if changes of the statistic are counted.
+	 */
+	public static boolean isCounted(final @NotNull String key) {
+		return !TIME.contains(key);
+	}
+
+	/**
+	 * Records a change of a statistic reported by the server. Changes of statistics which count time don't
+	 * change the version.
+	 *
+	 * @param key   The key of the statistic, see {@link StatisticCodec#key(Statistic, Material, EntityType)}.
+	 * @param value The new value of the statistic.
+	 */
+	public void record(final @NotNull String key, final int value) {
+		final var previous = value != 0 ? values.put(key, value) : values.remove(key);
+		if ((previous == null ? value != 0 : previous != value) && isCounted(key)) version++;
+	}
+
+	/**
+	 * Reads the statistics again which change without being reported.
+	 *
+	 * @param player The player to read from.
+	 * @return A number which changes whenever any of the tracked statistics, except those counting time,
+	 * changed.
+	 */
+	public long refresh(final @NotNull Player player) {
+		for (final var statistic : UNTYPED) record(StatisticCodec.key(statistic, null, null), player.getStatistic(statistic));
+		return version;
+	}
+
+	/**
+	 * @return A copy of all non-zero statistics, by key.
+	 */
+	public Map<String, Integer> copy() {
+		return new HashMap<>(values);
+	}
+
+	private static void put(final Map<String, Integer> values, final String key, final int value) {
+		if (value != 0) values.put(key, value);
+	}
+
+	private static List<Part> parts() {
+		final var parts = new ArrayList<Part>();
+		parts.add(new Part(null, 0, UNTYPED.size()));
+
+		for (final var statistic : Statistic.values()) {
+			final var size = switch (statistic.getType()) {
+				case UNTYPED -> 0;
+				case BLOCK -> BLOCKS.size();
+				case ITEM -> ITEMS.size();
+				case ENTITY -> ENTITIES.size();
+			};
+
+			for (int i = 0; i < size; i += PART_SIZE) parts.add(new Part(statistic, i, Math.min(i + PART_SIZE, size)));
+		}
+
+		return List.copyOf(parts);
+	}
+
+	/**
+	 * A slice of all statistics which is cheap enough to be read within a single tick.
+	 *
+	 * @param statistic The statistic of the blocks, items or entities to read, or <tt>null</tt> to read the
+	 *                  untyped statistics.
+	 * @param from      The index of the first block, item, entity or untyped statistic to read.
+	 * @param to        The index after the last one to read.
+	 */
+	private record Part(@Nullable Statistic statistic, int from, int to) {
+		void read(final Player player, final ObjIntConsumer<String> consumer) {
+			if (statistic == null) {
+				for (final var untyped : UNTYPED.subList(from, to)) {
+					consumer.accept(StatisticCodec.key(untyped, null, null), player.getStatistic(untyped));
+				}
+
+				return;
+			}
+
+			if (statistic.getType() == Statistic.Type.ENTITY) {
+				for (final var entity : ENTITIES.subList(from, to)) {
+					try {
+						consumer.accept(StatisticCodec.key(statistic, null, entity), player.getStatistic(statistic, entity));
+					} catch (final IllegalArgumentException e) {
+						// Not every entity has every statistic
+					}
+				}
+
+				return;
+			}
+
+			for (final var material : (statistic.getType() == Statistic.Type.BLOCK ? BLOCKS : ITEMS).subList(from, to)) {
+				try {
+					consumer.accept(StatisticCodec.key(statistic, material, null), player.getStatistic(statistic, material));
+				} catch (final IllegalArgumentException e) {
+					// Not every block or item has every statistic
+				}
+			}
+		}
+	}
+}
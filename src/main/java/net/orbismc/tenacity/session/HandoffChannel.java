@@ -0,0 +1,130 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.session;
+
+import net.orbismc.tenacity.Tenacity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.messaging.PluginMessageListener;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Tells the other servers in the network when this server has handed back the data of leaving players,
+ * so that a server waiting to load one of them tries again right away instead of at its next retry. Only
+ * the players' ids are sent; the data itself is always read from the database, so a lost or late message
+ * only means that loading takes as long as without this channel.
+ * <p>
+ * Messages are sent through the proxy with BungeeCord's <tt>Forward</tt> message, which Velocity supports
+ * too. Like all plugin messages, they can only be sent while a player is online on this server.
+ */
+public final class HandoffChannel implements PluginMessageListener {
+	private static final String CHANNEL = "BungeeCord";
+	private static final String SUBCHANNEL = "tenacity:handoff";
+	private static final int VERSION = 1;
+
+	// Keeps messages well below the size limit of plugin messages
+	private static final int MAX_PLAYERS = 1024;
+
+	private final Tenacity plugin;
+
+	public HandoffChannel(final @NotNull Tenacity plugin) {
+		this.plugin = plugin;
+	}
+
+	/**
+	 * Starts sending and receiving messages.
+	 */
+	public void register() {
+		final var messenger = plugin.getServer().getMessenger();
+		messenger.registerOutgoingPluginChannel(plugin, CHANNEL);
+		messenger.registerIncomingPluginChannel(plugin, CHANNEL, this);
+	}
+
+	/**
+	 * Announces that the leases on the given players' data have been handed back. Does nothing if no player
+	 * is online to carry the message. Must be called from the server thread.
+	 *
+	 * @param players The players who were handed back.
+	 */
+	public void publish(final @NotNull List<UUID> players) {
+		final var carrier = plugin.getServer().getOnlinePlayers().stream().findFirst().orElse(null);
+		if (carrier == null) return;
+
+		for (int i = 0; i < players.size(); i += MAX_PLAYERS) {
+			send(carrier, players.subList(i, Math.min(i + MAX_PLAYERS, players.size())));
+		}
+	}
+
+	private void send(final @NotNull Player carrier, final @NotNull List<UUID> players) {
+		try {
+			final var payload = new ByteArrayOutputStream();
+			final var data = new DataOutputStream(payload);
+			data.writeByte(VERSION);
+			data.writeUTF(plugin.getServerId());
+			data.writeShort(players.size());
+			for (final var uuid : players) {
+				data.writeLong(uuid.getMostSignificantBits());
+				data.writeLong(uuid.getLeastSignificantBits());
+			}
+
+			final var message = new ByteArrayOutputStream();
+			final var out = new DataOutputStream(message);
+			out.writeUTF("Forward");
+			out.writeUTF("ONLINE");
+			out.writeUTF(SUBCHANNEL);
+			out.writeShort(payload.size());
+			out.write(payload.toByteArray());
+
+			carrier.sendPluginMessage(plugin, CHANNEL, message.toByteArray());
+		} catch (final IOException e) {
+			// Writing to a byte array does not fail
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Override
+	public void onPluginMessageReceived(final @NotNull String channel, final @NotNull Player player, final byte @NotNull [] message) {
+		if (!CHANNEL.equals(channel)) return;
+
+		final List<UUID> players;
+		try {
+			final var in = new DataInputStream(new ByteArrayInputStream(message));
+			if (!SUBCHANNEL.equals(in.readUTF())) return;
+
+			final var payload = new byte[in.readUnsignedShort()];
+			in.readFully(payload);
+
+			final var data = new DataInputStream(new ByteArrayInputStream(payload));
+			if (data.readUnsignedByte() != VERSION) return;
+			if (plugin.getServerId().equals(data.readUTF())) return;
+
+			final var count = data.readUnsignedShort();
+			players = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) players.add(new UUID(data.readLong(), data.readLong()));
+		} catch (final IOException e) {
+			// Some other plugin's message or a malformed one
+			return;
+		}
+
+		for (final var uuid : players) {
+			final var session = plugin.getSession(uuid);
+			if (session == null) continue;
+
+			final var state = session.getState();
+			if (state != PlayerSession.State.PREFETCHING && state != PlayerSession.State.LOADING) continue;
+
+			plugin.getMetrics().handoffWakeups.increment();
+			session.getTask().wake();
+		}
+	}
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.session;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.serial.SectionFingerprints;
+import net.orbismc.tenacity.serial.StatisticTracker;
+import net.orbismc.tenacity.task.LoadPlayerTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The state of a player's data on this server, from the moment it starts being fetched until the final save
+ * after they left has been written. Every state change is an atomic compare-and-set, so sessions may be
+ * inspected and advanced from any thread, and of two competing changes, like a load finishing while the
+ * player quits, exactly one wins.
+ * <p>
+ * A player who rejoins while the final save of their previous session is still being written gets a new
+ * session. It only claims the player's data once that save is done, so it never reads outdated data.
+ */
+public final class PlayerSession {
+	private final UUID uuid;
+	private final LoadPlayerTask task;
+	private final AtomicReference<State> state;
+	private volatile @Nullable PlayerSession predecessor;
+	private @Nullable SectionFingerprints fingerprints = null;
+	private @Nullable StatisticTracker statistics = null;
+
+	/**
+	 * @param plugin      The plugin instance.
+	 * @param uuid        The player the session belongs to.
+	 * @param state       The state to start in, either {@link State#PREFETCHING} or {@link State#LOADING}.
+	 * @param predecessor The player's previous session, if its final save may still be in progress.
+	 */
+	public PlayerSession(final @NotNull Tenacity plugin, final @NotNull UUID uuid, final @NotNull State state,
+						 final @Nullable PlayerSession predecessor) {
+		if (state != State.PREFETCHING && state != State.LOADING) {
+			throw new IllegalArgumentException("Sessions must start out prefetching or loading, not " + state);
+		}
+
+		this.uuid = uuid;
+		this.state = new AtomicReference<>(state);
+		this.predecessor = predecessor;
+		this.task = new LoadPlayerTask(plugin, this);
+	}
+
+	/**
+	 * @return The player the session belongs to.
+	 */
+	public UUID getUUID() {
+		return uuid;
+	}
+
+	/**
+	 * @return The task loading the player's data.
+	 */
+	public LoadPlayerTask getTask() {
+		return task;
+	}
+
+	/**
+	 * @return The current state of the session.
+	 */
+	public State getState() {
+		return state.get();
+	}
+
+	/**
+	 * @return <tt>true</tt> if the player's data has been applied and may be saved.
+	 */
+	public boolean isReady() {
+		return state.get() == State.READY;
+	}
+
+	/**
+	 * Moves the session from one state to another if it is still in the expected state.
+	 *
+	 * @param expected The state the session must be in.
+	 * @param next     The state to move to.
+	 * @return <tt>true</tt> if the state was changed and <tt>false</tt> if the session was no longer in the
+	 * expected state.
+	 * @throws IllegalArgumentException If the session may never move from <tt>expected</tt> to <tt>next</tt>.
+	 */
+	public boolean transition(final @NotNull State expected, final @NotNull State next) {
+		if (!expected.canBecome(next)) {
+			throw new IllegalArgumentException("Invalid session transition from %s to %s".formatted(expected, next));
+		}
+
+		return state.compareAndSet(expected, next);
+	}
+
+	/**
+	 * Ends the session if the player's data has not been applied yet. Any load in progress is cancelled and
+	 * data which has already been claimed is handed back.
+	 *
+	 * @return <tt>true</tt> if the session was ended and <tt>false</tt> if it is already ready or saving.
+	 */
+	public boolean abandon() {
+		// Once the player has joined, the load hands back the claim itself when it sees it was cancelled
+		if (transition(State.LOADING, State.SAVED)) {
+			task.cancel();
+			return true;
+		}
+
+		if (transition(State.PREFETCHING, State.SAVED)) {
+			task.discard();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks whether the player's previous session has written its final save, so that their data may be
+	 * claimed.
+	 *
+	 * @return <tt>true</tt> if there is no previous session or it is done saving.
+	 */
+	public boolean isHandedOver() {
+		final var previous = predecessor;
+		if (previous == null) return true;
+		if (previous.getState() != State.SAVED) return false;
+
+		predecessor = null;
+		return true;
+	}
+
+	/**
+	 * Gets the fingerprints of the player's data as it is stored in the database. Must be called from the
+	 * server thread.
+	 *
+	 * @return The fingerprints or <tt>null</tt> if nothing has been stored yet.
+	 */
+	public @Nullable SectionFingerprints getFingerprints() {
+		return fingerprints;
+	}
+
+	/**
+	 * Remembers the state of the player's data as it is stored in the database. Only sections which differ
+	 * from this state are written when the player is saved. Must be called from the server thread.
+	 *
+	 * @param fingerprints The fingerprints of the player's data as stored in the database.
+	 */
+	public void setFingerprints(final @Nullable SectionFingerprints fingerprints) {
+		this.fingerprints = fingerprints;
+	}
+
+	/**
+	 * Gets the tracker of the player's statistics. Must be called from the server thread.
+	 *
+	 * @return The tracker or <tt>null</tt> if statistics are not saved or the player's data hasn't been
+	 * applied yet.
+	 */
+	public @Nullable StatisticTracker getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Starts tracking the player's statistics once their data has been applied. Must be called from the
+	 * server thread.
+	 *
+	 * @param statistics The tracker of the player's statistics.
+	 */
+	public void setStatistics(final @Nullable StatisticTracker statistics) {
+		this.statistics = statistics;
+	}
+
+	/**
+	 * The states of a session. Sessions only ever move forward through these states, optionally skipping
+	 * straight to {@link #SAVED} if the player never finished loading.
+	 */
+	public enum State {
+		/**
+		 * The player is about to join and their data is being fetched.
+		 */
+		PREFETCHING,
+
+		/**
+		 * The player has joined and their data is being fetched or applied.
+		 */
+		LOADING,
+
+		/**
+		 * The player's data has been applied. They may interact with it and it is saved periodically.
+		 */
+		READY,
+
+		/**
+		 * The player has left and their final save is being written.
+		 */
+		SAVING,
+
+		/**
+		 * The session has ended. The player's data has been saved or was never loaded.
+		 */
+		SAVED;
+
+		/**
+		 * @param next The state to move to.
+		 * @return <tt>true</tt> if a session in this state may move to <tt>next</tt>.
+		 */
+		public boolean canBecome(final @NotNull State next) {
+			return switch (this) {
+				case PREFETCHING -> next == LOADING || next == SAVED;
+				case LOADING -> next == READY || next == SAVED;
+				case READY -> next == SAVING;
+				case SAVING -> next == SAVED;
+				case SAVED -> false;
+			};
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Stops accessing the store while it is failing or too slow to keep up. Every call to the store is
+ * recorded, and once enough calls in a row failed or took too long, the breaker opens: calls are then
+ * rejected right away instead of waiting for the store. Loads are retried later and saves stay in the
+ * journal, so players simply wait a little longer instead of every thread piling up on a broken database.
+ * <p>
+ * After a while, the breaker lets a single call through to probe the store. If that call succeeds in
+ * time, the breaker closes again, otherwise it stays open for another while. Calls which were let through
+ * before the breaker opened may still finish afterwards, so every call is handed a {@link Permit} telling
+ * which of them is the probe and which ones are outdated.
+ */
+public final class CircuitBreaker {
+	private final Logger logger;
+	private final int failureThreshold;
+	private final long slowCallNanos;
+	private final long openNanos;
+
+	private State state = State.CLOSED;
+	private int failures = 0;
+	private long openedAt = 0;
+	private boolean probing = false;
+	private long generation = 0;
+
+	/**
+	 * @param config The configuration of the breaker. If it is disabled, all calls are let through.
+	 * @param logger The logger to report opening and closing the breaker to.
+	 */
+	public CircuitBreaker(final @NotNull TenacityConfig.TenacityBreakerConfig config, final @NotNull Logger logger) {
+		this.logger = logger;
+		this.failureThreshold = config.enabled ? Math.max(1, config.failureThreshold) : Integer.MAX_VALUE;
+		this.slowCallNanos = config.slowCall > 0 ? TimeUnit.MILLISECONDS.toNanos(config.slowCall) : Long.MAX_VALUE;
+		this.openNanos = TimeUnit.SECONDS.toNanos(Math.max(1, config.openDuration));
+	}
+
+	/**
+	 * Asks whether a call to the store may be made now. Every call let through must be followed by
+	 * {@link #record(Permit, boolean, long)}.
+	 *
+	 * @return The permit to make the call or <tt>null</tt> if it should fail right away.
+	 */
+	public synchronized @Nullable Permit tryAcquire() {
+		switch (state) {
+			case CLOSED -> {
+				return new Permit(generation, false);
+			}
+			case OPEN -> {
+				if (System.nanoTime() - openedAt < openNanos) return null;
+				state = State.HALF_OPEN;
+			}
+		}
+
+		// Only one call at a time probes the store
+		if (probing) return null;
+		probing = true;
+		return new Permit(generation, true);
+	}
+
+	/**
+	 * Records the outcome of a call which was let through. Only the probe decides whether a half-open
+	 * breaker closes, and calls let through before the breaker last opened are ignored.
+	 *
+	 * @param permit  The permit the call was made with.
+	 * @param failed  <tt>true</tt> if the call failed.
+	 * @param elapsed The time the call took in nanoseconds. Calls slower than configured count as failed.
+	 */
+	public synchronized void record(final @NotNull Permit permit, final boolean failed, final long elapsed) {
+		if (permit.generation() != generation) return;
+		final var bad = failed || elapsed > slowCallNanos;
+
+		if (permit.probe()) {
+			probing = false;
+
+			if (bad) {
+				open();
+			} else {
+				state = State.CLOSED;
+				failures = 0;
+				logger.info("The database is responding again, resuming loading and saving players");
+			}
+
+			return;
+		}
+
+		if (!bad) {
+			failures = 0;
+		} else if (++failures >= failureThreshold && state == State.CLOSED) {
+			logger.severe("%d database calls in a row failed or were too slow, pausing database access for %d seconds".formatted(
+					failures, TimeUnit.NANOSECONDS.toSeconds(openNanos)));
+			open();
+		}
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		failures = 0;
+		generation++;
+	}
+
+	/**
+	 * @return The current state of the breaker.
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Allows a single call to the store.
+	 *
+	 * @param generation The number of times the breaker had opened when the call was let through.
+	 * @param probe      <tt>true</tt> if the call probes whether the store has recovered.
+	 */
+	public record Permit(long generation, boolean probe) {
+	}
+
+	public enum State {
+		/**
+		 * All calls are let through.
+		 */
+		CLOSED,
+
+		/**
+		 * All calls are rejected.
+		 */
+		OPEN,
+
+		/**
+		 * A single call is let through to find out whether the store has recovered.
+		 */
+		HALF_OPEN
+	}
+}
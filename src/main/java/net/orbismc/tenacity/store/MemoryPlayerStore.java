@@ -0,0 +1,368 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.db.DatabaseMetrics;
+import net.orbismc.tenacity.serial.ColumnCodec;
+import net.orbismc.tenacity.serial.AdvancementCodec;
+import net.orbismc.tenacity.serial.RecipeCodec;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Keeps player data in memory. Nothing is written to disk, so all data is lost once the server stops. This
+ * is meant for testing and benchmarking, where setting up a database would only get in the way. Leases
+ * behave just like they do in a database, so the rest of tenacity can't tell the difference.
+ */
+final class MemoryPlayerStore implements PlayerStore {
+	private final ConcurrentHashMap<UUID, Row> rows = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<NamespacedKey, Integer> recipeIds = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, NamespacedKey> recipeKeys = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, Integer> criterionIds = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<Integer, String> criterionKeys = new ConcurrentHashMap<>();
+	private final AtomicLong snapshotIds = new AtomicLong();
+	private final TenacityConfig.TenacitySavingConfig saving;
+	private final String serverId;
+	private final long leaseMillis;
+	private final boolean recordHistory;
+	private final int keyframeInterval;
+
+	/**
+	 * @param config   The configuration.
+	 * @param serverId The id this server uses to claim ownership of player data.
+	 */
+	MemoryPlayerStore(final @NotNull TenacityConfig config, final @NotNull String serverId) {
+		this.saving = config.saving;
+		this.serverId = serverId;
+		this.leaseMillis = config.lease.duration * 1000L;
+		this.recordHistory = config.history.enabled;
+		this.keyframeInterval = Math.max(1, config.history.keyframeInterval);
+	}
+
+	@Override
+	public void open() {
+	}
+
+	@Override
+	public Claim claim(final @NotNull UUID uuid) {
+		final var now = System.currentTimeMillis();
+		final var result = new Claim[1];
+
+		rows.compute(uuid, (key, row) -> {
+			if (row == null) {
+				// The player joined for the first time
+				row = new Row();
+				row.version = 1;
+				row.owner = serverId;
+				row.leaseExpires = now + leaseMillis;
+				result[0] = new Claim(true, null, 1);
+				return row;
+			}
+
+			if (row.owner != null && !row.owner.equals(serverId) && row.leaseExpires >= now) {
+				result[0] = Claim.BUSY;
+				return row;
+			}
+
+			row.version++;
+			row.owner = serverId;
+			row.leaseExpires = now + leaseMillis;
+			result[0] = new Claim(true, read(uuid, row), row.version);
+			return row;
+		});
+
+		return result[0];
+	}
+
+	@Override
+	public void release(final @NotNull UUID uuid, final long version) {
+		rows.computeIfPresent(uuid, (key, row) -> {
+			if (serverId.equals(row.owner) && row.version == version) {
+				row.version++;
+				row.owner = null;
+				row.leaseExpires = 0;
+			}
+
+			return row;
+		});
+	}
+
+	@Override
+	public void renewLeases(final @NotNull Collection<UUID> uuids) {
+		final var expires = System.currentTimeMillis() + leaseMillis;
+		for (final var uuid : uuids) {
+			rows.computeIfPresent(uuid, (key, row) -> {
+				if (!serverId.equals(row.owner)) return row;
+				row.version++;
+				row.leaseExpires = expires;
+				return row;
+			});
+		}
+	}
+
+	@Override
+	public List<UUID> save(final @NotNull List<Write> writes) {
+		final var rejected = new ArrayList<UUID>();
+		final var expires = System.currentTimeMillis() + leaseMillis;
+
+		for (final var write : writes) {
+			final var uuid = write.serial().uuid;
+			final var accepted = new boolean[1];
+
+			rows.computeIfPresent(uuid, (key, row) -> {
+				if (!serverId.equals(row.owner)) return row;
+
+				for (final var column : write.columns()) row.columns.put(column, write.serial().getColumn(column));
+				row.version++;
+				row.owner = write.release() ? null : serverId;
+				row.leaseExpires = write.release() ? 0 : expires;
+				if (recordHistory) record(row, write);
+				accepted[0] = true;
+				return row;
+			});
+
+			if (!accepted[0]) rejected.add(uuid);
+		}
+
+		return rejected;
+	}
+
+	@Override
+	public void exportPlayers(final int fetchSize, final @NotNull Consumer<SerializedPlayer> consumer) {
+		for (final var uuid : rows.keySet()) {
+			final var serial = new SerializedPlayer(uuid);
+			serial.sections.addAll(EnumSet.allOf(Section.class));
+
+			rows.computeIfPresent(uuid, (key, row) -> {
+				for (final var section : serial.sections) {
+					for (final var column : section.getAllColumns()) serial.setColumn(column, row.columns.get(column));
+				}
+
+				return row;
+			});
+
+			consumer.accept(serial);
+		}
+	}
+
+	@Override
+	public void importPlayers(final @NotNull List<SerializedPlayer> players) {
+		for (final var serial : players) {
+			rows.compute(serial.uuid, (key, row) -> {
+				if (row == null) row = new Row();
+
+				for (final var section : serial.sections) {
+					for (final var column : section.getAllColumns()) row.columns.put(column, serial.getColumn(column));
+				}
+
+				row.version++;
+				row.owner = null;
+				row.leaseExpires = 0;
+				row.historyDeltas = -1;
+				return row;
+			});
+		}
+	}
+
+	@Override
+	public Map<Integer, NamespacedKey> getRecipeDictionary() {
+		return new HashMap<>(recipeKeys);
+	}
+
+	@Override
+	public Map<Integer, String> getCriterionDictionary() {
+		return new HashMap<>(criterionKeys);
+	}
+
+	@Override
+	public List<Snapshot> listSnapshots(final @NotNull UUID uuid, final int limit) {
+		final var snapshots = new ArrayList<Snapshot>();
+		rows.computeIfPresent(uuid, (key, row) -> {
+			for (int i = row.history.size() - 1; i >= 0 && snapshots.size() < limit; i--) {
+				final var entry = row.history.get(i);
+				snapshots.add(new Snapshot(entry.id(), entry.created(), entry.keyframe(), entry.data().length));
+			}
+
+			return row;
+		});
+
+		return snapshots;
+	}
+
+	@Override
+	public RestoreResult restoreSnapshot(final @NotNull UUID uuid, final long id) {
+		final var now = System.currentTimeMillis();
+		final var result = new RestoreResult[]{RestoreResult.NOT_FOUND};
+
+		rows.computeIfPresent(uuid, (key, row) -> {
+			int end = -1;
+			for (int i = 0; i < row.history.size(); i++) {
+				if (row.history.get(i).id() == id) end = i;
+			}
+
+			if (end < 0) return row;
+
+			int start = end;
+			while (start > 0 && !row.history.get(start).keyframe()) start--;
+
+			if (row.owner != null && row.leaseExpires >= now) {
+				result[0] = RestoreResult.LEASED;
+				return row;
+			}
+
+			final var columns = SnapshotHistory.reconstruct(row.history.subList(start, end + 1));
+			row.columns.putAll(columns);
+			row.version++;
+			appendSnapshot(row, true, columns);
+			result[0] = RestoreResult.RESTORED;
+			return row;
+		});
+
+		return result[0];
+	}
+
+	@Override
+	public int pruneSnapshots(final @NotNull RetentionPolicy policy, final long now) {
+		final var pruned = new int[1];
+		for (final var uuid : rows.keySet()) {
+			rows.computeIfPresent(uuid, (key, row) -> {
+				if (row.history.isEmpty()) return row;
+
+				final var pruning = SnapshotHistory.prune(row.history, policy.select(row.history, now));
+				final var rewritten = new HashMap<Long, SnapshotHistory.Entry>();
+				for (final var entry : pruning.rewritten()) rewritten.put(entry.id(), entry);
+
+				final var deleted = new HashSet<>(pruning.deleted());
+				row.history.removeIf(entry -> deleted.contains(entry.id()));
+				row.history.replaceAll(entry -> rewritten.getOrDefault(entry.id(), entry));
+				pruned[0] += pruning.deleted().size();
+				return row;
+			});
+		}
+
+		return pruned[0];
+	}
+
+	@Override
+	public int getRecipeId(final @NotNull NamespacedKey recipe) {
+		return recipeIds.getOrDefault(recipe, -1);
+	}
+
+	@Override
+	public synchronized void registerRecipes(final @NotNull Collection<NamespacedKey> recipes) {
+		for (final var recipe : recipes) {
+			if (recipeIds.containsKey(recipe)) continue;
+
+			// Ids start at 1, just like AUTO_INCREMENT
+			final var id = recipeIds.size() + 1;
+			recipeKeys.put(id, recipe);
+			recipeIds.put(recipe, id);
+		}
+	}
+
+	@Override
+	public int getCriterionId(final @NotNull String criterion) {
+		return criterionIds.getOrDefault(criterion, -1);
+	}
+
+	@Override
+	public synchronized void registerCriteria(final @NotNull Collection<String> criteria) {
+		for (final var criterion : criteria) {
+			if (criterionIds.containsKey(criterion)) continue;
+
+			final var id = criterionIds.size() + 1;
+			criterionKeys.put(id, criterion);
+			criterionIds.put(criterion, id);
+		}
+	}
+
+	@Override
+	public DatabaseMetrics getMetrics() {
+		return new DatabaseMetrics(-1, -1, -1, 0, 0, 0, 0, 0);
+	}
+
+	@Override
+	public void close() {
+		rows.clear();
+	}
+
+	/**
+	 * Reads the enabled sections of a row, like selecting them from the database would.
+	 *
+	 * @param uuid The player the row belongs to.
+	 * @param row  The row to read.
+	 * @return The player's data.
+	 */
+	private SerializedPlayer read(final @NotNull UUID uuid, final @NotNull Row row) {
+		final var serial = new SerializedPlayer(uuid);
+		serial.sections.addAll(Section.enabled(saving));
+
+		for (final var section : serial.sections) {
+			for (final var column : section.getColumns(saving)) serial.setColumn(column, row.columns.get(column));
+		}
+
+		if (serial.recipeBook != null && !RecipeCodec.isLegacy(serial.recipeBook)) {
+			serial.recipes = RecipeCodec.decode(serial.recipeBook, recipeKeys::get);
+		}
+
+		if (serial.advancements != null && !AdvancementCodec.isJson(serial.advancements)) {
+			serial.awardedCriteria = AdvancementCodec.decode(serial.advancements, criterionKeys::get);
+		}
+
+		return serial;
+	}
+
+	/**
+	 * Appends a snapshot of a write to a row's history, like the database does.
+	 *
+	 * @param row   The row written to.
+	 * @param write The write.
+	 */
+	private void record(final @NotNull Row row, final @NotNull Write write) {
+		final var keyframe = row.historyDeltas < 0 || row.historyDeltas + 1 >= keyframeInterval;
+		final var columns = new LinkedHashMap<String, Object>();
+
+		if (keyframe) {
+			columns.putAll(row.columns);
+		} else {
+			for (final var column : write.columns()) columns.put(column, write.serial().getColumn(column));
+		}
+
+		appendSnapshot(row, keyframe, columns);
+	}
+
+	private void appendSnapshot(final @NotNull Row row, final boolean keyframe, final @NotNull Map<String, Object> columns) {
+		row.history.add(new SnapshotHistory.Entry(snapshotIds.incrementAndGet(), System.currentTimeMillis(), keyframe, ColumnCodec.encode(columns)));
+		row.historyDeltas = keyframe ? 0 : row.historyDeltas + 1;
+	}
+
+	/**
+	 * A player's data and the lease on it. Rows are only ever modified while holding their map entry.
+	 */
+	private static final class Row {
+		private final Map<String, Object> columns = new HashMap<>();
+		private long version;
+		private String owner;
+		private long leaseExpires;
+		private final List<SnapshotHistory.Entry> history = new ArrayList<>();
+		private int historyDeltas = -1;
+	}
+}
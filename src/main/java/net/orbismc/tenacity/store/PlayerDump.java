@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.serial.AdvancementCodec;
+import net.orbismc.tenacity.serial.ColumnCodec;
+import net.orbismc.tenacity.serial.RecipeCodec;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Copies all players out of a store into a dump file and back. Used to move a network to another database
+ * or to convert stored data to a newer format. Players are streamed in chunks, so neither exporting nor
+ * importing ever holds more than a few chunks in memory, however many players there are.
+ * <p>
+ * The dump starts with the recipe and criteria dictionaries, since recipe books and advancements only store
+ * ids. Dumps of version 1 have no criteria dictionary.
+ *
+ * <pre>
+ *   u32  magic (0x544E4344)
+ *   u8   format version
+ *   u32  number of recipes
+ *   for every recipe:
+ *     u32  the recipe's id
+ *     utf  the recipe's key
+ *   u32  number of advancement criteria
+ *   for every criterion:
+ *     u32  the criterion's id
+ *     utf  the criterion's key
+ *   for every chunk:
+ *     u32  number of players in the chunk, 0 after the last chunk
+ *     u32  length of the chunk's data
+ *     u8[] the players, deflated:
+ *       u64  most significant bits of the player's UUID
+ *       u64  least significant bits of the player's UUID
+ *       ...  the player's columns, see {@link ColumnCodec#write(java.io.DataOutput, Map)}
+ * </pre>
+ */
+public final class PlayerDump {
+	private static final int MAGIC = 0x544E4344;
+	private static final int VERSION = 2;
+
+	// Chunks are closed after this many players or bytes, whatever comes first
+	private static final int CHUNK_PLAYERS = 256;
+	private static final int CHUNK_BYTES = 4 << 20;
+
+	private PlayerDump() {
+	}
+
+	/**
+	 * Writes all players in a store to a dump.
+	 *
+	 * @param store     The store to read from.
+	 * @param out       The stream to write the dump to. It is not closed.
+	 * @param fetchSize The number of players to fetch from the store at a time.
+	 * @param progress  Called with the number of players written so far after every chunk.
+	 * @return The number of players written.
+	 * @throws StoreException If the store could not be accessed.
+	 * @throws IOException    If writing the dump fails.
+	 */
+	public static long export(final @NotNull PlayerStore store, final @NotNull OutputStream out, final int fetchSize,
+							  final @NotNull LongConsumer progress) throws StoreException, IOException {
+		final var data = new DataOutputStream(out);
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+
+		final var recipes = store.getRecipeDictionary();
+		data.writeInt(recipes.size());
+		for (final var recipe : recipes.entrySet()) {
+			data.writeInt(recipe.getKey());
+			data.writeUTF(recipe.getValue().toString());
+		}
+
+		final var criteria = store.getCriterionDictionary();
+		data.writeInt(criteria.size());
+		for (final var criterion : criteria.entrySet()) {
+			data.writeInt(criterion.getKey());
+			data.writeUTF(criterion.getValue());
+		}
+
+		final var writer = new ChunkWriter(data, progress);
+		try {
+			store.exportPlayers(fetchSize, writer);
+		} catch (final UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		writer.flush();
+		data.writeInt(0);
+		data.flush();
+		return writer.total;
+	}
+
+	/**
+	 * Writes all players in a dump to a store, replacing the data of players who are already stored. Chunks
+	 * are written by several threads in parallel. Leases are neither checked nor taken, so this must only be
+	 * done while no server is using the store.
+	 * <p>
+	 * Recipe books and advancements are converted to the ids of the store if they differ from the ones in the dump.
+	 *
+	 * @param store       The store to write to.
+	 * @param in          The stream to read the dump from. It is not closed.
+	 * @param parallelism The number of chunks written at the same time.
+	 * @param batchSize   The maximum number of players written in a single batch.
+	 * @param convert     Called with every player before it is written, for example to encode their data again,
+	 *                    or <tt>null</tt> to write players as they are stored in the dump.
+	 * @param progress    Called with the number of players written so far after every batch, from any thread.
+	 * @return The number of players written.
+	 * @throws StoreException           If the store could not be accessed.
+	 * @throws IOException              If reading the dump fails.
+	 * @throws IllegalArgumentException If the dump is corrupt.
+	 */
+	public static long importDump(final @NotNull PlayerStore store, final @NotNull InputStream in, final int parallelism,
+								  final int batchSize, final @Nullable Consumer<SerializedPlayer> convert,
+								  final @NotNull LongConsumer progress) throws StoreException, IOException {
+		final var data = new DataInputStream(in);
+		if (data.readInt() != MAGIC) throw new IllegalArgumentException("Not a tenacity dump");
+
+		final var version = data.readUnsignedByte();
+		if (version < 1 || version > VERSION) throw new IllegalArgumentException("Unsupported dump version %d".formatted(version));
+
+		final var recipes = new HashMap<Integer, NamespacedKey>();
+		final var recipeCount = data.readInt();
+		for (int i = 0; i < recipeCount; i++) {
+			final var id = data.readInt();
+			final var key = NamespacedKey.fromString(data.readUTF());
+			if (key != null) recipes.put(id, key);
+		}
+
+		store.registerRecipes(recipes.values());
+		final var remap = recipes.entrySet().stream().anyMatch(r -> store.getRecipeId(r.getValue()) != r.getKey());
+
+		final var criteria = new HashMap<Integer, String>();
+		final var criterionCount = version >= 2 ? data.readInt() : 0;
+		for (int i = 0; i < criterionCount; i++) criteria.put(data.readInt(), data.readUTF());
+
+		store.registerCriteria(criteria.values());
+		final var remapCriteria = criteria.entrySet().stream().anyMatch(c -> store.getCriterionId(c.getValue()) != c.getKey());
+
+		final var batchPlayers = Math.max(1, batchSize);
+		final var executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		final var permits = new Semaphore(Math.max(1, parallelism) * 2);
+		final var failure = new AtomicReference<Exception>();
+		final var total = new AtomicLong();
+
+		try {
+			while (failure.get() == null) {
+				final var players = readChunk(data);
+				if (players == null) break;
+
+				// Only a few chunks wait for a thread at any time, which keeps memory bounded
+				permits.acquireUninterruptibly();
+				executor.execute(() -> {
+					try {
+						for (final var serial : players) {
+							if (remap) remapRecipes(store, recipes, serial);
+							if (remapCriteria) remapAdvancements(store, criteria, serial);
+							if (convert != null) convert.accept(serial);
+						}
+
+						for (int i = 0; i < players.size() && failure.get() == null; i += batchPlayers) {
+							final var batch = players.subList(i, Math.min(i + batchPlayers, players.size()));
+							store.importPlayers(batch);
+							progress.accept(total.addAndGet(batch.size()));
+						}
+					} catch (final StoreException | RuntimeException e) {
+						failure.compareAndSet(null, e);
+					} finally {
+						permits.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			awaitTermination(executor);
+		}
+
+		final var error = failure.get();
+		if (error instanceof final StoreException e) throw e;
+		if (error instanceof final RuntimeException e) throw e;
+		return total.get();
+	}
+
+	/**
+	 * Reads the next chunk of players.
+	 *
+	 * @param data The dump to read from.
+	 * @return The players in the chunk or <tt>null</tt> after the last chunk.
+	 * @throws IOException If reading the dump fails.
+	 */
+	private static @Nullable List<SerializedPlayer> readChunk(final @NotNull DataInputStream data) throws IOException {
+		final var count = data.readInt();
+		if (count == 0) return null;
+
+		final var compressed = new byte[data.readInt()];
+		data.readFully(compressed);
+
+		final var players = new ArrayList<SerializedPlayer>(count);
+		try (final var chunk = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(compressed)))) {
+			for (int i = 0; i < count; i++) {
+				final var serial = new SerializedPlayer(new UUID(chunk.readLong(), chunk.readLong()));
+				final var columns = ColumnCodec.read(chunk);
+
+				for (final var section : Section.values()) {
+					if (!columns.keySet().containsAll(section.getAllColumns())) continue;
+
+					serial.sections.add(section);
+					for (final var column : section.getAllColumns()) serial.setColumn(column, columns.get(column));
+				}
+
+				players.add(serial);
+			}
+		}
+
+		return players;
+	}
+
+	/**
+	 * Converts a player's recipe book from the recipe ids in the dump to the ones of the store.
+	 *
+	 * @param store   The store the player is written to.
+	 * @param recipes The recipes in the dump, by id.
+	 * @param serial  The player.
+	 */
+	private static void remapRecipes(final @NotNull PlayerStore store, final @NotNull Map<Integer, NamespacedKey> recipes,
+									 final @NotNull SerializedPlayer serial) {
+		if (serial.recipeBook == null || RecipeCodec.isLegacy(serial.recipeBook)) return;
+
+		final var book = RecipeCodec.decode(serial.recipeBook, recipes::get);
+		if (book == null) throw new IllegalArgumentException("The recipe book of %s uses recipes missing from the dump".formatted(serial.uuid));
+
+		final var encoded = RecipeCodec.encode(book, store::getRecipeId);
+		serial.recipeBook = encoded != null ? encoded : RecipeCodec.encodeLegacy(book);
+	}
+
+	/**
+	 * Converts the progress of a player's advancements from the criterion ids in the dump to the ones of the store.
+	 *
+	 * @param store    The store the player is written to.
+	 * @param criteria The criteria in the dump, by id.
+	 * @param serial   The player.
+	 */
+	private static void remapAdvancements(final @NotNull PlayerStore store, final @NotNull Map<Integer, String> criteria,
+										  final @NotNull SerializedPlayer serial) {
+		if (serial.advancements == null || AdvancementCodec.isJson(serial.advancements)) return;
+
+		final var progress = AdvancementCodec.decode(serial.advancements, criteria::get);
+		if (progress == null) throw new IllegalArgumentException("The advancements of %s use criteria missing from the dump".formatted(serial.uuid));
+
+		final var encoded = AdvancementCodec.encode(progress, store::getCriterionId);
+		serial.advancements = encoded != null ? encoded : AdvancementCodec.encodeJson(progress);
+	}
+
+	private static void awaitTermination(final @NotNull ExecutorService executor) {
+		try {
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		} catch (final InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Collects exported players into chunks and writes every chunk once it is full.
+	 */
+	private static final class ChunkWriter implements Consumer<SerializedPlayer> {
+		private final DataOutputStream out;
+		private final LongConsumer progress;
+		private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_BYTES / 4);
+		private final DataOutputStream chunk = new DataOutputStream(buffer);
+		private int count = 0;
+		private long total = 0;
+
+		private ChunkWriter(final @NotNull DataOutputStream out, final @NotNull LongConsumer progress) {
+			this.out = out;
+			this.progress = progress;
+		}
+
+		@Override
+		public void accept(final @NotNull SerializedPlayer serial) {
+			final var columns = new LinkedHashMap<String, Object>();
+			for (final var section : serial.sections) {
+				for (final var column : section.getAllColumns()) columns.put(column, serial.getColumn(column));
+			}
+
+			try {
+				chunk.writeLong(serial.uuid.getMostSignificantBits());
+				chunk.writeLong(serial.uuid.getLeastSignificantBits());
+				ColumnCodec.write(chunk, columns);
+
+				if (++count >= CHUNK_PLAYERS || buffer.size() >= CHUNK_BYTES) flush();
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void flush() throws IOException {
+			if (count == 0) return;
+
+			final var compressed = new ByteArrayOutputStream(buffer.size() / 2 + 16);
+			final var deflater = new Deflater(Deflater.BEST_SPEED);
+			try (final var deflated = new DeflaterOutputStream(compressed, deflater)) {
+				buffer.writeTo(deflated);
+			} finally {
+				deflater.end();
+			}
+
+			out.writeInt(count);
+			out.writeInt(compressed.size());
+			compressed.writeTo(out);
+
+			total += count;
+			count = 0;
+			buffer.reset();
+			progress.accept(total);
+		}
+	}
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.db.Database;
+import net.orbismc.tenacity.db.DatabaseMetrics;
+import net.orbismc.tenacity.db.SqlDialect;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Stores player data and the leases servers hold on it. Tenacity talks to its storage only through this
+ * interface, so the backend can be swapped out, for example to run a whole network on one machine without
+ * a database server. All methods block until the storage has been accessed, so they must not be called
+ * from the server thread. They may be called from several threads at once.
+ * <p>
+ * Every player's data carries a version, which increases with every claim and write, and an owner, the
+ * server currently holding the lease on it. See {@link #create(TenacityConfig, Path, String, Logger)} for
+ * the available backends.
+ */
+public interface PlayerStore extends AutoCloseable {
+	/**
+	 * Creates the store selected by <tt>database.type</tt>:
+	 * <ul>
+	 *     <li><tt>mariadb</tt> stores data in a MariaDB or MySQL database shared by all servers. Players can be
+	 *     read from a replica of it, see <tt>database.replicaUrl</tt>.</li>
+	 *     <li><tt>h2</tt> stores data in an embedded H2 database file, which servers on the same machine can share.</li>
+	 *     <li><tt>memory</tt> keeps data in memory only. Everything is lost once the server stops.</li>
+	 * </ul>
+	 *
+	 * @param config     The configuration.
+	 * @param dataFolder The folder to resolve relative file paths against.
+	 * @param serverId   The id this server uses to claim ownership of player data.
+	 * @param logger     The logger to report to.
+	 * @return The store. It has to be opened before it is used.
+	 * @throws IllegalArgumentException If the configured type is unknown.
+	 */
+	static PlayerStore create(final @NotNull TenacityConfig config, final @NotNull Path dataFolder,
+							  final @NotNull String serverId, final @NotNull Logger logger) {
+		final var type = config.database.type != null ? config.database.type.toLowerCase(Locale.ROOT) : "mariadb";
+
+		return switch (type) {
+			case "mariadb" -> {
+				final var replica = config.database.replicaUrl != null ? new Database(config.database, config.database.replicaUrl, "tenacity-replica") : null;
+				yield new SqlPlayerStore(new Database(config.database, "tenacity"), replica, SqlDialect.MARIADB,
+						config, serverId, logger, config.database.url != null ? config.database.url : config.database.host);
+			}
+			case "h2" -> {
+				// AUTO_SERVER lets several servers on this machine open the same file
+				final var file = dataFolder.resolve(config.database.file).toAbsolutePath();
+				final var database = Database.h2("jdbc:h2:file:%s;AUTO_SERVER=TRUE".formatted(file), config.database, "tenacity");
+				yield new SqlPlayerStore(database, null, SqlDialect.H2, config, serverId, logger, file.toString());
+			}
+			case "memory" -> new MemoryPlayerStore(config, serverId);
+			default -> throw new IllegalArgumentException("Unknown database type '%s'".formatted(config.database.type));
+		};
+	}
+
+	/**
+	 * Prepares the store for use, for example by bringing the database schema up to date.
+	 *
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void open() throws StoreException;
+
+	/**
+	 * Fetches a player's data and claims it for this server. The data can only be claimed if no other
+	 * server holds a valid lease on it. A successful claim also proves that the data read is up-to-date.
+	 *
+	 * @param uuid The player to claim.
+	 * @return The result of the claim.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	Claim claim(final @NotNull UUID uuid) throws StoreException;
+
+	/**
+	 * Hands the lease on a player's data back without writing anything. The lease is only released if
+	 * nothing was written since it was claimed, so that releasing an old claim never drops a newer one.
+	 *
+	 * @param uuid    The player to release.
+	 * @param version The version of the player's data returned by {@link #claim(UUID)}.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void release(final @NotNull UUID uuid, final long version) throws StoreException;
+
+	/**
+	 * Extends the leases this server holds on the given players' data. Only players who are still online or
+	 * whose data has yet to be written should be passed, so that the lease on a player whose release was
+	 * lost runs out instead of being renewed forever. Renewing counts as a change of the player's data.
+	 *
+	 * @param uuids The players whose leases to extend.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void renewLeases(final @NotNull Collection<UUID> uuids) throws StoreException;
+
+	/**
+	 * Writes a batch of players. Only the columns given with each write are written, all other columns
+	 * remain untouched. If another server has taken over a player in the meantime, their write is rejected.
+	 *
+	 * @param writes The players to write.
+	 * @return The players whose write was rejected.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	List<UUID> save(final @NotNull List<Write> writes) throws StoreException;
+
+	/**
+	 * Reads the data of all players, with all sections regardless of which are saved. Players are passed to
+	 * the consumer as they are read, so this works for any number of players.
+	 *
+	 * @param fetchSize The number of players to fetch from the storage at a time.
+	 * @param consumer  The consumer to pass every player to.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void exportPlayers(final int fetchSize, final @NotNull Consumer<SerializedPlayer> consumer) throws StoreException;
+
+	/**
+	 * Writes players read by {@link #exportPlayers(int, Consumer)}, replacing the data of players who are
+	 * already stored. Leases are neither checked nor taken, so this must only be done while no server is
+	 * using the store. Recipe books and advancements must already use this store's ids.
+	 *
+	 * @param players The players to write. All sections they have are written.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void importPlayers(final @NotNull List<SerializedPlayer> players) throws StoreException;
+
+	/**
+	 * Reads all recipes which have an id.
+	 *
+	 * @return The recipes, by id.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	Map<Integer, NamespacedKey> getRecipeDictionary() throws StoreException;
+
+	/**
+	 * Reads all advancement criteria which have an id.
+	 *
+	 * @return The criteria, by id. See {@link net.orbismc.tenacity.serial.AdvancementCodec#criterion(NamespacedKey, String)}.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	Map<Integer, String> getCriterionDictionary() throws StoreException;
+
+	/**
+	 * Lists the most recent snapshots in a player's history.
+	 *
+	 * @param uuid  The player whose history to list.
+	 * @param limit The maximum number of snapshots to list.
+	 * @return The snapshots, newest first.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	List<Snapshot> listSnapshots(final @NotNull UUID uuid, final int limit) throws StoreException;
+
+	/**
+	 * Replaces a player's data with the data they had when a snapshot was taken. This is only possible
+	 * while no server holds a lease on the data, that is while the player is offline. The restored data is
+	 * appended to the history as a new snapshot, so restoring can be undone.
+	 *
+	 * @param uuid The player to restore.
+	 * @param id   The id of the snapshot to restore, as returned by {@link #listSnapshots(UUID, int)}.
+	 * @return The result of the restore.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	RestoreResult restoreSnapshot(final @NotNull UUID uuid, final long id) throws StoreException;
+
+	/**
+	 * Drops the snapshots the retention policy no longer keeps from the history of all players.
+	 *
+	 * @param policy The retention policy.
+	 * @param now    The current time in milliseconds.
+	 * @return The number of snapshots dropped.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	int pruneSnapshots(final @NotNull RetentionPolicy policy, final long now) throws StoreException;
+
+	/**
+	 * Gets the id a recipe is stored as in recipe books. Does not access the store.
+	 *
+	 * @param recipe The recipe to look up.
+	 * @return The id of the recipe or <tt>-1</tt> if it has none yet.
+	 */
+	int getRecipeId(final @NotNull NamespacedKey recipe);
+
+	/**
+	 * Gives all the given recipes which don't have an id yet one.
+	 *
+	 * @param recipes The recipes to register.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void registerRecipes(final @NotNull Collection<NamespacedKey> recipes) throws StoreException;
+
+	/**
+	 * Gets the id an advancement criterion is stored as. Does not access the store.
+	 *
+	 * @param criterion The criterion to look up, see {@link net.orbismc.tenacity.serial.AdvancementCodec#criterion(NamespacedKey, String)}.
+	 * @return The id of the criterion or <tt>-1</tt> if it has none yet.
+	 */
+	int getCriterionId(final @NotNull String criterion);
+
+	/**
+	 * Gives all the given advancement criteria which don't have an id yet one.
+	 *
+	 * @param criteria The criteria to register.
+	 * @throws StoreException If the store could not be accessed.
+	 */
+	void registerCriteria(final @NotNull Collection<String> criteria) throws StoreException;
+
+	/**
+	 * @return Statistics about the connections to the store.
+	 */
+	DatabaseMetrics getMetrics();
+
+	@Override
+	void close();
+
+	/**
+	 * The result of claiming a player's data.
+	 *
+	 * @param claimed <tt>true</tt> if this server now holds the lease and <tt>false</tt> if another server does.
+	 * @param serial  The player's data or <tt>null</tt> if nothing is stored yet.
+	 * @param version The version of the player's data after claiming it.
+	 */
+	record Claim(boolean claimed, @Nullable SerializedPlayer serial, long version) {
+		public static final Claim BUSY = new Claim(false, null, 0);
+	}
+
+	/**
+	 * A player to be written to the store.
+	 *
+	 * @param serial  The player's data.
+	 * @param columns The columns to write.
+	 * @param release <tt>true</tt> if the lease should be handed back with this write.
+	 */
+	record Write(@NotNull SerializedPlayer serial, @NotNull List<String> columns, boolean release) {
+	}
+
+	/**
+	 * A snapshot in a player's history.
+	 *
+	 * @param id       The id of the snapshot.
+	 * @param created  The time the snapshot was taken, in milliseconds.
+	 * @param keyframe <tt>true</tt> if the snapshot holds all of the player's data and <tt>false</tt> if
+	 *                 only what changed since the snapshot before it.
+	 * @param size     The size of the stored snapshot in bytes.
+	 */
+	record Snapshot(long id, long created, boolean keyframe, int size) {
+	}
+
+	/**
+	 * The result of restoring a snapshot.
+	 */
+	enum RestoreResult {
+		/**
+		 * The player's data was replaced with the snapshot.
+		 */
+		RESTORED,
+
+		/**
+		 * The player has no snapshot with the given id.
+		 */
+		NOT_FOUND,
+
+		/**
+		 * A server holds the lease on the player's data, so it can't be replaced.
+		 */
+		LEASED
+	}
+}
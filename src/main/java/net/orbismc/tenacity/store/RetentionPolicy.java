@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which snapshots of a player's history are kept. All snapshots younger than <tt>keepAll</tt>
+ * are kept. Older ones are thinned out by tiers like <tt>1h:1d</tt>, which keeps one snapshot per hour
+ * for snapshots up to a day old. Snapshots older than every tier are dropped. The newest snapshot is
+ * always kept, so a player's history never becomes empty.
+ */
+public final class RetentionPolicy {
+	private final long keepAll;
+	private final List<Tier> tiers = new ArrayList<>();
+
+	/**
+	 * @param config The history configuration.
+	 * @throws IllegalArgumentException If a duration or tier is malformed.
+	 */
+	public RetentionPolicy(final @NotNull TenacityConfig.TenacityHistoryConfig config) {
+		this.keepAll = parseDuration(config.keepAll);
+
+		if (config.retention != null) {
+			for (final var tier : config.retention) {
+				final var parts = tier.split(":");
+				if (parts.length != 2) throw new IllegalArgumentException("Malformed retention tier '%s'".formatted(tier));
+
+				final var every = parseDuration(parts[0]);
+				if (every <= 0) throw new IllegalArgumentException("Retention tier '%s' must keep a snapshot every so often".formatted(tier));
+				tiers.add(new Tier(every, parseDuration(parts[1])));
+			}
+		}
+
+		tiers.sort(Comparator.comparingLong(Tier::keep));
+	}
+
+	/**
+	 * @return The age in milliseconds up to which all snapshots are kept.
+	 */
+	public long getKeepAll() {
+		return keepAll;
+	}
+
+	/**
+	 * Selects the snapshots to keep out of a player's history.
+	 *
+	 * @param snapshots The player's snapshots, oldest first.
+	 * @param now       The current time in milliseconds.
+	 * @return The ids of the snapshots to keep.
+	 */
+	public Set<Long> select(final @NotNull List<SnapshotHistory.Entry> snapshots, final long now) {
+		final var keep = new HashSet<Long>();
+		if (snapshots.isEmpty()) return keep;
+
+		// Later snapshots replace earlier ones, so the newest one in every slot is kept
+		final var slots = new HashMap<Slot, Long>();
+		for (final var snapshot : snapshots) {
+			final var age = now - snapshot.created();
+			if (age <= keepAll) {
+				keep.add(snapshot.id());
+				continue;
+			}
+
+			for (int i = 0; i < tiers.size(); i++) {
+				final var tier = tiers.get(i);
+				if (age > tier.keep()) continue;
+
+				slots.put(new Slot(i, Math.floorDiv(snapshot.created(), tier.every())), snapshot.id());
+				break;
+			}
+		}
+
+		keep.addAll(slots.values());
+		keep.add(snapshots.get(snapshots.size() - 1).id());
+		return keep;
+	}
+
+	/**
+	 * Parses a duration like <tt>90s</tt>, <tt>30m</tt>, <tt>6h</tt>, <tt>30d</tt> or <tt>2w</tt>. A number
+	 * without a unit is taken as seconds.
+	 *
+	 * @param duration The duration to parse.
+	 * @return The duration in milliseconds.
+	 * @throws IllegalArgumentException If the duration is malformed.
+	 */
+	static long parseDuration(final @NotNull String duration) {
+		final var value = duration.trim().toLowerCase(Locale.ROOT);
+		if (value.isEmpty()) throw new IllegalArgumentException("Empty duration");
+
+		final var unit = value.charAt(value.length() - 1);
+		final long millis = switch (unit) {
+			case 's' -> 1000L;
+			case 'm' -> 60_000L;
+			case 'h' -> 3_600_000L;
+			case 'd' -> 86_400_000L;
+			case 'w' -> 604_800_000L;
+			default -> 0;
+		};
+
+		try {
+			if (millis == 0) return Long.parseLong(value) * 1000L;
+			return Long.parseLong(value.substring(0, value.length() - 1)) * millis;
+		} catch (final NumberFormatException e) {
+			throw new IllegalArgumentException("Malformed duration '%s'".formatted(duration), e);
+		}
+	}
+
+	/**
+	 * @param every The interval in milliseconds at which snapshots are kept.
+	 * @param keep  The age in milliseconds up to which this tier applies.
+	 */
+	private record Tier(long every, long keep) {
+	}
+
+	private record Slot(int tier, long index) {
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.serial.ColumnCodec;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Works with the snapshots making up a player's history. Every save appends a snapshot holding only the
+ * columns it wrote, a delta against the snapshot before it. Every so often a keyframe holding all columns
+ * is appended instead, so restoring a point in time only needs the snapshots since the keyframe before it.
+ * <p>
+ * Since a delta only replaces columns, consecutive snapshots can be merged into one. This is how snapshots
+ * are dropped from the history without breaking the ones after them: whatever a dropped snapshot changed is
+ * folded into the next snapshot which is kept.
+ */
+public final class SnapshotHistory {
+	private SnapshotHistory() {
+	}
+
+	/**
+	 * Restores the columns stored at a point in time.
+	 *
+	 * @param snapshots The snapshots from the last keyframe up to the point in time, oldest first.
+	 * @return The values of all columns at the time of the last snapshot.
+	 */
+	public static Map<String, Object> reconstruct(final @NotNull List<Entry> snapshots) {
+		final var columns = new LinkedHashMap<String, Object>();
+		for (final var snapshot : snapshots) {
+			if (snapshot.keyframe()) columns.clear();
+			columns.putAll(ColumnCodec.decode(snapshot.data()));
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Works out how to drop snapshots from a player's history. Kept snapshots following dropped ones are
+	 * rewritten to include their changes, and become keyframes if a dropped keyframe was folded into them.
+	 *
+	 * @param snapshots The player's snapshots, oldest first.
+	 * @param keep      The ids of the snapshots to keep. Must contain the newest snapshot.
+	 * @return The snapshots to delete and the ones to rewrite.
+	 * @throws IllegalArgumentException If the newest snapshot is not kept.
+	 */
+	public static Pruning prune(final @NotNull List<Entry> snapshots, final @NotNull Set<Long> keep) {
+		final var deleted = new ArrayList<Long>();
+		final var rewritten = new ArrayList<Entry>();
+		Map<String, Object> pending = null;
+		boolean pendingKeyframe = false;
+
+		for (final var snapshot : snapshots) {
+			if (!keep.contains(snapshot.id())) {
+				deleted.add(snapshot.id());
+
+				if (pending == null || snapshot.keyframe()) {
+					pending = new LinkedHashMap<>(ColumnCodec.decode(snapshot.data()));
+					pendingKeyframe = snapshot.keyframe();
+				} else {
+					pending.putAll(ColumnCodec.decode(snapshot.data()));
+				}
+
+				continue;
+			}
+
+			// A keyframe does not depend on anything before it
+			if (pending != null && !snapshot.keyframe()) {
+				pending.putAll(ColumnCodec.decode(snapshot.data()));
+				rewritten.add(new Entry(snapshot.id(), snapshot.created(), pendingKeyframe, ColumnCodec.encode(pending)));
+			}
+
+			pending = null;
+			pendingKeyframe = false;
+		}
+
+		if (pending != null) throw new IllegalArgumentException("The newest snapshot must be kept");
+		return new Pruning(deleted, rewritten);
+	}
+
+	/**
+	 * A snapshot in a player's history.
+	 *
+	 * @param id       The id of the snapshot. Ids increase with every snapshot appended.
+	 * @param created  The time the snapshot was taken, in milliseconds.
+	 * @param keyframe <tt>true</tt> if the snapshot holds all columns and <tt>false</tt> if only the changed ones.
+	 * @param data     The columns, encoded by {@link ColumnCodec}.
+	 */
+	public record Entry(long id, long created, boolean keyframe, byte @NotNull [] data) {
+	}
+
+	/**
+	 * The changes needed to drop snapshots from a player's history.
+	 *
+	 * @param deleted   The ids of the snapshots to delete.
+	 * @param rewritten The snapshots whose contents and keyframe flag have to be replaced.
+	 */
+	public record Pruning(@NotNull List<Long> deleted, @NotNull List<Entry> rewritten) {
+		public boolean isEmpty() {
+			return deleted.isEmpty() && rewritten.isEmpty();
+		}
+	}
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.db.Database;
+import net.orbismc.tenacity.db.DatabaseMetrics;
+import net.orbismc.tenacity.db.HistoryDao;
+import net.orbismc.tenacity.db.PlayerDao;
+import net.orbismc.tenacity.db.KeyDictionary;
+import net.orbismc.tenacity.db.SqlDialect;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.util.SchemaMigrator;
+import org.bukkit.NamespacedKey;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+/**
+ * Stores player data in a SQL database, either a MariaDB server or an embedded H2 database. The statements
+ * themselves are issued by the {@link PlayerDao}, this class only hands out connections and turns failures
+ * into {@link StoreException}s.
+ * <p>
+ * If a read replica is configured, players are read from it and only claimed on the primary. The claim
+ * checks that the version read is still the stored one, so data the replica has not caught up with yet is
+ * never loaded. Players are read from the primary instead if the replica is behind or unreachable.
+ */
+final class SqlPlayerStore implements PlayerStore {
+	private static final long REPLICA_RETRY_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+	private final Database database;
+	private final @Nullable Database replica;
+	private final SqlDialect dialect;
+	private final KeyDictionary<NamespacedKey> recipes;
+	private final KeyDictionary<String> criteria;
+	private final PlayerDao dao;
+	private final HistoryDao history;
+	private final SchemaMigrator migrator;
+	private final Logger logger;
+	private final String location;
+	private final boolean splitTables;
+	private final boolean recordHistory;
+
+	private final LongAdder replicaReads = new LongAdder();
+	private final LongAdder replicaFallbacks = new LongAdder();
+	private final AtomicBoolean replicaUp = new AtomicBoolean(true);
+	private volatile long replicaRetry = System.nanoTime();
+
+	/**
+	 * @param database The connection pool to use. It is closed together with the store.
+	 * @param replica  The connection pool to a read replica of the database or <tt>null</tt> to read from the
+	 *                 database itself. It is closed together with the store.
+	 * @param dialect  The kind of database the pool connects to.
+	 * @param config   The configuration.
+	 * @param serverId The id this server uses to claim ownership of player data.
+	 * @param logger   The logger to report migrations and connection problems to.
+	 * @param location A description of where the database is, used in error messages.
+	 */
+	SqlPlayerStore(final @NotNull Database database, final @Nullable Database replica, final @NotNull SqlDialect dialect,
+				   final @NotNull TenacityConfig config, final @NotNull String serverId, final @NotNull Logger logger,
+				   final @NotNull String location) {
+		this.database = database;
+		this.replica = replica;
+		this.dialect = dialect;
+		this.recipes = KeyDictionary.recipes(database);
+		this.criteria = KeyDictionary.criteria(database);
+		this.dao = new PlayerDao(database, dialect, recipes, criteria, config, serverId);
+		this.history = new HistoryDao(database, dao, config.history.keyframeInterval);
+		this.migrator = new SchemaMigrator(SqlPlayerStore.class.getClassLoader()::getResourceAsStream, dialect, logger);
+		this.logger = logger;
+		this.location = location;
+		this.splitTables = config.storage.splitTables;
+		this.recordHistory = config.history.enabled;
+	}
+
+	@Override
+	public void open() throws StoreException {
+		query(conn -> {
+			try {
+				migrator.migrate(conn);
+			} catch (final IOException e) {
+				throw new StoreException("Failed to set up the database", e);
+			}
+
+			if (dialect == SqlDialect.MARIADB) {
+				final var moved = dao.moveSplitSections(conn);
+				if (moved > 0) logger.info("Moved %d rows of player data %s their own tables".formatted(
+						moved, splitTables ? "into" : "out of"));
+			}
+
+			recipes.refresh(conn);
+			criteria.refresh(conn);
+			return null;
+		});
+	}
+
+	@Override
+	public Claim claim(final @NotNull UUID uuid) throws StoreException {
+		if (replica != null) {
+			final var fetched = fetchFromReplica(replica, uuid);
+			final var claim = fetched != null ? query(conn -> dao.claimFetched(conn, fetched)) : null;
+			if (claim != null) {
+				replicaReads.increment();
+				return claim;
+			}
+
+			replicaFallbacks.increment();
+		}
+
+		return query(conn -> dao.claim(conn, uuid));
+	}
+
+	/**
+	 * Reads a player's data from the read replica. While the replica is unreachable, it is only tried
+	 * again every {@link #REPLICA_RETRY_NANOS}, so that loads don't keep waiting for it to time out.
+	 *
+	 * @param replica The connection pool to the replica.
+	 * @param uuid    The player to read.
+	 * @return The player's data or <tt>null</tt> if it has to be read from the primary.
+	 */
+	private PlayerDao.@Nullable Fetched fetchFromReplica(final @NotNull Database replica, final @NotNull UUID uuid) {
+		if (!replicaUp.get() && System.nanoTime() - replicaRetry < 0) return null;
+
+		try (final var conn = replica.getConnection()) {
+			final var fetched = dao.fetch(replica, conn, uuid);
+			if (replicaUp.compareAndSet(false, true)) logger.info("The read replica is reachable again");
+			return fetched;
+		} catch (final SQLException e) {
+			replicaRetry = System.nanoTime() + REPLICA_RETRY_NANOS;
+			if (replicaUp.compareAndSet(true, false)) {
+				logger.warning("Failed to read from the read replica, reading from the primary for now: %s".formatted(e));
+			}
+
+			return null;
+		}
+	}
+
+	@Override
+	public void release(final @NotNull UUID uuid, final long version) throws StoreException {
+		query(conn -> {
+			dao.release(conn, uuid, version);
+			return null;
+		});
+	}
+
+	@Override
+	public void renewLeases(final @NotNull Collection<UUID> uuids) throws StoreException {
+		if (uuids.isEmpty()) return;
+
+		query(conn -> {
+			dao.renewLeases(conn, uuids);
+			return null;
+		});
+	}
+
+	@Override
+	public List<UUID> save(final @NotNull List<Write> writes) throws StoreException {
+		if (!recordHistory) return query(conn -> dao.update(conn, writes));
+
+		// The history is written together with the data, so no snapshot is ever missing from it
+		return query(conn -> transaction(conn, () -> {
+			final var rejected = dao.update(conn, writes);
+			final var rejectedSet = new HashSet<>(rejected);
+			history.record(conn, writes.stream().filter(w -> !rejectedSet.contains(w.serial().uuid)).toList());
+			return rejected;
+		}));
+	}
+
+	@Override
+	public void exportPlayers(final int fetchSize, final @NotNull Consumer<SerializedPlayer> consumer) throws StoreException {
+		query(conn -> {
+			dao.export(conn, fetchSize, consumer);
+			return null;
+		});
+	}
+
+	@Override
+	public void importPlayers(final @NotNull List<SerializedPlayer> players) throws StoreException {
+		query(conn -> transaction(conn, () -> {
+			dao.importPlayers(conn, players);
+			return null;
+		}));
+	}
+
+	@Override
+	public Map<Integer, NamespacedKey> getRecipeDictionary() throws StoreException {
+		return query(conn -> {
+			recipes.refresh(conn);
+			return recipes.getAll();
+		});
+	}
+
+	@Override
+	public Map<Integer, String> getCriterionDictionary() throws StoreException {
+		return query(conn -> {
+			criteria.refresh(conn);
+			return criteria.getAll();
+		});
+	}
+
+	@Override
+	public List<Snapshot> listSnapshots(final @NotNull UUID uuid, final int limit) throws StoreException {
+		return query(conn -> history.list(conn, uuid, limit));
+	}
+
+	@Override
+	public RestoreResult restoreSnapshot(final @NotNull UUID uuid, final long id) throws StoreException {
+		return query(conn -> transaction(conn, () -> {
+			final var chain = history.chain(conn, uuid, id);
+			if (chain.isEmpty()) return RestoreResult.NOT_FOUND;
+
+			final var columns = SnapshotHistory.reconstruct(chain);
+			if (!dao.restore(conn, uuid, columns)) return RestoreResult.LEASED;
+
+			history.appendKeyframe(conn, uuid, columns);
+			return RestoreResult.RESTORED;
+		}));
+	}
+
+	@Override
+	public int pruneSnapshots(final @NotNull RetentionPolicy policy, final long now) throws StoreException {
+		final var players = query(conn -> history.findPrunable(conn, now - policy.getKeepAll()));
+
+		// Every player is pruned in a transaction of their own, so saves are only held up briefly
+		int pruned = 0;
+		for (final var uuid : players) pruned += query(conn -> transaction(conn, () -> history.prune(conn, uuid, policy, now)));
+		return pruned;
+	}
+
+	@Override
+	public int getRecipeId(final @NotNull NamespacedKey recipe) {
+		return recipes.getId(recipe);
+	}
+
+	@Override
+	public void registerRecipes(final @NotNull Collection<NamespacedKey> recipes) throws StoreException {
+		if (this.recipes.containsAll(recipes)) return;
+
+		query(conn -> {
+			this.recipes.register(conn, recipes);
+			return null;
+		});
+	}
+
+	@Override
+	public int getCriterionId(final @NotNull String criterion) {
+		return criteria.getId(criterion);
+	}
+
+	@Override
+	public void registerCriteria(final @NotNull Collection<String> criteria) throws StoreException {
+		if (this.criteria.containsAll(criteria)) return;
+
+		query(conn -> {
+			this.criteria.register(conn, criteria);
+			return null;
+		});
+	}
+
+	@Override
+	public DatabaseMetrics getMetrics() {
+		return database.getMetrics().withReplica(replicaReads.sum(), replicaFallbacks.sum());
+	}
+
+	@Override
+	public void close() {
+		database.close();
+		if (replica != null) replica.close();
+	}
+
+	/**
+	 * Runs a query on a connection taken from the pool. Failing to hand the connection back afterwards
+	 * is only logged, since the query itself has already succeeded or failed by then.
+	 *
+	 * @param query The query to run.
+	 * @param <T>   The type of result produced by the query.
+	 * @return The result of the query.
+	 * @throws StoreException If no connection could be established or the query failed.
+	 */
+	private <T> T query(final @NotNull Query<T> query) throws StoreException {
+		final Connection conn;
+		try {
+			conn = database.getConnection();
+		} catch (final SQLException e) {
+			throw new StoreException("Failed to establish a connection to the database at %s".formatted(location), e);
+		}
+
+		try {
+			return query.run(conn);
+		} catch (final SQLException e) {
+			throw new StoreException("Database access failed", e);
+		} finally {
+			try {
+				conn.close();
+			} catch (final SQLException e) {
+				logger.warning("Failed to close a connection to the database: %s".formatted(e));
+			}
+		}
+	}
+
+	/**
+	 * Runs a query in a transaction, which is rolled back if the query fails.
+	 *
+	 * @param conn  The connection to use.
+	 * @param query The query to run.
+	 * @param <T>   The type of result produced by the query.
+	 * @return The result of the query.
+	 * @throws SQLException If the query failed.
+	 */
+	private static <T> T transaction(final @NotNull Connection conn, final @NotNull Transaction<T> query) throws SQLException {
+		final var autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+
+		try {
+			final var result = query.run();
+			conn.commit();
+			return result;
+		} catch (final SQLException | RuntimeException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Transaction<T> {
+		T run() throws SQLException;
+	}
+
+	@FunctionalInterface
+	private interface Query<T> {
+		T run(final @NotNull Connection conn) throws SQLException, StoreException;
+	}
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Thrown if a {@link PlayerStore} could not be accessed, for example because the database is unreachable.
+ */
+public class StoreException extends Exception {
+	public StoreException(final @NotNull String message, final @Nullable Throwable cause) {
+		super(message, cause);
+	}
+
+	@Override
+	public String toString() {
+		return getCause() != null ? "%s: %s".formatted(getMessage(), getCause()) : getMessage();
+	}
+}
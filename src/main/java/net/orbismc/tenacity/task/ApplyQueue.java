@@ -0,0 +1,77 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.metrics.Histogram;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Applies decoded player data on the server thread without letting it eat up whole ticks. Every tick, queued
+ * applies are run until the configured time budget is used up. The rest waits for the next tick. At least
+ * one apply is run every tick, so the queue always makes progress. Runs every tick on the server thread.
+ */
+public final class ApplyQueue implements Runnable {
+	private final long budgetNanos;
+	private final Histogram wait;
+	private final ConcurrentLinkedQueue<Entry> queue = new ConcurrentLinkedQueue<>();
+
+	public ApplyQueue(final @NotNull Tenacity plugin) {
+		this(TimeUnit.MICROSECONDS.toNanos(Math.max(0, plugin.config.loading.applyBudget)), plugin.getMetrics().applyQueueWait);
+	}
+
+	/**
+	 * @param budgetNanos The time in nanoseconds applies may take per tick.
+	 * @param wait        The histogram to record the time actions spent waiting in the queue in.
+	 */
+	public ApplyQueue(final long budgetNanos, final @NotNull Histogram wait) {
+		this.budgetNanos = budgetNanos;
+		this.wait = wait;
+	}
+
+	/**
+	 * Queues an action to be run on the server thread. May be called from any thread.
+	 *
+	 * @param action The action to run.
+	 * @return A future which completes with the action's result once it has run.
+	 */
+	public CompletableFuture<Boolean> submit(final @NotNull BooleanSupplier action) {
+		final var future = new CompletableFuture<Boolean>();
+		queue.add(new Entry(action, future, System.nanoTime()));
+		return future;
+	}
+
+	/**
+	 * @return The number of actions waiting to be run.
+	 */
+	public int size() {
+		return queue.size();
+	}
+
+	@Override
+	public void run() {
+		final var start = System.nanoTime();
+
+		do {
+			final var entry = queue.poll();
+			if (entry == null) return;
+
+			wait.record(start - entry.queued);
+			try {
+				entry.future.complete(entry.action.getAsBoolean());
+			} catch (final RuntimeException e) {
+				entry.future.completeExceptionally(e);
+			}
+		} while (System.nanoTime() - start < budgetNanos);
+	}
+
+	private record Entry(BooleanSupplier action, CompletableFuture<Boolean> future, long queued) {
+	}
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+
+import java.util.ArrayDeque;
+import java.util.UUID;
+
+/**
+ * Periodically saves a checkpoint of every online player's data. Instead of saving all players at once,
+ * this task runs every tick and saves a share of the players, so that every player is saved once per
+ * interval and the cost is spread evenly. Players whose data did not change since their last checkpoint
+ * are skipped.
+ */
+public class AutosaveTask implements Runnable {
+	private final Tenacity plugin;
+	private final long intervalTicks;
+	private final ArrayDeque<UUID> round = new ArrayDeque<>();
+	private double perTick = 0;
+	private double credit = 0;
+
+	public AutosaveTask(Tenacity plugin) {
+		this.plugin = plugin;
+		this.intervalTicks = Math.max(1, plugin.config.autosave.interval * 20L);
+	}
+
+	@Override
+	public void run() {
+		if (round.isEmpty()) {
+			// Start a new round with everyone who is online right now
+			for (final var player : plugin.getServer().getOnlinePlayers()) round.add(player.getUniqueId());
+			perTick = round.size() / (double) intervalTicks;
+			credit = 0;
+			return;
+		}
+
+		credit += perTick;
+		while (credit >= 1 && !round.isEmpty()) {
+			credit -= 1;
+
+			final var player = plugin.getServer().getPlayer(round.poll());
+			if (player == null || !plugin.isLoaded(player)) continue;
+			plugin.savePlayer(player, false);
+		}
+	}
+}
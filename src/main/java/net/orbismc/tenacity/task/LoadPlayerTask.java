@@ -5,41 +5,273 @@
 package net.orbismc.tenacity.task;
 
 import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.serial.ApplyPlan;
+import net.orbismc.tenacity.serial.SectionFingerprints;
+import net.orbismc.tenacity.serial.StatisticTracker;
+import net.orbismc.tenacity.session.PlayerSession;
+import net.orbismc.tenacity.store.PlayerStore;
+import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Objects;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class LoadPlayerTask implements Runnable {
+/**
+ * Loads a player's data from the database. The data is fetched and decoded into an {@link ApplyPlan} off
+ * the server thread. Only applying it to the player happens on the server thread, within the time budget of
+ * the {@link ApplyQueue}. If another server still holds the lease on
+ * the player's data, fetching is retried with an exponentially growing delay until that server releases
+ * the lease or it expires. Fetching may be started before the player has joined, see {@link #prefetch()}.
+ * <p>
+ * Every load belongs to a {@link PlayerSession}. The data is only claimed once the player's previous session
+ * on this server is done saving, and only applied if the session is still loading.
+ */
+public class LoadPlayerTask {
 	private final Tenacity plugin;
+	private final PlayerSession session;
 	private final UUID playerUUID;
+	private final long started = System.nanoTime();
+	private volatile long joined = started;
+	private volatile boolean cancelled = false;
+	private volatile CompletableFuture<PlayerStore.Claim> fetched = null;
+	private volatile CompletableFuture<Void> retry = null;
+	private final AtomicBoolean woken = new AtomicBoolean();
+	private final AtomicInteger attempts = new AtomicInteger();
 
-	public LoadPlayerTask(Tenacity plugin, UUID player) {
+	public LoadPlayerTask(Tenacity plugin, PlayerSession session) {
 		this.plugin = plugin;
-		this.playerUUID = player;
-	}
-
-	@Override
-	public void run() {
-		plugin.withDatabase(conn -> {
-			final var stmt = conn.prepareStatement("SELECT last_event FROM players WHERE uuid=?");
-			stmt.setString(1, playerUUID.toString());
-
-			final var result = stmt.executeQuery();
-			if (result.next()) {
-				if (!Objects.equals(result.getString(1), "save")) {
-					plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new LoadPlayerTask(plugin, playerUUID), 20);
-					return;
-				}
-			}
-
-			final var player = plugin.getServer().getPlayer(playerUUID);
-			if (player == null) {
-				plugin.getServer().getScheduler().scheduleSyncDelayedTask(plugin, new LoadPlayerTask(plugin, playerUUID), 20);
-				return;
-			}
-
-			plugin.doLoadPlayer(player);
-			plugin.setLoaded(player, true);
+		this.session = session;
+		this.playerUUID = session.getUUID();
+	}
+
+	/**
+	 * Starts fetching the player's data without applying it. May be called from any thread.
+	 */
+	public synchronized void prefetch() {
+		if (fetched != null) return;
+		fetched = CompletableFuture.supplyAsync(this::fetch, plugin.getAsyncExecutor()).thenCompose(this::retryIfBusy);
+	}
+
+	/**
+	 * Starts loading the player. If the player's data is already being fetched, the fetch is reused. Must
+	 * be called once the player has joined.
+	 *
+	 * @return A future which completes with <tt>true</tt> once the player's data has been applied or with
+	 * <tt>false</tt> if loading was cancelled or failed.
+	 */
+	public CompletableFuture<Boolean> start() {
+		joined = System.nanoTime();
+		prefetch();
+		return fetched.thenApplyAsync(this::decode, plugin.getAsyncExecutor())
+				.thenCompose(decoded -> plugin.getApplyQueue().submit(() -> apply(decoded)))
+				.exceptionallyAsync(this::fail, plugin.getMainExecutor());
+	}
+
+	/**
+	 * Cancels loading the player, for example because they left the server.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	/**
+	 * Cancels loading the player if they never joined. If the player's data has already been claimed, it
+	 * is handed back once fetching completes.
+	 */
+	public void discard() {
+		cancel();
+
+		final var future = fetched;
+		if (future != null) future.thenAcceptAsync(this::release, plugin.getAsyncExecutor());
+	}
+
+	/**
+	 * @return The number of times the player's data was requested from the database so far.
+	 */
+	public int getAttempts() {
+		return attempts.get();
+	}
+
+	private CompletableFuture<PlayerStore.Claim> retryIfBusy(final PlayerStore.Claim claim) {
+		if (claim.claimed() || cancelled) return CompletableFuture.completedFuture(claim);
+		plugin.getMetrics().handoffRetries.increment();
+
+		final var config = plugin.config.loading;
+		final var backoff = Math.min(config.maxRetryDelay, (long) config.retryDelay << Math.min(attempts.get() - 1, 16));
+
+		// The delay is cut short if the server holding the lease announces that it has handed it back. If that
+		// happened while fetching, the fetch may have just missed it, so try again right away.
+		final var delay = woken.getAndSet(false) ? 0 : backoff;
+		final var retry = new CompletableFuture<Void>();
+		this.retry = retry;
+		CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() -> retry.complete(null));
+		return retry.thenApplyAsync(ignored -> fetch(), plugin.getAsyncExecutor()).thenCompose(this::retryIfBusy);
+	}
+
+	/**
+	 * Tries to fetch the player's data again right away if it is waiting for another server to hand it
+	 * over. May be called from any thread.
+	 */
+	public void wake() {
+		woken.set(true);
+
+		final var retry = this.retry;
+		if (retry != null) retry.complete(null);
+	}
+
+	/**
+	 * Fetches the player's data from the database and claims it for this server. Must not be called
+	 * from the server thread.
+	 *
+	 * @return The result of the claim.
+	 */
+	private PlayerStore.Claim fetch() {
+		if (cancelled) return PlayerStore.Claim.BUSY;
+		attempts.incrementAndGet();
+
+		// This server still owns the lease while the previous session's final save is being written, so
+		// claiming now would succeed with outdated data
+		if (!session.isHandedOver()) return PlayerStore.Claim.BUSY;
+
+		final var claim = plugin.queryStore(store -> store.claim(playerUUID));
+		return claim != null ? claim : PlayerStore.Claim.BUSY;
+	}
+
+	/**
+	 * Hands a claim on the player's data back. Must not be called from the server thread.
+	 *
+	 * @param claim The claim to hand back.
+	 */
+	private void release(final @NotNull PlayerStore.Claim claim) {
+		if (!claim.claimed()) return;
+		plugin.withStore(store -> store.release(playerUUID, claim.version()));
+	}
+
+	/**
+	 * Ends the session after the player's data could not be decoded or applied. The claim is handed back and
+	 * the player is kicked, since playing on without their data would overwrite it with whatever they have
+	 * now. Must be called from the server thread.
+	 *
+	 * @param error The reason loading failed.
+	 * @return <tt>false</tt>, since the data was not applied.
+	 */
+	private boolean fail(final @NotNull Throwable error) {
+		final var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+		plugin.getLogger().severe("Failed to load data of player '%s': %s".formatted(playerUUID, cause));
+
+		final var future = fetched;
+		if (future != null && future.isDone() && !future.isCompletedExceptionally()) {
+			final var claim = future.join();
+			plugin.getAsyncExecutor().execute(() -> release(claim));
+		}
+
+		cancel();
+		if (session.transition(PlayerSession.State.LOADING, PlayerSession.State.SAVED)) plugin.closeSession(session);
+
+		final var player = plugin.getServer().getPlayer(playerUUID);
+		if (player != null) player.kickPlayer("Your player data could not be loaded, please try again later.");
+		return false;
+	}
+
+	/**
+	 * Decodes the fetched data, so that applying it is cheap. Must not be called from the server thread.
+	 *
+	 * @param claim The result of the fetch.
+	 * @return The claim together with the decoded data.
+	 */
+	private Decoded decode(final @NotNull PlayerStore.Claim claim) {
+		if (cancelled || claim.serial() == null) return new Decoded(claim, null);
+
+		final var start = System.nanoTime();
+		final var plan = ApplyPlan.of(plugin.config.saving, claim.serial());
+		plugin.getMetrics().decode.recordSince(start);
+		return new Decoded(claim, plan);
+	}
+
+	/**
+	 * Applies the fetched data to the player. Must be called from the server thread.
+	 *
+	 * @param decoded The result of the fetch.
+	 * @return <tt>true</tt> if the data was applied and <tt>false</tt> if not.
+	 */
+	private boolean apply(final @NotNull Decoded decoded) {
+		final var claim = decoded.claim;
+		final var player = plugin.getServer().getPlayer(playerUUID);
+
+		if (cancelled || player == null || session.getState() != PlayerSession.State.LOADING) {
+			// We've already claimed the player's data, so we need to hand it back.
+			if (claim.claimed()) plugin.getAsyncExecutor().execute(() -> release(claim));
+			return false;
+		}
+
+		final var start = System.nanoTime();
+		final var elapsed = (start - joined) / 1_000_000;
+		if (claim.serial() != null && decoded.plan != null) {
+			decoded.plan.apply(player);
+			trackStatistics(player, decoded.plan.getStatistics());
+			plugin.getMetrics().apply.recordSince(start);
+
+			// Remember what the stored data looks like, so that only changes are written back later
+			final var fingerprints = SectionFingerprints.of(plugin.config.saving, player, session.getStatistics());
+			for (final var section : claim.serial().getOutdatedSections()) fingerprints.forget(section);
+			session.setFingerprints(fingerprints);
+
+			plugin.getLogger().info("Loaded data of player '%s' from the database successfully in %d ms (%d attempts)".formatted(
+					player.getName(), elapsed, attempts.get()));
+		} else {
+			trackStatistics(player, null);
+			plugin.getLogger().info("Could not load player '%s' from the database because they joined for the first time".formatted(player.getName()));
+		}
+
+		if (!session.transition(PlayerSession.State.LOADING, PlayerSession.State.READY)) {
+			// The session ended while the data was being applied
+			plugin.getAsyncExecutor().execute(() -> release(claim));
+			return false;
+		}
+
+		plugin.getMetrics().loads.increment();
+		plugin.getMetrics().joinToReady.recordSince(joined);
+		return true;
+	}
+
+	/**
+	 * Starts tracking the player's statistics, if they are saved. Must be called from the server thread.
+	 *
+	 * @param player The player.
+	 * @param stored The statistics which were applied to the player or <tt>null</tt> if none were stored.
+	 *               Either way, all of the player's statistics are read once, a part per apply, to reset
+	 *               those which are not stored or to track them all.
+	 */
+	private void trackStatistics(final @NotNull Player player, final @Nullable Map<String, Integer> stored) {
+		if (!plugin.config.saving.statistics) return;
+
+		final var tracker = stored != null ? StatisticTracker.of(stored) : StatisticTracker.scan();
+		session.setStatistics(tracker);
+		scanStatistics(player, tracker);
+	}
+
+	/**
+	 * Queues reading the next part of the player's statistics in the {@link ApplyQueue}, so that reading
+	 * them all shares the time budget with everyone else's applies. Must be called from the server thread.
+	 *
+	 * @param player  The player.
+	 * @param tracker The tracker to read the statistics into.
+	 */
+	private void scanStatistics(final @NotNull Player player, final @NotNull StatisticTracker tracker) {
+		plugin.getApplyQueue().submit(() -> {
+			// The player left or was loaded again in the meantime
+			if (session.getStatistics() != tracker || !player.isOnline()) return false;
+			if (tracker.scanPart(player)) scanStatistics(player, tracker);
+			return true;
 		});
 	}
+
+	private record Decoded(PlayerStore.Claim claim, @Nullable ApplyPlan plan) {
+	}
 }
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Periodically writes all metrics to a file in the Prometheus text format, for example to be picked up
+ * by the node exporter's textfile collector. The file is replaced atomically, so readers never see a
+ * partially written file. Runs off the server thread.
+ */
+public class MetricsExportTask implements Runnable {
+	private final Tenacity plugin;
+	private final Path file;
+	private boolean failed = false;
+
+	public MetricsExportTask(Tenacity plugin, Path file) {
+		this.plugin = plugin;
+		this.file = file;
+	}
+
+	@Override
+	public void run() {
+		final var temporary = file.resolveSibling(file.getFileName() + ".tmp");
+
+		try {
+			try (final var out = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+				plugin.getMetrics().writePrometheus(out, plugin.getServerId());
+			}
+
+			Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			failed = false;
+		} catch (final IOException e) {
+			// Don't flood the log if the file can't be written at all
+			if (!failed) plugin.getLogger().warning("Failed to write metrics to %s: %s".formatted(file, e));
+			failed = true;
+		}
+	}
+}
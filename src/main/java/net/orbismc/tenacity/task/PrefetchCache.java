@@ -0,0 +1,120 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.session.PlayerSession;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds loads of players which were started before the players joined. The server knows who is about to
+ * join during pre-login, so fetching their data can start while the rest of the login happens. Once the
+ * player joins, their data is usually ready to be applied right away. Prefetched players who don't join
+ * within the configured time are discarded and their data is handed back. Every prefetched player has a
+ * session in the {@link PlayerSession.State#PREFETCHING} state. Runs off the server thread.
+ */
+public final class PrefetchCache implements Runnable {
+	private final Tenacity plugin;
+	private final int capacity;
+	private final long ttlNanos;
+	private final ConcurrentHashMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+	public PrefetchCache(final @NotNull Tenacity plugin) {
+		this.plugin = plugin;
+		this.capacity = Math.max(1, plugin.config.prefetch.capacity);
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(Math.max(1, plugin.config.prefetch.ttl));
+	}
+
+	/**
+	 * Starts fetching a player's data ahead of them joining. Does nothing if the cache is full or the
+	 * player already has a session which is loading or loaded.
+	 *
+	 * @param uuid The player to fetch.
+	 * @return <tt>true</tt> if fetching was started and <tt>false</tt> if not.
+	 */
+	public boolean prefetch(final @NotNull UUID uuid) {
+		if (entries.size() >= capacity) {
+			run();
+			if (entries.size() >= capacity) return false;
+		}
+
+		final var session = plugin.openSession(uuid, PlayerSession.State.PREFETCHING);
+		if (session == null) return false;
+
+		entries.put(uuid, new Entry(session, System.nanoTime() + ttlNanos));
+		session.getTask().prefetch();
+		return true;
+	}
+
+	/**
+	 * Takes the session of a prefetched player out of the cache.
+	 *
+	 * @param uuid The player who joined.
+	 * @return The prefetched session or <tt>null</tt> if there is none or it has expired.
+	 */
+	public @Nullable PlayerSession take(final @NotNull UUID uuid) {
+		final var entry = entries.remove(uuid);
+		if (entry == null) return null;
+
+		if (entry.isExpired(System.nanoTime())) {
+			discard(entry.session);
+			return null;
+		}
+
+		return entry.session;
+	}
+
+	/**
+	 * Discards the prefetched load of a player, for example because they were not allowed to join.
+	 *
+	 * @param uuid The player to discard.
+	 */
+	public void discard(final @NotNull UUID uuid) {
+		final var entry = entries.remove(uuid);
+		if (entry != null) discard(entry.session);
+	}
+
+	/**
+	 * Discards all prefetched loads.
+	 */
+	public void clear() {
+		for (final var uuid : entries.keySet()) discard(uuid);
+	}
+
+	/**
+	 * Discards all prefetched loads which have expired.
+	 */
+	@Override
+	public void run() {
+		final var now = System.nanoTime();
+		for (final var entry : entries.entrySet()) {
+			if (entry.getValue().isExpired(now) && entries.remove(entry.getKey(), entry.getValue())) {
+				discard(entry.getValue().session);
+			}
+		}
+	}
+
+	/**
+	 * @return The number of players currently prefetched.
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	private void discard(final @NotNull PlayerSession session) {
+		if (session.abandon()) plugin.closeSession(session);
+	}
+
+	private record Entry(PlayerSession session, long expires) {
+		boolean isExpired(final long now) {
+			return now - expires > 0;
+		}
+	}
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.store.CircuitBreaker;
+import net.orbismc.tenacity.store.RetentionPolicy;
+import net.orbismc.tenacity.store.StoreException;
+
+/**
+ * Drops the snapshots the retention policy no longer keeps from the history of all players. Runs off the
+ * server thread. Pruning takes a while by design, so it bypasses the circuit breaker rather than being
+ * counted as a slow call, but it is skipped while the breaker is open.
+ */
+public class PruneHistoryTask implements Runnable {
+	private final Tenacity plugin;
+	private final RetentionPolicy policy;
+
+	public PruneHistoryTask(Tenacity plugin, RetentionPolicy policy) {
+		this.plugin = plugin;
+		this.policy = policy;
+	}
+
+	@Override
+	public void run() {
+		if (plugin.getCircuitBreaker().getState() != CircuitBreaker.State.CLOSED) return;
+
+		try {
+			final var pruned = plugin.getStore().pruneSnapshots(policy, System.currentTimeMillis());
+			if (pruned > 0) plugin.getLogger().info("Dropped %d snapshots from the player history".formatted(pruned));
+		} catch (final StoreException e) {
+			plugin.getLogger().severe("Failed to prune the player history: %s".formatted(e));
+		}
+	}
+}
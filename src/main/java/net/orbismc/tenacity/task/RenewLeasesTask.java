@@ -0,0 +1,31 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.store.StoreException;
+
+/**
+ * Extends the leases this server holds on the data of its players, see {@link Tenacity#getLeasedPlayers()}.
+ * Runs off the server thread. Leases are renewed even while the circuit breaker is open, since other servers
+ * could otherwise take over players who are still online here. This is a single statement per 64 players
+ * every few seconds, so it does not add to the load.
+ */
+public class RenewLeasesTask implements Runnable {
+	private final Tenacity plugin;
+
+	public RenewLeasesTask(Tenacity plugin) {
+		this.plugin = plugin;
+	}
+
+	@Override
+	public void run() {
+		try {
+			plugin.getStore().renewLeases(plugin.getLeasedPlayers());
+		} catch (final StoreException e) {
+			plugin.getLogger().severe(e.toString());
+		}
+	}
+}
@@ -0,0 +1,612 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.task;
+
+import net.orbismc.tenacity.Tenacity;
+import net.orbismc.tenacity.db.SaveJournal;
+import net.orbismc.tenacity.serial.AdvancementCodec;
+import net.orbismc.tenacity.serial.PlayerSnapshot;
+import net.orbismc.tenacity.serial.Section;
+import net.orbismc.tenacity.serial.SerializedPlayer;
+import net.orbismc.tenacity.session.PlayerSession;
+import net.orbismc.tenacity.store.PlayerStore;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * A write-behind pipeline for saving players. Snapshots are taken on the server thread and handed to
+ * this pipeline, which serializes them and writes them to the database in batches on its own thread.
+ * Saving the same player again while an earlier save is still queued replaces the queued snapshot, so
+ * every player is queued at most once and the queue never grows beyond the number of players. Nothing is
+ * ever written on the server thread, not even while the database is falling behind.
+ * <p>
+ * If enabled, every save is recorded in a {@link SaveJournal} before it is written. Should the database
+ * be unreachable, the saves remain in the journal and are written once it is reachable again. Without the
+ * journal, saves which could not be written are kept in memory and retried with a growing delay.
+ */
+public final class SavePipeline {
+	private final Tenacity plugin;
+	private static final long FULL_WARNING_NANOS = TimeUnit.MINUTES.toNanos(1);
+	private static final long MIN_RETRY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final int batchSize;
+	private final int capacity;
+	private final BlockingQueue<UUID> queue = new LinkedBlockingQueue<>();
+	private final ConcurrentHashMap<UUID, PendingSave> pending = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<EnumSet<Section>, List<String>> columnsBySections = new ConcurrentHashMap<>();
+	private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+		final var thread = new Thread(r, "Tenacity Save Worker");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final @Nullable SaveJournal journal;
+	private final long retryNanos;
+	private final List<PendingSave> retrying = new ArrayList<>();
+	private final List<PlayerSession> journaled = new ArrayList<>();
+	private long retryDelay;
+	private long nextRetry = System.nanoTime();
+	private final Object replayLock = new Object();
+	private volatile long nextReplay = System.nanoTime();
+	private volatile long nextFullWarning = System.nanoTime();
+
+	private final AtomicLong saveCount = new AtomicLong();
+	private final AtomicLong saveNanos = new AtomicLong();
+	private final AtomicLong maxSaveNanos = new AtomicLong();
+	private volatile boolean running = true;
+
+	public SavePipeline(final @NotNull Tenacity plugin) {
+		this.plugin = plugin;
+		this.batchSize = Math.max(1, plugin.config.queue.batchSize);
+		this.capacity = Math.max(1, plugin.config.queue.capacity);
+		this.retryNanos = TimeUnit.SECONDS.toNanos(Math.max(1, plugin.config.journal.retryInterval));
+		this.retryDelay = Math.min(MIN_RETRY_NANOS, retryNanos);
+
+		SaveJournal journal = null;
+		if (plugin.config.journal.enabled) {
+			try {
+				final var directory = plugin.getDataFolder().toPath().resolve("journal");
+				journal = new SaveJournal(directory, plugin.config.journal.segmentSize * 1024 * 1024, plugin.getLogger());
+			} catch (final IOException e) {
+				plugin.getLogger().severe("Failed to open the save journal, saving without it: %s".formatted(e));
+			}
+		}
+
+		this.journal = journal;
+		this.executor.execute(this::run);
+	}
+
+	/**
+	 * Queues a snapshot to be written to the database. If a snapshot of the same player is already
+	 * waiting to be written, it is replaced by the given one. Sections only present in the older snapshot
+	 * are carried over.
+	 *
+	 * @param snapshot The snapshot to save.
+	 * @param release  Set to <tt>true</tt> if the player is leaving the server and their data should be handed
+	 *                 over to the next server, or <tt>false</tt> if this is only a checkpoint of a player
+	 *                 who is still online.
+	 */
+	public void submit(final @NotNull PlayerSnapshot snapshot, final boolean release) {
+		enqueue(snapshot, release, null);
+	}
+
+	/**
+	 * Queues the final snapshot of a player who left the server to be written to the database. Once it has
+	 * been written, or kept in the journal because the database could not be reached, the player's session
+	 * moves from {@link PlayerSession.State#SAVING} to {@link PlayerSession.State#SAVED}.
+	 *
+	 * @param session  The session of the player, which must be saving.
+	 * @param snapshot The snapshot to save.
+	 */
+	public void release(final @NotNull PlayerSession session, final @NotNull PlayerSnapshot snapshot) {
+		enqueue(snapshot, true, session);
+	}
+
+	private void enqueue(final @NotNull PlayerSnapshot snapshot, final boolean release, final @Nullable PlayerSession session) {
+		final var submitted = System.nanoTime();
+		final var save = pending.compute(snapshot.uuid, (uuid, previous) -> previous == null
+				? new PendingSave(snapshot, submitted, release, session, false)
+				: new PendingSave(snapshot.mergeOlder(previous.snapshot), previous.submitted, release || previous.release,
+				session != null ? session : previous.session, true));
+
+		// The player is already queued, the worker will pick up the combined snapshot
+		if (save.coalesced()) return;
+
+		// While shutting down, everything pending is written by the final flush
+		if (!running) return;
+
+		// Every player is queued at most once, so the queue is bounded by the number of players
+		queue.add(snapshot.uuid);
+
+		final var depth = queue.size();
+		if (depth > capacity && submitted - nextFullWarning >= 0) {
+			nextFullWarning = submitted + FULL_WARNING_NANOS;
+			plugin.getLogger().warning("%d players are waiting to be saved, the database is not keeping up".formatted(depth));
+		}
+	}
+
+	/**
+	 * @return The number of players currently waiting to be written to the database.
+	 */
+	public int getQueueDepth() {
+		return queue.size();
+	}
+
+	/**
+	 * @return The number of saves recorded in the journal which have not been written to the database yet.
+	 */
+	public int getJournalSize() {
+		return journal != null ? journal.size() : 0;
+	}
+
+	/**
+	 * @return The players whose saves are queued or recorded in the journal, but not written to the
+	 * database yet. May be called from any thread.
+	 */
+	public Set<UUID> getPendingPlayers() {
+		final var players = new HashSet<>(pending.keySet());
+		if (journal != null) players.addAll(journal.getPendingPlayers());
+		return players;
+	}
+
+	/**
+	 * @return The number of saves completed since the pipeline was started.
+	 */
+	public long getSaveCount() {
+		return saveCount.get();
+	}
+
+	/**
+	 * @return The average time in milliseconds from submitting a snapshot to it being written.
+	 */
+	public double getAverageLatency() {
+		final var count = saveCount.get();
+		return count == 0 ? 0 : saveNanos.get() / (double) count / 1_000_000.0;
+	}
+
+	/**
+	 * @return The longest time in milliseconds from submitting a snapshot to it being written.
+	 */
+	public double getMaxLatency() {
+		return maxSaveNanos.get() / 1_000_000.0;
+	}
+
+	/**
+	 * Stops accepting new saves and writes everything still queued, together with the given final snapshots,
+	 * to the database. The saves are split across several connections which write in parallel. Players
+	 * who could not be saved before the deadline are logged. If the journal is enabled, saves left in it are
+	 * written as well and whatever could not be written stays in it for the next start.
+	 *
+	 * @param snapshots   Final snapshots of players who are still online. They are saved as if the players
+	 *                    left the server.
+	 * @param parallelism The number of connections to write with.
+	 * @param timeout     The maximum amount of time to wait.
+	 * @param unit        The unit of <tt>timeout</tt>.
+	 */
+	public void shutdown(final @NotNull List<PlayerSnapshot> snapshots, final int parallelism,
+						 final long timeout, final @NotNull TimeUnit unit) {
+		final var deadline = System.nanoTime() + unit.toNanos(timeout);
+		running = false;
+		executor.shutdown();
+
+		try {
+			// Let the worker finish the batch it is currently writing
+			executor.awaitTermination(timeout, unit);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		for (final var snapshot : snapshots) submit(snapshot, true);
+		final var remaining = new ArrayList<>(pending.values());
+		pending.clear();
+		queue.clear();
+
+		final var names = new HashMap<UUID, String>();
+		final var writes = new ArrayList<PlayerStore.Write>();
+		for (final var save : remaining) {
+			names.put(save.snapshot.uuid, save.snapshot.name);
+			writes.add(serialize(save));
+		}
+
+		// With the journal, everything still waiting in it has to be written as well
+		final var entries = record(writes) ? journal.getPending() : null;
+		final var work = entries != null ? entries.stream().map(SaveJournal.Entry::write).toList() : writes;
+
+		if (work.isEmpty()) {
+			if (journal != null) journal.close();
+			return;
+		}
+
+		// Deal the saves out to the connections
+		final var threads = Math.max(1, Math.min(parallelism, work.size()));
+		final var chunks = new ArrayList<List<Integer>>();
+		for (int i = 0; i < threads; i++) chunks.add(new ArrayList<>());
+		for (int i = 0; i < work.size(); i++) chunks.get(i % threads).add(i);
+
+		final var saved = ConcurrentHashMap.<UUID>newKeySet();
+		final var flushExecutor = Executors.newFixedThreadPool(threads, r -> {
+			final var thread = new Thread(r, "Tenacity Shutdown Flush");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		for (final var chunk : chunks) {
+			flushExecutor.execute(() -> {
+				for (int i = 0; i < chunk.size(); i += batchSize) {
+					if (System.nanoTime() > deadline) return;
+
+					final var batch = chunk.subList(i, Math.min(i + batchSize, chunk.size()));
+					final var rejected = flush(batch.stream().map(work::get).toList());
+					if (rejected == null) continue;
+
+					for (final var index : batch) {
+						// Rejected saves stay in the journal, they may be accepted once this server owns the player again
+						if (rejected.contains(work.get(index).serial().uuid)) continue;
+						saved.add(work.get(index).serial().uuid);
+						if (entries != null) journal.markWritten(entries.get(index));
+					}
+				}
+			});
+		}
+
+		flushExecutor.shutdown();
+		try {
+			flushExecutor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		flushExecutor.shutdownNow();
+
+		final var unsaved = work.stream()
+				.map(write -> write.serial().uuid)
+				.filter(uuid -> !saved.contains(uuid))
+				.map(uuid -> names.getOrDefault(uuid, uuid.toString()))
+				.toList();
+
+		if (unsaved.isEmpty()) {
+			plugin.getLogger().info("Saved %d players before shutting down".formatted(work.size()));
+		} else if (entries != null) {
+			plugin.getLogger().warning("Could not save %d of %d players before shutting down, they will be saved from the journal on the next start: %s".formatted(
+					unsaved.size(), work.size(), String.join(", ", unsaved)));
+		} else {
+			plugin.getLogger().severe("Could not save %d of %d players before shutting down: %s".formatted(
+					unsaved.size(), work.size(), String.join(", ", unsaved)));
+		}
+
+		if (journal != null) journal.close();
+	}
+
+	private void run() {
+		final var uuids = new ArrayList<UUID>(batchSize);
+		final var batch = new ArrayList<PendingSave>(batchSize);
+
+		while (running) {
+			if (!retrying.isEmpty() && System.nanoTime() - nextRetry >= 0) {
+				for (final var save : retrying) queue.add(save.snapshot.uuid);
+				retrying.clear();
+			}
+
+			try {
+				final var first = queue.poll(250, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					// Nothing to save right now, try writing what is left in the journal
+					if (journal != null && journal.size() > 0 && System.nanoTime() - nextReplay >= 0) replayJournal();
+					continue;
+				}
+
+				uuids.add(first);
+				queue.drainTo(uuids, batchSize - 1);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			for (final var uuid : uuids) {
+				final var save = pending.remove(uuid);
+				if (save != null) batch.add(save);
+			}
+
+			write(batch);
+			uuids.clear();
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Serializes the given saves and writes them to the database in a single batch. If the journal is
+	 * enabled, the saves are recorded in it first and written together with any older saves in it. Saves
+	 * which could neither be written nor recorded are retried later.
+	 *
+	 * @param batch The saves to write.
+	 */
+	private void write(final @NotNull List<PendingSave> batch) {
+		Outcome outcome;
+		try {
+			outcome = writeBatch(batch);
+		} catch (final RuntimeException e) {
+			// Serializing the same data again would fail again, so the saves are given up
+			plugin.getLogger().severe("Failed to save %d players: %s".formatted(batch.size(), e));
+			markChanged(batch);
+			outcome = Outcome.WRITTEN;
+		}
+
+		if (outcome == Outcome.FAILED) {
+			markChanged(batch);
+			retry(batch);
+			return;
+		}
+
+		retryDelay = Math.min(MIN_RETRY_NANOS, retryNanos);
+		for (final var save : batch) {
+			if (save.session == null) continue;
+
+			// Until the journal reaches the database, a new session would claim outdated data
+			if (outcome == Outcome.JOURNALED) journaled.add(save.session);
+			else close(save.session);
+		}
+	}
+
+	private void close(final @NotNull PlayerSession session) {
+		if (session.transition(PlayerSession.State.SAVING, PlayerSession.State.SAVED)) plugin.closeSession(session);
+	}
+
+	/**
+	 * Writes the journal to the database like {@link #replay()} and, if everything was written, completes
+	 * the sessions whose final save was only recorded in it so far. Must only be called by the worker.
+	 *
+	 * @return <tt>true</tt> if all saves were written and <tt>false</tt> if the database could not be reached.
+	 */
+	private boolean replayJournal() {
+		if (!replay()) return false;
+
+		for (final var session : journaled) close(session);
+		journaled.clear();
+		return true;
+	}
+
+	/**
+	 * Makes sure the sections of the given saves are captured again by the next save of players who are
+	 * still online. The fingerprints of a player's session are updated as soon as a save is submitted,
+	 * so otherwise the next save would skip sections which never reached the database.
+	 *
+	 * @param batch The saves which were not written.
+	 */
+	private void markChanged(final @NotNull List<PendingSave> batch) {
+		if (!plugin.isEnabled()) return;
+
+		final var changed = batch.stream().filter(save -> !save.release)
+				.collect(Collectors.toMap(save -> save.snapshot.uuid, save -> EnumSet.copyOf(save.snapshot.sections)));
+		if (changed.isEmpty()) return;
+
+		plugin.getMainExecutor().execute(() -> changed.forEach((uuid, sections) -> {
+			final var session = plugin.getSession(uuid);
+			final var fingerprints = session != null && session.isReady() ? session.getFingerprints() : null;
+			if (fingerprints != null) for (final var section : sections) fingerprints.forget(section);
+		}));
+	}
+
+	/**
+	 * Puts saves which could not be written back into the queue, to be tried again after a delay which
+	 * doubles with every failure. Newer saves of the same players queued in the meantime take precedence.
+	 * Sessions of players who left stay {@link PlayerSession.State#SAVING} until their save is written.
+	 *
+	 * @param batch The saves to retry.
+	 */
+	private void retry(final @NotNull List<PendingSave> batch) {
+		plugin.getLogger().warning("Could not write %d saves to the database, trying again in %d ms".formatted(
+				batch.size(), TimeUnit.NANOSECONDS.toMillis(retryDelay)));
+
+		nextRetry = System.nanoTime() + retryDelay;
+		retryDelay = Math.min(retryDelay * 2, retryNanos);
+
+		for (final var save : batch) {
+			final var merged = pending.compute(save.snapshot.uuid, (uuid, newer) -> newer == null ? save
+					: new PendingSave(newer.snapshot.mergeOlder(save.snapshot), save.submitted, newer.release || save.release,
+					newer.session != null ? newer.session : save.session, true));
+
+			// A newer save is already queued and takes the failed one along
+			if (merged == save) retrying.add(save);
+		}
+	}
+
+	private Outcome writeBatch(final @NotNull List<PendingSave> batch) {
+		if (batch.isEmpty()) return Outcome.WRITTEN;
+
+		final var started = System.nanoTime();
+		final var writes = new ArrayList<PlayerStore.Write>(batch.size());
+		for (final var save : batch) {
+			plugin.getMetrics().saveQueueWait.record(started - save.submitted);
+			writes.add(serialize(save));
+		}
+
+		// Older saves in the journal have to be written first. While the database is unreachable, they
+		// are only retried every now and then. If recording failed, the saves are written directly, but
+		// still only after the journal, which would otherwise overwrite them with older data later on.
+		final var recorded = record(writes);
+		final var written = recorded
+				? System.nanoTime() - nextReplay >= 0 && replayJournal()
+				: (journal == null || journal.size() == 0 || replayJournal()) && flush(writes) != null;
+		if (!written) return recorded ? Outcome.JOURNALED : Outcome.FAILED;
+
+		final var now = System.nanoTime();
+		final var released = new ArrayList<UUID>();
+		for (final var save : batch) {
+			final var latency = now - save.submitted;
+			saveCount.incrementAndGet();
+			saveNanos.addAndGet(latency);
+			maxSaveNanos.accumulateAndGet(latency, Math::max);
+			plugin.getMetrics().save.record(latency);
+			plugin.getMetrics().saves.increment();
+
+			// Checkpoints happen all the time, only log when players actually leave
+			if (!save.release) continue;
+			released.add(save.snapshot.uuid);
+			plugin.getLogger().info("Saved player data of '%s' to the database in %.1f ms (%d saves queued)".formatted(
+					save.snapshot.name, latency / 1_000_000.0, queue.size()));
+		}
+
+		// Let the server a player is switching to know that it can load them now
+		final var handoff = plugin.getHandoffChannel();
+		if (handoff != null && !released.isEmpty() && plugin.isEnabled()) {
+			plugin.getMainExecutor().execute(() -> handoff.publish(released));
+		}
+
+		return Outcome.WRITTEN;
+	}
+
+	/**
+	 * Serializes a save.
+	 *
+	 * @param save The save to serialize.
+	 * @return The data to write to the database.
+	 */
+	private PlayerStore.Write serialize(final @NotNull PendingSave save) {
+		final var store = plugin.getStore();
+		final var recipeBook = save.snapshot.recipeBook;
+		if (recipeBook != null && recipeBook.stream().anyMatch(recipe -> store.getRecipeId(recipe) < 0)) {
+			// If the store is unreachable, the recipe book is stored in the legacy format instead
+			plugin.withStore(s -> s.registerRecipes(recipeBook));
+		}
+
+		if (save.snapshot.advancements != null) {
+			final var criteria = AdvancementCodec.criteria(save.snapshot.advancements);
+			if (criteria.stream().anyMatch(criterion -> store.getCriterionId(criterion) < 0)) {
+				// Just like recipe books, progress is stored as JSON if the store is unreachable
+				plugin.withStore(s -> s.registerCriteria(criteria));
+			}
+		}
+
+		final var serial = SerializedPlayer.fromSnapshot(plugin.config.storage, save.snapshot, store::getRecipeId,
+				store::getCriterionId);
+		final var columns = getColumns(serial.sections);
+
+		for (final var column : columns) {
+			final var value = serial.getColumn(column);
+			if (value instanceof final byte[] bytes) plugin.getMetrics().payload(column).record(bytes.length);
+			else if (value instanceof final String string) plugin.getMetrics().payload(column).record(string.length());
+		}
+
+		return new PlayerStore.Write(serial, columns, save.release);
+	}
+
+	/**
+	 * Records the given writes in the journal.
+	 *
+	 * @param writes The writes to record.
+	 * @return <tt>true</tt> if the writes were recorded and <tt>false</tt> if the journal is disabled or
+	 * recording failed.
+	 */
+	private boolean record(final @NotNull List<PlayerStore.Write> writes) {
+		if (journal == null) return false;
+
+		try {
+			for (final var write : writes) journal.append(write);
+			journal.sync();
+			return true;
+		} catch (final IOException e) {
+			plugin.getLogger().severe("Failed to record %d saves in the journal: %s".formatted(writes.size(), e));
+			return false;
+		}
+	}
+
+	/**
+	 * Writes all saves in the journal to the database, in the order they were recorded.
+	 *
+	 * @return <tt>true</tt> if all saves were written and <tt>false</tt> if the database could not be reached.
+	 */
+	private boolean replay() {
+		Objects.requireNonNull(journal);
+
+		synchronized (replayLock) {
+			final var entries = journal.getPending();
+
+			for (int i = 0; i < entries.size(); i += batchSize) {
+				final var batch = entries.subList(i, Math.min(i + batchSize, entries.size()));
+
+				final var rejected = flush(batch.stream().map(SaveJournal.Entry::write).toList());
+				if (rejected == null) {
+					nextReplay = System.nanoTime() + retryNanos;
+					plugin.getLogger().warning("Could not write to the database, keeping %d saves in the journal and trying again in %d seconds".formatted(
+							journal.size(), TimeUnit.NANOSECONDS.toSeconds(retryNanos)));
+
+					try {
+						journal.compact();
+					} catch (final IOException e) {
+						plugin.getLogger().warning("Failed to compact the journal: %s".formatted(e));
+					}
+
+					return false;
+				}
+
+				for (final var entry : batch) {
+					// Keep what was rejected rather than losing it, it is tried again with the next replay
+					if (!rejected.contains(entry.write().serial().uuid)) journal.markWritten(entry);
+				}
+			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Writes the given saves to the database. Every write is guarded by this server's lease on the player's
+	 * data: if another server has taken over the player in the meantime, the write is rejected.
+	 *
+	 * @param writes The saves to write.
+	 * @return The players whose saves were rejected, or <tt>null</tt> if accessing the database failed.
+	 */
+	private @Nullable Set<UUID> flush(final @NotNull List<PlayerStore.Write> writes) {
+		return plugin.queryStore(store -> {
+			final var rejected = new HashSet<>(store.save(writes));
+			for (final var uuid : rejected) {
+				plugin.getLogger().severe("Could not save player data of '%s' because another server has taken it over".formatted(uuid));
+			}
+
+			return rejected;
+		});
+	}
+
+	/**
+	 * Gets the columns which need to be written to save the given sections.
+	 *
+	 * @param sections The sections to save.
+	 * @return The names of the columns.
+	 */
+	private List<String> getColumns(final @NotNull EnumSet<Section> sections) {
+		return columnsBySections.computeIfAbsent(sections, key -> {
+			final var columns = new ArrayList<String>();
+			for (final var section : key) columns.addAll(section.getColumns(plugin.config.saving));
+			return List.copyOf(columns);
+		});
+	}
+
+	private enum Outcome {
+		/**
+		 * The saves were written to the database.
+		 */
+		WRITTEN,
+
+		/**
+		 * The saves were recorded in the journal, which writes them to the database later.
+		 */
+		JOURNALED,
+
+		/**
+		 * The saves were neither written nor recorded and have to be tried again.
+		 */
+		FAILED
+	}
+
+	private record PendingSave(PlayerSnapshot snapshot, long submitted, boolean release,
+							   @Nullable PlayerSession session, boolean coalesced) {
+	}
+}
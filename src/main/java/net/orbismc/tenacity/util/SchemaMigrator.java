@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.util;
+
+import net.orbismc.tenacity.db.SqlDialect;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+/**
+ * Brings the database schema up to date. Every version of the schema is described by a script in the
+ * <tt>schema/</tt> resource folder, named after the version it upgrades to (<tt>1.sql</tt>, <tt>2.sql</tt>
+ * and so on). The version of the database is kept in the <tt>tenacity_schema</tt> table. Embedded H2
+ * databases have their own, shorter history in <tt>schema/h2/</tt>, since they never had to be migrated
+ * from older versions of tenacity.
+ * <p>
+ * If several servers start at the same time, only one of them migrates the database. On MariaDB, the others
+ * wait for a named lock and find the schema up to date once they get it. Embedded H2 databases are only ever
+ * opened by a single server.
+ */
+public final class SchemaMigrator {
+	private static final String LOCK_NAME = "tenacity_schema";
+	private static final int LOCK_TIMEOUT_SECONDS = 300;
+
+	private final Function<String, InputStream> resources;
+	private final SqlDialect dialect;
+	private final Logger logger;
+
+	/**
+	 * @param resources A function used to open a resource file by name.
+	 * @param dialect   The database to migrate.
+	 * @param logger    The logger to report migrations to.
+	 */
+	public SchemaMigrator(final @NotNull Function<String, InputStream> resources, final @NotNull SqlDialect dialect,
+						  final @NotNull Logger logger) {
+		this.resources = resources;
+		this.dialect = dialect;
+		this.logger = logger;
+	}
+
+	/**
+	 * Runs all migrations which have not yet been applied to the database.
+	 *
+	 * @param conn The connection to migrate.
+	 * @throws SQLException If running a migration fails.
+	 * @throws IOException  If a migration script could not be read.
+	 */
+	public void migrate(final @NotNull Connection conn) throws SQLException, IOException {
+		lock(conn);
+
+		try {
+			migrateLocked(conn);
+		} finally {
+			unlock(conn);
+		}
+	}
+
+	private void migrateLocked(final @NotNull Connection conn) throws SQLException, IOException {
+		try (final var stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE IF NOT EXISTS tenacity_schema (version INTEGER NOT NULL PRIMARY KEY)");
+		}
+
+		int current = 0;
+		try (final var stmt = conn.createStatement(); final var result = stmt.executeQuery("SELECT MAX(version) FROM tenacity_schema")) {
+			if (result.next()) current = result.getInt(1);
+		}
+
+		for (int version = current + 1; version <= dialect.getSchemaVersion(); version++) {
+			logger.info("Migrating the database to schema version %d".formatted(version));
+
+			try (final var stmt = conn.createStatement()) {
+				for (final var statement : readScript(version)) stmt.execute(statement);
+			}
+
+			try (final var stmt = conn.prepareStatement("INSERT INTO tenacity_schema (version) VALUES (?)")) {
+				stmt.setInt(1, version);
+				stmt.executeUpdate();
+			}
+		}
+	}
+
+	/**
+	 * Waits until no other server is migrating the database.
+	 *
+	 * @param conn The connection to take the lock with. The lock belongs to this connection.
+	 * @throws SQLException If the lock could not be taken in time.
+	 */
+	private void lock(final @NotNull Connection conn) throws SQLException {
+		if (dialect != SqlDialect.MARIADB) return;
+
+		try (final var stmt = conn.prepareStatement("SELECT GET_LOCK(?, ?)")) {
+			stmt.setString(1, LOCK_NAME);
+			stmt.setInt(2, LOCK_TIMEOUT_SECONDS);
+
+			try (final var result = stmt.executeQuery()) {
+				if (!result.next() || result.getInt(1) != 1) {
+					throw new SQLException("Timed out waiting for another server to migrate the database");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Lets other servers migrate the database again.
+	 *
+	 * @param conn The connection holding the lock.
+	 */
+	private void unlock(final @NotNull Connection conn) {
+		if (dialect != SqlDialect.MARIADB) return;
+
+		try (final var stmt = conn.prepareStatement("SELECT RELEASE_LOCK(?)")) {
+			stmt.setString(1, LOCK_NAME);
+			stmt.executeQuery().close();
+		} catch (final SQLException e) {
+			// The lock is released with the connection at the latest
+			logger.warning("Failed to release the schema lock: %s".formatted(e));
+		}
+	}
+
+	/**
+	 * Reads the migration script for the given version and splits it into separate statements.
+	 *
+	 * @param version The version to read the script of.
+	 * @return The statements in the script.
+	 * @throws IOException If the script could not be read.
+	 */
+	private String[] readScript(final int version) throws IOException {
+		final var name = dialect.getSchemaScript().formatted(version);
+
+		try (final var resource = resources.apply(name)) {
+			if (resource == null) throw new IOException("Missing migration script %s".formatted(name));
+
+			final var content = new String(resource.readAllBytes(), StandardCharsets.UTF_8);
+			return Arrays.stream(content.split(";"))
+					.map(String::strip)
+					.filter(s -> !s.isEmpty())
+					.toArray(String[]::new);
+		}
+	}
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.util;
+
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import org.jetbrains.annotations.NotNull;
+
+public interface StoreAction {
+	/**
+	 * Perform an action which requires access to the player store.
+	 *
+	 * @param store The store to use.
+	 * @throws StoreException An exception occurring as a result of accessing the store.
+	 */
+	void perform(final @NotNull PlayerStore store) throws StoreException;
+}
@@ -0,0 +1,20 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.util;
+
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import org.jetbrains.annotations.NotNull;
+
+public interface StoreQuery<T> {
+	/**
+	 * Perform a query which requires access to the player store and produces a result.
+	 *
+	 * @param store The store to use.
+	 * @return The result of the query.
+	 * @throws StoreException An exception occurring as a result of accessing the store.
+	 */
+	T query(final @NotNull PlayerStore store) throws StoreException;
+}
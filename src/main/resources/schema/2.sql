@@ -0,0 +1,4 @@
+ALTER TABLE players
+    MODIFY inventory   MEDIUMBLOB,
+    MODIFY ender_chest MEDIUMBLOB,
+    MODIFY armor_items MEDIUMBLOB;
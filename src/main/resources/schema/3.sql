@@ -0,0 +1,13 @@
+ALTER TABLE players
+    ADD COLUMN version       BIGINT      NOT NULL DEFAULT 0,
+    ADD COLUMN owner         VARCHAR(64) NULL,
+    ADD COLUMN lease_expires DATETIME(3) NULL;
+
+UPDATE players
+SET owner         = 'unknown',
+    lease_expires = NOW(3)
+WHERE last_event IS NULL
+   OR last_event <> 'save';
+
+ALTER TABLE players
+    DROP COLUMN last_event;
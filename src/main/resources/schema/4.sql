@@ -0,0 +1,21 @@
+CREATE TABLE IF NOT EXISTS players_inventory
+(
+    uuid          VARCHAR(64) NOT NULL PRIMARY KEY,
+    inventory     MEDIUMBLOB,
+    selected_slot INTEGER,
+    FOREIGN KEY (uuid) REFERENCES players (uuid) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS players_ender_chest
+(
+    uuid        VARCHAR(64) NOT NULL PRIMARY KEY,
+    ender_chest MEDIUMBLOB,
+    FOREIGN KEY (uuid) REFERENCES players (uuid) ON DELETE CASCADE
+);
+
+CREATE TABLE IF NOT EXISTS players_recipe_book
+(
+    uuid        VARCHAR(64) NOT NULL PRIMARY KEY,
+    recipe_book TEXT,
+    FOREIGN KEY (uuid) REFERENCES players (uuid) ON DELETE CASCADE
+);
@@ -0,0 +1,11 @@
+CREATE TABLE IF NOT EXISTS tenacity_recipes
+(
+    id     INTEGER      NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    recipe VARCHAR(255) NOT NULL UNIQUE
+);
+
+ALTER TABLE players
+    MODIFY recipe_book BLOB;
+
+ALTER TABLE players_recipe_book
+    MODIFY recipe_book BLOB;
@@ -0,0 +1,13 @@
+ALTER TABLE players
+    ADD COLUMN history_deltas INTEGER NULL;
+
+CREATE TABLE IF NOT EXISTS player_snapshots
+(
+    id       BIGINT       NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    uuid     VARCHAR(64)  NOT NULL,
+    created  DATETIME(3)  NOT NULL,
+    keyframe BOOLEAN      NOT NULL,
+    data     MEDIUMBLOB   NOT NULL,
+    INDEX (uuid, id),
+    INDEX (created)
+);
@@ -0,0 +1,5 @@
+ALTER TABLE players
+    ADD COLUMN statistics BLOB NULL;
+
+ALTER TABLE players
+    ADD COLUMN persistent_data MEDIUMBLOB NULL;
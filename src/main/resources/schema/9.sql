@@ -0,0 +1,2 @@
+ALTER TABLE player_snapshots
+    MODIFY COLUMN created DATETIME(3) NOT NULL;
@@ -0,0 +1,36 @@
+CREATE TABLE IF NOT EXISTS players
+(
+    uuid            VARCHAR(64) NOT NULL PRIMARY KEY,
+
+    air             INTEGER,
+    fire            INTEGER,
+    glowing         BOOLEAN,
+    health          DOUBLE,
+    absorption      DOUBLE,
+
+    active_effects  TEXT,
+    recipe_book     BLOB,
+
+    food_level      INTEGER,
+    food_exhaustion DOUBLE,
+    food_saturation DOUBLE,
+
+    xp_level        INTEGER,
+    xp_percentage   DOUBLE,
+    xp_total        INTEGER,
+
+    inventory       BLOB,
+    ender_chest     BLOB,
+    armor_items     BLOB,
+    selected_slot   INTEGER,
+
+    version         BIGINT      NOT NULL DEFAULT 0,
+    owner           VARCHAR(64) NULL,
+    lease_expires   TIMESTAMP(3) NULL
+);
+
+CREATE TABLE IF NOT EXISTS tenacity_recipes
+(
+    id     INTEGER      NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    recipe VARCHAR(255) NOT NULL UNIQUE
+);
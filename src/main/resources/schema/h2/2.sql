@@ -0,0 +1,15 @@
+ALTER TABLE players
+    ADD COLUMN history_deltas INTEGER NULL;
+
+CREATE TABLE IF NOT EXISTS player_snapshots
+(
+    id       BIGINT       NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    uuid     VARCHAR(64)  NOT NULL,
+    created  TIMESTAMP(3) NOT NULL,
+    keyframe BOOLEAN      NOT NULL,
+    data     BLOB         NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS player_snapshots_uuid ON player_snapshots (uuid, id);
+
+CREATE INDEX IF NOT EXISTS player_snapshots_created ON player_snapshots (created);
@@ -0,0 +1,8 @@
+ALTER TABLE players
+    ADD COLUMN advancements BLOB NULL;
+
+CREATE TABLE IF NOT EXISTS tenacity_criteria
+(
+    id        INTEGER      NOT NULL AUTO_INCREMENT PRIMARY KEY,
+    criterion VARCHAR(255) NOT NULL UNIQUE
+);
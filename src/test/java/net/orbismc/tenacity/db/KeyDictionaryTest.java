@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.db;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.bukkit.NamespacedKey;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class KeyDictionaryTest {
+	private Database database;
+
+	@BeforeEach
+	void setUp() throws SQLException {
+		database = Database.h2("jdbc:h2:mem:keys;DB_CLOSE_DELAY=-1", new TenacityConfig.TenacityDatabaseConfig(), "test");
+
+		try (final var conn = database.getConnection(); final var stmt = conn.createStatement()) {
+			stmt.execute("CREATE TABLE tenacity_recipes (id INTEGER NOT NULL AUTO_INCREMENT PRIMARY KEY, recipe VARCHAR(255) NOT NULL UNIQUE)");
+		}
+	}
+
+	@AfterEach
+	void tearDown() throws SQLException {
+		try (final var conn = database.getConnection(); final var stmt = conn.createStatement()) {
+			stmt.execute("DROP ALL OBJECTS");
+		}
+
+		database.close();
+	}
+
+	@Test
+	void reloadFindsIdsCommittedOutOfOrder() throws SQLException {
+		final var recipes = KeyDictionary.recipes(database);
+
+		try (final var conn = database.getConnection()) {
+			insert(conn, 1, "minecraft:a");
+			insert(conn, 3, "minecraft:c");
+			recipes.refresh(conn);
+
+			// Another server's registration of id 2 commits only after id 3 was seen
+			insert(conn, 2, "minecraft:b");
+			recipes.refresh(conn);
+			assertNull(recipes.getKey(2));
+
+			recipes.reload(conn);
+			assertEquals(NamespacedKey.fromString("minecraft:b"), recipes.getKey(2));
+			assertEquals(2, recipes.getId(NamespacedKey.fromString("minecraft:b")));
+			assertEquals(NamespacedKey.fromString("minecraft:c"), recipes.getKey(3));
+		}
+	}
+
+	@Test
+	void unknownIdsStayUnknownAfterReload() throws SQLException {
+		final var recipes = KeyDictionary.recipes(database);
+
+		try (final var conn = database.getConnection()) {
+			insert(conn, 1, "minecraft:a");
+			recipes.reload(conn);
+			assertNull(recipes.getKey(7));
+		}
+	}
+
+	private static void insert(final Connection conn, final int id, final String recipe) throws SQLException {
+		try (final var stmt = conn.prepareStatement("INSERT INTO tenacity_recipes (id, recipe) VALUES (?, ?)")) {
+			stmt.setInt(1, id);
+			stmt.setString(2, recipe);
+			stmt.executeUpdate();
+		}
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.serial;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.bukkit.NamespacedKey;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ApplyPlanTest {
+	@Test
+	void recipeBookWithUnknownIdsFailsTheLoad() {
+		final var config = new TenacityConfig.TenacitySavingConfig();
+		config.recipeBook = true;
+
+		final var serial = new SerializedPlayer(UUID.randomUUID());
+		serial.recipeBook = RecipeCodec.encode(List.of(NamespacedKey.minecraft("stick")), recipe -> 5);
+
+		// The ids couldn't be resolved, so the claim left the recipes undecoded
+		assertThrows(IllegalStateException.class, () -> ApplyPlan.of(config, serial));
+	}
+
+	@Test
+	void recipeBookIsIgnoredIfNotSaved() {
+		final var serial = new SerializedPlayer(UUID.randomUUID());
+		serial.recipeBook = RecipeCodec.encode(List.of(NamespacedKey.minecraft("stick")), recipe -> 5);
+
+		assertDoesNotThrow(() -> ApplyPlan.of(new TenacityConfig.TenacitySavingConfig(), serial));
+	}
+
+	@Test
+	void advancementsWithUnknownIdsFailTheLoad() {
+		final var config = new TenacityConfig.TenacitySavingConfig();
+		config.advancements = true;
+
+		final var serial = new SerializedPlayer(UUID.randomUUID());
+		serial.advancements = AdvancementCodec.encode(Map.of(NamespacedKey.minecraft("story/root"), List.of("crafting_table")), criterion -> 5);
+
+		// The ids couldn't be resolved, so the claim left the progress undecoded
+		assertThrows(IllegalStateException.class, () -> ApplyPlan.of(config, serial));
+	}
+}
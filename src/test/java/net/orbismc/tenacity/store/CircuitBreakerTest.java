@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.store;
+
+import net.orbismc.tenacity.TenacityConfig;
+import org.junit.jupiter.api.Test;
+
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CircuitBreakerTest {
+	@Test
+	void onlyTheProbeClosesTheBreaker() throws InterruptedException {
+		final var breaker = breaker();
+		final var failing = breaker.tryAcquire();
+		final var late = breaker.tryAcquire();
+		assertNotNull(failing);
+		assertNotNull(late);
+
+		breaker.record(failing, true, 0);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertNull(breaker.tryAcquire());
+
+		Thread.sleep(1100);
+		final var probe = breaker.tryAcquire();
+		assertNotNull(probe);
+		assertTrue(probe.probe());
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		// A call let through before the breaker opened says nothing about whether the store has recovered
+		breaker.record(late, false, 0);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		breaker.record(probe, false, 0);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	void lateFailuresDontReopenTheBreaker() throws InterruptedException {
+		final var breaker = breaker();
+		final var failing = breaker.tryAcquire();
+		final var late = breaker.tryAcquire();
+		assertNotNull(failing);
+		assertNotNull(late);
+		breaker.record(failing, true, 0);
+
+		Thread.sleep(1100);
+		final var probe = breaker.tryAcquire();
+		assertNotNull(probe);
+		breaker.record(probe, false, 0);
+
+		breaker.record(late, true, 0);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private static CircuitBreaker breaker() {
+		final var config = new TenacityConfig.TenacityBreakerConfig();
+		config.failureThreshold = 1;
+		config.openDuration = 1;
+		return new CircuitBreaker(config, Logger.getLogger("test"));
+	}
+}
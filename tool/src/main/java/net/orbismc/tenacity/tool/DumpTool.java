@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2022 Luis Michaelis
+ * SPDX-License-Identifier: LGPL-3.0-only
+ */
+package net.orbismc.tenacity.tool;
+
+import net.orbismc.tenacity.TenacityConfig;
+import net.orbismc.tenacity.store.PlayerDump;
+import net.orbismc.tenacity.store.PlayerStore;
+import net.orbismc.tenacity.store.StoreException;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.logging.Logger;
+
+/**
+ * Exports all players from a database into a dump file or imports them from one, without running a
+ * server. The database is taken from the plugin's configuration, so moving a network to another database
+ * means exporting with the old configuration and importing with the new one. See {@link PlayerDump}.
+ * <p>
+ * Run with <tt>./gradlew :tool:run --args="export players.dump --config plugins/tenacity/config.yml"</tt>,
+ * see {@link #USAGE} for all options.
+ */
+public final class DumpTool {
+	public static final String USAGE = """
+			Usage: tenacity-dump <export|import> <dump file> [options]
+			  --config <file>  The plugin configuration naming the database (default: plugins/tenacity/config.yml)
+			  --fetch <n>      Players fetched from the database at a time when exporting (default: 1000)
+			  --threads <n>    Chunks written in parallel when importing (default: 4)
+			  --batch <n>      Players written in a single batch when importing (default: 256)
+			Items can only be encoded again inside a server, use /tenacity import <file> reencode for that.""";
+
+	private DumpTool() {
+	}
+
+	public static void main(final String[] args) throws Exception {
+		if (args.length < 2 || args.length % 2 != 0) {
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		final var command = args[0].toLowerCase(Locale.ROOT);
+		final var dump = Path.of(args[1]);
+		var configFile = Path.of("plugins", "tenacity", "config.yml");
+		int fetchSize = 1000, threads = 4, batchSize = 256;
+
+		try {
+			for (int i = 2; i < args.length; i += 2) {
+				switch (args[i]) {
+					case "--config" -> configFile = Path.of(args[i + 1]);
+					case "--fetch" -> fetchSize = Integer.parseInt(args[i + 1]);
+					case "--threads" -> threads = Integer.parseInt(args[i + 1]);
+					case "--batch" -> batchSize = Integer.parseInt(args[i + 1]);
+					default -> throw new IllegalArgumentException("Unknown option %s".formatted(args[i]));
+				}
+			}
+
+			if (!command.equals("export") && !command.equals("import")) {
+				throw new IllegalArgumentException("Unknown command %s".formatted(args[0]));
+			}
+		} catch (final IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+
+		final var config = TenacityConfig.load(configFile.toFile());
+		config.database.poolSize = Math.max(config.database.poolSize, threads);
+
+		// Relative H2 files are resolved against the plugin folder, just like the plugin does
+		final var folder = configFile.toAbsolutePath().getParent();
+		try (final var store = PlayerStore.create(config, folder, "tenacity-dump", Logger.getLogger("tenacity"))) {
+			store.open();
+
+			final var start = System.nanoTime();
+			final long count = command.equals("export")
+					? export(store, dump, fetchSize)
+					: importDump(store, dump, threads, batchSize);
+
+			System.out.printf("%n%s %d players in %.1f s%n", command.equals("export") ? "Exported" : "Imported", count,
+					(System.nanoTime() - start) / 1e9);
+		} catch (final StoreException | IOException e) {
+			System.err.println(e);
+			System.exit(1);
+		}
+	}
+
+	private static long export(final @NotNull PlayerStore store, final @NotNull Path dump, final int fetchSize) throws StoreException, IOException {
+		try (final var out = new BufferedOutputStream(Files.newOutputStream(dump), 1 << 16)) {
+			return PlayerDump.export(store, out, fetchSize, DumpTool::progress);
+		}
+	}
+
+	private static long importDump(final @NotNull PlayerStore store, final @NotNull Path dump, final int threads,
+								   final int batchSize) throws StoreException, IOException {
+		try (final var in = new BufferedInputStream(Files.newInputStream(dump), 1 << 16)) {
+			return PlayerDump.importDump(store, in, threads, batchSize, null, DumpTool::progress);
+		}
+	}
+
+	private static void progress(final long players) {
+		System.out.printf("\r%d players", players);
+		System.out.flush();
+	}
+}